@@ -0,0 +1,391 @@
+package org.ivis.io.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.ivis.layout.Layout;
+import org.ivis.layout.LayoutOptionsPack;
+import org.ivis.layout.cose.CoSELayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class lays out many graphs stored in a single file, so that the cost
+ * of starting a JVM and opening files is paid once for the whole batch rather
+ * than once per graph.
+ *
+ * The input file is a sequence of records, each of which is a big-endian int
+ * length followed by that many bytes of a snapshot written by
+ * GraphSnapshotWriter. The file is memory mapped in windows of whole records,
+ * and the records are handed out to a fixed pool of workers. Each worker owns
+ * a layout, which is reset rather than recreated for each graph.
+ *
+ * For each record, a record holding its index in the input (as an int), the
+ * length of the snapshot of the laid out graph (as an int) and the snapshot
+ * itself is written to the output channel. Records are written in the order
+ * the layouts complete, not in input order.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class BatchLayoutDriver
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final Logger log =
+		LoggerFactory.getLogger(BatchLayoutDriver.class);
+
+	/**
+	 * Maximum size of the part of the input file mapped at once
+	 */
+	public static final long MAX_WINDOW_SIZE = 1L << 30;
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Number of graphs laid out concurrently
+	 */
+	private int threadCount;
+
+	/**
+	 * Workers not processing a record at the moment
+	 */
+	private BlockingQueue<Worker> idleWorkers;
+
+	/**
+	 * Channel to which the results are written, guarded by itself
+	 */
+	private WritableByteChannel out;
+
+	/**
+	 * First failure of a worker, if any
+	 */
+	private volatile Exception failure;
+
+	/**
+	 * Number of records laid out unsuccessfully
+	 */
+	private int failedLayoutCount;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param threadCount number of graphs laid out concurrently
+	 */
+	public BatchLayoutDriver(int threadCount)
+	{
+		if (threadCount < 1)
+		{
+			throw new IllegalArgumentException("Invalid thread count: " +
+				threadCount);
+		}
+
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * This method creates the layout of a worker. Subclasses may override it
+	 * to use another layout, or to set the options of the layouts created.
+	 */
+	protected Layout createLayout()
+	{
+		return new CoSELayout();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the number of records of the last run whose layout
+	 * was unsuccessful; such graphs are written as they are read.
+	 */
+	public int getFailedLayoutCount()
+	{
+		return this.failedLayoutCount;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Running
+// -----------------------------------------------------------------------------
+	/**
+	 * This method lays out the graphs in the given file, writing the results
+	 * to the given channel, which is not closed. It returns the number of
+	 * records processed.
+	 */
+	public int run(File input, WritableByteChannel out) throws IOException
+	{
+		// make sure the shared options are created before the workers start
+		LayoutOptionsPack.getInstance();
+
+		this.out = out;
+		this.failure = null;
+		this.failedLayoutCount = 0;
+		this.idleWorkers = new ArrayBlockingQueue<Worker>(this.threadCount);
+
+		for (int i = 0; i < this.threadCount; i++)
+		{
+			this.idleWorkers.add(new Worker(createLayout()));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+		FileChannel channel = FileChannel.open(input.toPath(),
+			StandardOpenOption.READ);
+		int recordCount = 0;
+
+		try
+		{
+			recordCount = dispatchRecords(channel, executor);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while dispatching records", e);
+		}
+		finally
+		{
+			executor.shutdown();
+			awaitTermination(executor);
+			channel.close();
+			this.out = null;
+			this.idleWorkers = null;
+		}
+
+		if (this.failure != null)
+		{
+			throw new IOException("Batch layout failed", this.failure);
+		}
+
+		log.info("Laid out " + recordCount + " graphs, " +
+			this.failedLayoutCount + " unsuccessfully");
+
+		return recordCount;
+	}
+
+	/**
+	 * This method maps the given channel window by window and hands each
+	 * record out to an idle worker, waiting for one if there is none. It
+	 * returns the number of records dispatched.
+	 */
+	private int dispatchRecords(FileChannel channel, ExecutorService executor)
+		throws IOException, InterruptedException
+	{
+		long size = channel.size();
+		long windowStart = 0;
+		int index = 0;
+
+		while (windowStart < size && this.failure == null)
+		{
+			long windowSize = Math.min(MAX_WINDOW_SIZE, size - windowStart);
+			MappedByteBuffer window = channel.map(
+				FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+			window.order(ByteOrder.BIG_ENDIAN);
+
+			int position = 0;
+
+			while (this.failure == null)
+			{
+				int remaining = (int) windowSize - position;
+
+				if (remaining == 0)
+				{
+					break;
+				}
+
+				int length = (remaining >= 4) ? window.getInt(position) : 0;
+
+				if (length < 0)
+				{
+					throw new IOException("Invalid record length at offset " +
+						(windowStart + position));
+				}
+				else if (remaining < 4 || length > remaining - 4)
+				{
+					// the record continues beyond this window; map the next
+					// window starting with it, unless it cannot fit in one
+
+					if (windowStart + windowSize == size)
+					{
+						throw new IOException("Truncated record at offset " +
+							(windowStart + position));
+					}
+					else if (position == 0)
+					{
+						throw new IOException("Record too large at offset " +
+							windowStart);
+					}
+
+					break;
+				}
+
+				ByteBuffer record = window.duplicate();
+				record.position(position + 4);
+				record.limit(position + 4 + length);
+
+				dispatch(executor, index++, record.slice());
+				position += 4 + length;
+			}
+
+			windowStart += position;
+		}
+
+		return index;
+	}
+
+	/**
+	 * This method submits the given record to the executor along with an idle
+	 * worker, which is made idle again when it is done.
+	 */
+	private void dispatch(ExecutorService executor, final int index,
+		final ByteBuffer record) throws InterruptedException
+	{
+		final Worker worker = this.idleWorkers.take();
+
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					if (failure == null)
+					{
+						worker.process(index, record);
+					}
+				}
+				catch (Exception e)
+				{
+					fail(new IOException("Cannot process record " + index, e));
+				}
+				finally
+				{
+					idleWorkers.add(worker);
+				}
+			}
+		});
+	}
+
+	private synchronized void fail(Exception e)
+	{
+		if (this.failure == null)
+		{
+			this.failure = e;
+		}
+	}
+
+	private synchronized void countFailedLayout()
+	{
+		this.failedLayoutCount++;
+	}
+
+	/**
+	 * This method writes the given result record to the output channel.
+	 */
+	private void writeResult(int index, ByteBuffer snapshot) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(index).putInt(snapshot.remaining());
+		header.flip();
+
+		synchronized (this.out)
+		{
+			while (header.hasRemaining())
+			{
+				this.out.write(header);
+			}
+
+			while (snapshot.hasRemaining())
+			{
+				this.out.write(snapshot);
+			}
+		}
+	}
+
+	private static void awaitTermination(ExecutorService executor)
+	{
+		try
+		{
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+			{
+				log.debug("Waiting for the remaining layouts");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Inner classes
+// -----------------------------------------------------------------------------
+	/**
+	 * A worker owns a layout and the buffers used to read and write the
+	 * records it processes; it is used by one thread at a time.
+	 */
+	private class Worker
+	{
+		private Layout layout;
+		private GraphSnapshotReader reader;
+		private GraphSnapshotWriter writer;
+		private ResultBuffer result;
+		private WritableByteChannel resultChannel;
+
+		Worker(Layout layout)
+		{
+			this.layout = layout;
+			this.reader = new GraphSnapshotReader(layout);
+			this.writer = new GraphSnapshotWriter();
+			this.result = new ResultBuffer();
+			this.resultChannel = Channels.newChannel(this.result);
+		}
+
+		void process(int index, ByteBuffer record) throws IOException
+		{
+			this.layout.reset();
+			this.reader.read(record);
+
+			if (!this.layout.runLayout())
+			{
+				countFailedLayout();
+			}
+
+			this.result.reset();
+			this.writer.write(this.layout.getGraphManager(),
+				this.resultChannel);
+			writeResult(index, this.result.toByteBuffer());
+		}
+	}
+
+	/**
+	 * An output stream whose contents can be wrapped without copying
+	 */
+	private static class ResultBuffer extends ByteArrayOutputStream
+	{
+		ResultBuffer()
+		{
+			super(1 << 16);
+		}
+
+		ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(this.buf, 0, this.count);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package org.ivis.io.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.util.PointD;
+
+/**
+ * This class reads a binary snapshot written by GraphSnapshotWriter into the
+ * l-level graph manager of a layout. Snapshot files are memory mapped, so
+ * that columns are copied into arrays directly from the page cache.
+ *
+ * Nodes and edges are created through the factory methods of the layout,
+ * with their labels as view objects.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class GraphSnapshotReader
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Layout whose graph manager is populated
+	 */
+	private Layout layout;
+
+	/**
+	 * Nodes read, in the order of the snapshot
+	 */
+	private LNode[] nodes;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param layout layout whose graph manager is to be populated
+	 */
+	public GraphSnapshotReader(Layout layout)
+	{
+		this.layout = layout;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the nodes read, in preorder of the inclusion tree.
+	 */
+	public LNode[] getNodes()
+	{
+		return this.nodes;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Reading
+// -----------------------------------------------------------------------------
+	/**
+	 * This method reads the snapshot in the given file by mapping it into
+	 * memory.
+	 */
+	public LGraphManager read(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ);
+
+		try
+		{
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size()));
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * This method reads the snapshot starting at the position of the given
+	 * buffer, leaving the buffer positioned at its end.
+	 */
+	public LGraphManager read(ByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			return readSnapshot(buffer);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truncated graph snapshot", e);
+		}
+	}
+
+	private LGraphManager readSnapshot(ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.BIG_ENDIAN);
+
+		if (buffer.getInt() != GraphSnapshotWriter.MAGIC)
+		{
+			throw new IOException("Not a graph snapshot");
+		}
+
+		int version = buffer.getInt();
+
+		if (version != GraphSnapshotWriter.VERSION)
+		{
+			throw new IOException("Unsupported graph snapshot version: " +
+				version);
+		}
+
+		int nodeCount = readCount(buffer);
+		int edgeCount = readCount(buffer);
+		int bendCount = readCount(buffer);
+		int clusterIdCount = readCount(buffer);
+		int stringCount = readCount(buffer);
+
+		String[] strings = new String[stringCount];
+
+		for (int i = 0; i < stringCount; i++)
+		{
+			byte[] bytes = new byte[readCount(buffer)];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		double[] xs = readDoubles(buffer, nodeCount);
+		double[] ys = readDoubles(buffer, nodeCount);
+		double[] widths = readDoubles(buffer, nodeCount);
+		double[] heights = readDoubles(buffer, nodeCount);
+		int[] parentIndices = readInts(buffer, nodeCount);
+		int[] nodeLabels = readInts(buffer, nodeCount);
+		int[] nodeTypes = readInts(buffer, nodeCount);
+		int[] clusterCounts = readInts(buffer, nodeCount);
+		byte[] compounds = new byte[nodeCount];
+		buffer.get(compounds);
+
+		int[] clusterIds = readInts(buffer, clusterIdCount);
+
+		int[] sources = readInts(buffer, edgeCount);
+		int[] targets = readInts(buffer, edgeCount);
+		int[] edgeLabels = readInts(buffer, edgeCount);
+		int[] edgeTypes = readInts(buffer, edgeCount);
+		int[] bendCounts = readInts(buffer, edgeCount);
+
+		double[] bendXs = readDoubles(buffer, bendCount);
+		double[] bendYs = readDoubles(buffer, bendCount);
+
+		// build the graph
+
+		LGraphManager gm = this.layout.getGraphManager();
+		LGraph root = gm.getRoot();
+
+		if (root == null)
+		{
+			root = gm.addRoot();
+		}
+
+		this.nodes = new LNode[nodeCount];
+		int clusterIdIndex = 0;
+
+		for (int i = 0; i < nodeCount; i++)
+		{
+			int parentIndex = parentIndices[i];
+
+			// parents precede their children in preorder
+			if (parentIndex >= i || parentIndex < -1 ||
+				(parentIndex >= 0 && this.nodes[parentIndex].getChild() == null))
+			{
+				throw new IOException("Invalid parent of node " + i);
+			}
+
+			LGraph owner = (parentIndex == -1) ?
+				root : this.nodes[parentIndex].getChild();
+			String label = getString(strings, nodeLabels[i]);
+			LNode node = owner.add(this.layout.newNode(label));
+
+			node.type = getString(strings, nodeTypes[i]);
+			node.setLocation(xs[i], ys[i]);
+			node.setWidth(widths[i]);
+			node.setHeight(heights[i]);
+
+			if (clusterCounts[i] > clusterIdCount - clusterIdIndex)
+			{
+				throw new IOException("Invalid cluster count of node " + i);
+			}
+
+			for (int j = 0; j < clusterCounts[i]; j++)
+			{
+				node.addCluster(clusterIds[clusterIdIndex++]);
+			}
+
+			if (compounds[i] != 0)
+			{
+				gm.add(this.layout.newGraph(null), node);
+			}
+
+			this.nodes[i] = node;
+		}
+
+		int bendIndex = 0;
+
+		for (int i = 0; i < edgeCount; i++)
+		{
+			if (sources[i] < 0 || sources[i] >= nodeCount ||
+				targets[i] < 0 || targets[i] >= nodeCount)
+			{
+				throw new IOException("Invalid end node of edge " + i);
+			}
+			else if (bendCounts[i] > bendCount - bendIndex)
+			{
+				throw new IOException("Invalid bend point count of edge " + i);
+			}
+
+			String label = getString(strings, edgeLabels[i]);
+			LEdge edge = gm.add(this.layout.newEdge(label),
+				this.nodes[sources[i]], this.nodes[targets[i]]);
+
+			edge.type = getString(strings, edgeTypes[i]);
+
+			for (int j = 0; j < bendCounts[i]; j++)
+			{
+				edge.getBendpoints().add(
+					new PointD(bendXs[bendIndex], bendYs[bendIndex]));
+				bendIndex++;
+			}
+		}
+
+		return gm;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private static int readCount(ByteBuffer buffer) throws IOException
+	{
+		int count = buffer.getInt();
+
+		if (count < 0)
+		{
+			throw new IOException("Invalid count in graph snapshot: " + count);
+		}
+
+		return count;
+	}
+
+	private static String getString(String[] strings, int index)
+		throws IOException
+	{
+		if (index == -1)
+		{
+			return null;
+		}
+		else if (index < 0 || index >= strings.length)
+		{
+			throw new IOException("Invalid string index: " + index);
+		}
+
+		return strings[index];
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer, int count)
+	{
+		double[] values = new double[count];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + count * 8);
+
+		return values;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count)
+	{
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+
+		return values;
+	}
+}
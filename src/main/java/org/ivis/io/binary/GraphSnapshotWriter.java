@@ -0,0 +1,415 @@
+package org.ivis.io.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ivis.layout.Cluster;
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.util.PointD;
+
+/**
+ * This class writes a binary snapshot of the l-level graph of a layout,
+ * which can be read back by GraphSnapshotReader. Snapshots are much cheaper
+ * to produce and to load than XML, and are meant for checkpointing layouts
+ * and for moving graphs between processes.
+ *
+ * A snapshot consists of a header followed by columnar sections, all in big
+ * endian byte order:
+ * <pre>
+ * header:   magic, version, node, edge, bend point, cluster id and string
+ *           counts (int each)
+ * strings:  length in bytes (int) and UTF-8 bytes of each distinct label
+ *           and type
+ * nodes:    in preorder of the inclusion tree; x, y, width, height
+ *           (double columns), parent index or -1 for nodes of the root
+ *           graph, label and type string indices or -1 for null, cluster
+ *           id count (int columns), compound flag (byte column)
+ * clusters: cluster ids of all nodes in node order (int column)
+ * edges:    source and target node indices, label and type string indices,
+ *           bend point count (int columns)
+ * bends:    x and y of all bend points in edge order (double columns)
+ * </pre>
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class GraphSnapshotWriter
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	/**
+	 * Bytes identifying a snapshot ("LGSN")
+	 */
+	public static final int MAGIC = 0x4C47534E;
+
+	/**
+	 * Version of the snapshot format written
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of the buffer used for writing to the channel
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Buffer used for writing to the channel
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Channel being written
+	 */
+	private WritableByteChannel channel;
+
+	/**
+	 * Distinct strings in the order of their indices, and the reverse map
+	 */
+	private List<String> strings;
+	private Map<String, Integer> stringIndices;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	public GraphSnapshotWriter()
+	{
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.strings = new ArrayList<String>();
+		this.stringIndices = new HashMap<String, Integer>();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Writing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method writes a snapshot of the given graph manager to the given
+	 * file, replacing its contents.
+	 */
+	public void write(LGraphManager gm, File file) throws IOException
+	{
+		FileChannel fileChannel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING);
+
+		try
+		{
+			write(gm, fileChannel);
+		}
+		finally
+		{
+			fileChannel.close();
+		}
+	}
+
+	/**
+	 * This method writes a snapshot of the given graph manager to the given
+	 * channel, which is not closed.
+	 */
+	public void write(LGraphManager gm, WritableByteChannel channel)
+		throws IOException
+	{
+		this.channel = channel;
+		this.buffer.clear();
+
+		try
+		{
+			writeSnapshot(gm);
+			flush();
+		}
+		finally
+		{
+			this.channel = null;
+			this.strings.clear();
+			this.stringIndices.clear();
+		}
+	}
+
+	/**
+	 * This method collects the columns of the given graph manager and writes
+	 * them section by section.
+	 */
+	private void writeSnapshot(LGraphManager gm) throws IOException
+	{
+		// nodes in preorder, with the indices of their parents
+
+		List<LNode> nodes = new ArrayList<LNode>();
+		List<Integer> parents = new ArrayList<Integer>();
+		collectNodes(gm.getRoot(), -1, nodes, parents);
+
+		Map<LNode, Integer> nodeIndices = new HashMap<LNode, Integer>();
+		int nodeCount = nodes.size();
+
+		double[] xs = new double[nodeCount];
+		double[] ys = new double[nodeCount];
+		double[] widths = new double[nodeCount];
+		double[] heights = new double[nodeCount];
+		int[] parentIndices = new int[nodeCount];
+		int[] nodeLabels = new int[nodeCount];
+		int[] nodeTypes = new int[nodeCount];
+		int[] clusterCounts = new int[nodeCount];
+		byte[] compounds = new byte[nodeCount];
+		int clusterIdCount = 0;
+
+		for (int i = 0; i < nodeCount; i++)
+		{
+			LNode node = nodes.get(i);
+			nodeIndices.put(node, i);
+
+			xs[i] = node.getLeft();
+			ys[i] = node.getTop();
+			widths[i] = node.getWidth();
+			heights[i] = node.getHeight();
+			parentIndices[i] = parents.get(i);
+			nodeLabels[i] = getStringIndex(node.label);
+			nodeTypes[i] = getStringIndex(node.type);
+			clusterCounts[i] = node.getClusters().size();
+			compounds[i] = (byte) (node.getChild() != null ? 1 : 0);
+			clusterIdCount += clusterCounts[i];
+		}
+
+		int[] clusterIds = new int[clusterIdCount];
+		int clusterIdIndex = 0;
+
+		for (LNode node : nodes)
+		{
+			for (Object cluster : node.getClusters())
+			{
+				clusterIds[clusterIdIndex++] =
+					((Cluster) cluster).getClusterID();
+			}
+		}
+
+		// edges of all graphs followed by inter-graph edges
+
+		List<LEdge> edges = new ArrayList<LEdge>();
+
+		for (Object graph : gm.getGraphs())
+		{
+			for (Object edge : ((LGraph) graph).getEdges())
+			{
+				edges.add((LEdge) edge);
+			}
+		}
+
+		for (Object edge : gm.getInterGraphEdges())
+		{
+			edges.add((LEdge) edge);
+		}
+
+		int edgeCount = edges.size();
+		int[] sources = new int[edgeCount];
+		int[] targets = new int[edgeCount];
+		int[] edgeLabels = new int[edgeCount];
+		int[] edgeTypes = new int[edgeCount];
+		int[] bendCounts = new int[edgeCount];
+		int bendCount = 0;
+
+		for (int i = 0; i < edgeCount; i++)
+		{
+			LEdge edge = edges.get(i);
+
+			sources[i] = getNodeIndex(nodeIndices, edge.getSource(), i);
+			targets[i] = getNodeIndex(nodeIndices, edge.getTarget(), i);
+			edgeLabels[i] = getStringIndex(edge.label);
+			edgeTypes[i] = getStringIndex(edge.type);
+			bendCounts[i] = edge.getBendpoints().size();
+			bendCount += bendCounts[i];
+		}
+
+		double[] bendXs = new double[bendCount];
+		double[] bendYs = new double[bendCount];
+		int bendIndex = 0;
+
+		for (LEdge edge : edges)
+		{
+			for (PointD point : edge.getBendpoints())
+			{
+				bendXs[bendIndex] = point.x;
+				bendYs[bendIndex++] = point.y;
+			}
+		}
+
+		// header and sections
+
+		ensureRemaining(7 * 4);
+		this.buffer.putInt(MAGIC);
+		this.buffer.putInt(VERSION);
+		this.buffer.putInt(nodeCount);
+		this.buffer.putInt(edgeCount);
+		this.buffer.putInt(bendCount);
+		this.buffer.putInt(clusterIdCount);
+		this.buffer.putInt(this.strings.size());
+
+		for (String string : this.strings)
+		{
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			ensureRemaining(4);
+			this.buffer.putInt(bytes.length);
+			writeBytes(bytes, bytes.length);
+		}
+
+		writeDoubles(xs, nodeCount);
+		writeDoubles(ys, nodeCount);
+		writeDoubles(widths, nodeCount);
+		writeDoubles(heights, nodeCount);
+		writeInts(parentIndices, nodeCount);
+		writeInts(nodeLabels, nodeCount);
+		writeInts(nodeTypes, nodeCount);
+		writeInts(clusterCounts, nodeCount);
+		writeBytes(compounds, nodeCount);
+
+		writeInts(clusterIds, clusterIdCount);
+
+		writeInts(sources, edgeCount);
+		writeInts(targets, edgeCount);
+		writeInts(edgeLabels, edgeCount);
+		writeInts(edgeTypes, edgeCount);
+		writeInts(bendCounts, edgeCount);
+
+		writeDoubles(bendXs, bendCount);
+		writeDoubles(bendYs, bendCount);
+	}
+
+	/**
+	 * This method collects the nodes of the given graph and its descendants
+	 * in preorder, along with the indices of their parent nodes.
+	 */
+	private void collectNodes(LGraph graph, int parentIndex, List<LNode> nodes,
+		List<Integer> parents)
+	{
+		for (Object obj : graph.getNodes())
+		{
+			LNode node = (LNode) obj;
+			int index = nodes.size();
+
+			nodes.add(node);
+			parents.add(parentIndex);
+
+			if (node.getChild() != null)
+			{
+				collectNodes(node.getChild(), index, nodes, parents);
+			}
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the index of the given end node of the edge with
+	 * the given index. Ends that are not in the inclusion tree of the root
+	 * graph cannot be written.
+	 */
+	private static int getNodeIndex(Map<LNode, Integer> nodeIndices,
+		LNode node, int edgeIndex) throws IOException
+	{
+		Integer index = nodeIndices.get(node);
+
+		if (index == null)
+		{
+			throw new IOException("End node of edge " + edgeIndex +
+				" is not in the graph hierarchy");
+		}
+
+		return index;
+	}
+
+	private int getStringIndex(String string)
+	{
+		if (string == null)
+		{
+			return -1;
+		}
+
+		Integer index = this.stringIndices.get(string);
+
+		if (index == null)
+		{
+			index = this.strings.size();
+			this.strings.add(string);
+			this.stringIndices.put(string, index);
+		}
+
+		return index;
+	}
+
+	private void writeDoubles(double[] values, int count) throws IOException
+	{
+		int offset = 0;
+
+		while (offset < count)
+		{
+			ensureRemaining(8);
+			int length = Math.min(count - offset, this.buffer.remaining() / 8);
+			this.buffer.asDoubleBuffer().put(values, offset, length);
+			this.buffer.position(this.buffer.position() + length * 8);
+			offset += length;
+		}
+	}
+
+	private void writeInts(int[] values, int count) throws IOException
+	{
+		int offset = 0;
+
+		while (offset < count)
+		{
+			ensureRemaining(4);
+			int length = Math.min(count - offset, this.buffer.remaining() / 4);
+			this.buffer.asIntBuffer().put(values, offset, length);
+			this.buffer.position(this.buffer.position() + length * 4);
+			offset += length;
+		}
+	}
+
+	private void writeBytes(byte[] values, int count) throws IOException
+	{
+		int offset = 0;
+
+		while (offset < count)
+		{
+			ensureRemaining(1);
+			int length = Math.min(count - offset, this.buffer.remaining());
+			this.buffer.put(values, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * This method writes the buffer to the channel if fewer than the given
+	 * number of bytes remain in it.
+	 */
+	private void ensureRemaining(int bytes) throws IOException
+	{
+		if (this.buffer.remaining() < bytes)
+		{
+			flush();
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		this.buffer.flip();
+
+		while (this.buffer.hasRemaining())
+		{
+			this.channel.write(this.buffer);
+		}
+
+		this.buffer.clear();
+	}
+}
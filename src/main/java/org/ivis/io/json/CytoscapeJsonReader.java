@@ -0,0 +1,476 @@
+package org.ivis.io.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+
+/**
+ * This class reads Cytoscape.js elements in JSON into the l-level graph
+ * manager of a layout, using a streaming tokenizer so that no intermediate
+ * document is built. The elements may be given as an array, or as an object
+ * with nodes and edges arrays, optionally under an elements field as in the
+ * output of cy.json().
+ *
+ * Of each element, data.id, data.parent (for members of compounds),
+ * data.source and data.target (for edges), data.type or data.class (as the
+ * type of the l-level object), data.width and data.height or data.bbox.w and
+ * data.bbox.h (as node size), and position (as node center) are read;
+ * everything else is skipped. Nodes and edges are created through the
+ * factory methods of the layout, with their ids as view objects.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class CytoscapeJsonReader
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Layout whose graph manager is populated
+	 */
+	private Layout layout;
+
+	/**
+	 * Map from node ids to the l-level nodes created
+	 */
+	private Map<String, LNode> nodeMap;
+
+	/**
+	 * Nodes read in order, and the ids of their parents (null for the nodes of
+	 * the root graph)
+	 */
+	private List<LNode> nodes;
+	private List<String> parentIds;
+
+	/**
+	 * Edges read, and the ids of their source and target nodes consecutively
+	 */
+	private List<LEdge> edges;
+	private List<String> endIds;
+
+	/**
+	 * Fields of the element being read
+	 */
+	private String group;
+	private String id;
+	private String parentId;
+	private String sourceId;
+	private String targetId;
+	private String type;
+	private double x;
+	private double y;
+	private double width;
+	private double height;
+	private boolean hasX;
+	private boolean hasY;
+	private boolean hasWidth;
+	private boolean hasHeight;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param layout layout whose graph manager is to be populated
+	 */
+	public CytoscapeJsonReader(Layout layout)
+	{
+		this.layout = layout;
+		this.nodeMap = new HashMap<String, LNode>();
+		this.nodes = new ArrayList<LNode>();
+		this.parentIds = new ArrayList<String>();
+		this.edges = new ArrayList<LEdge>();
+		this.endIds = new ArrayList<String>();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the map from node ids to the l-level nodes created
+	 * for them.
+	 */
+	public Map<String, LNode> getNodeMap()
+	{
+		return this.nodeMap;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Reading
+// -----------------------------------------------------------------------------
+	/**
+	 * This method reads the elements in the given reader into the graph
+	 * manager of the associated layout. The reader is not closed.
+	 */
+	public LGraphManager read(Reader in) throws IOException
+	{
+		JsonTokenizer tokenizer = new JsonTokenizer(in);
+
+		try
+		{
+			readElements(tokenizer, tokenizer.next(), null);
+			buildGraph();
+		}
+		finally
+		{
+			this.nodes.clear();
+			this.parentIds.clear();
+			this.edges.clear();
+			this.endIds.clear();
+		}
+
+		return this.layout.getGraphManager();
+	}
+
+	/**
+	 * This method reads the elements in the value starting with the given
+	 * token, which is either an array of elements or an object holding them.
+	 */
+	private void readElements(JsonTokenizer tokenizer, int token,
+		String defaultGroup) throws IOException
+	{
+		if (token == JsonTokenizer.BEGIN_ARRAY)
+		{
+			while ((token = tokenizer.next()) != JsonTokenizer.END_ARRAY)
+			{
+				if (token != JsonTokenizer.BEGIN_OBJECT)
+				{
+					throw tokenizer.error("Element expected");
+				}
+
+				readElement(tokenizer, defaultGroup);
+			}
+		}
+		else if (token == JsonTokenizer.BEGIN_OBJECT)
+		{
+			while ((token = tokenizer.next()) == JsonTokenizer.NAME)
+			{
+				if (tokenizer.textEquals("elements"))
+				{
+					readElements(tokenizer, tokenizer.next(), defaultGroup);
+				}
+				else if (tokenizer.textEquals("nodes"))
+				{
+					readElements(tokenizer, tokenizer.next(), "nodes");
+				}
+				else if (tokenizer.textEquals("edges"))
+				{
+					readElements(tokenizer, tokenizer.next(), "edges");
+				}
+				else
+				{
+					tokenizer.skipValue();
+				}
+			}
+		}
+		else
+		{
+			throw tokenizer.error("Elements expected");
+		}
+	}
+
+	/**
+	 * This method reads the element whose object has just started.
+	 */
+	private void readElement(JsonTokenizer tokenizer, String defaultGroup)
+		throws IOException
+	{
+		this.group = defaultGroup;
+		this.id = null;
+		this.parentId = null;
+		this.sourceId = null;
+		this.targetId = null;
+		this.type = null;
+		this.x = 0;
+		this.y = 0;
+		this.width = 0;
+		this.height = 0;
+		this.hasX = false;
+		this.hasY = false;
+		this.hasWidth = false;
+		this.hasHeight = false;
+
+		int token;
+
+		while ((token = tokenizer.next()) == JsonTokenizer.NAME)
+		{
+			if (tokenizer.textEquals("data"))
+			{
+				readData(tokenizer);
+			}
+			else if (tokenizer.textEquals("position"))
+			{
+				readPosition(tokenizer);
+			}
+			else if (tokenizer.textEquals("group"))
+			{
+				this.group = readString(tokenizer);
+			}
+			else
+			{
+				tokenizer.skipValue();
+			}
+		}
+
+		boolean isEdge = (this.group == null) ?
+			(this.sourceId != null || this.targetId != null) :
+			this.group.equals("edges");
+
+		if (isEdge)
+		{
+			if (this.sourceId == null || this.targetId == null)
+			{
+				throw tokenizer.error("Edge without source or target");
+			}
+
+			LEdge edge = this.layout.newEdge(this.id);
+			edge.type = this.type;
+
+			this.edges.add(edge);
+			this.endIds.add(this.sourceId);
+			this.endIds.add(this.targetId);
+		}
+		else
+		{
+			if (this.id == null)
+			{
+				throw tokenizer.error("Node without id");
+			}
+
+			LNode node = this.layout.newNode(this.id);
+			node.type = this.type;
+
+			// the node keeps its default for each dimension not given
+			if (this.hasWidth)
+			{
+				node.setWidth(this.width);
+			}
+
+			if (this.hasHeight)
+			{
+				node.setHeight(this.height);
+			}
+
+			if (this.hasX || this.hasY)
+			{
+				node.setCenter(this.hasX ? this.x : node.getCenterX(),
+					this.hasY ? this.y : node.getCenterY());
+			}
+
+			if (this.nodeMap.put(this.id, node) != null)
+			{
+				throw tokenizer.error("Duplicate node id " + this.id);
+			}
+
+			this.nodes.add(node);
+			this.parentIds.add(this.parentId);
+		}
+	}
+
+	private void readData(JsonTokenizer tokenizer) throws IOException
+	{
+		expect(tokenizer, JsonTokenizer.BEGIN_OBJECT);
+
+		while (tokenizer.next() == JsonTokenizer.NAME)
+		{
+			if (tokenizer.textEquals("id"))
+			{
+				this.id = readString(tokenizer);
+			}
+			else if (tokenizer.textEquals("parent"))
+			{
+				this.parentId = readString(tokenizer);
+			}
+			else if (tokenizer.textEquals("source"))
+			{
+				this.sourceId = readString(tokenizer);
+			}
+			else if (tokenizer.textEquals("target"))
+			{
+				this.targetId = readString(tokenizer);
+			}
+			else if (tokenizer.textEquals("type") ||
+				tokenizer.textEquals("class"))
+			{
+				this.type = readString(tokenizer);
+			}
+			else if (tokenizer.textEquals("width"))
+			{
+				this.width = readNumber(tokenizer);
+				this.hasWidth = true;
+			}
+			else if (tokenizer.textEquals("height"))
+			{
+				this.height = readNumber(tokenizer);
+				this.hasHeight = true;
+			}
+			else if (tokenizer.textEquals("bbox"))
+			{
+				readBox(tokenizer);
+			}
+			else
+			{
+				tokenizer.skipValue();
+			}
+		}
+	}
+
+	private void readPosition(JsonTokenizer tokenizer) throws IOException
+	{
+		expect(tokenizer, JsonTokenizer.BEGIN_OBJECT);
+
+		while (tokenizer.next() == JsonTokenizer.NAME)
+		{
+			if (tokenizer.textEquals("x"))
+			{
+				this.x = readNumber(tokenizer);
+				this.hasX = true;
+			}
+			else if (tokenizer.textEquals("y"))
+			{
+				this.y = readNumber(tokenizer);
+				this.hasY = true;
+			}
+			else
+			{
+				tokenizer.skipValue();
+			}
+		}
+	}
+
+	private void readBox(JsonTokenizer tokenizer) throws IOException
+	{
+		expect(tokenizer, JsonTokenizer.BEGIN_OBJECT);
+
+		while (tokenizer.next() == JsonTokenizer.NAME)
+		{
+			if (tokenizer.textEquals("w"))
+			{
+				this.width = readNumber(tokenizer);
+				this.hasWidth = true;
+			}
+			else if (tokenizer.textEquals("h"))
+			{
+				this.height = readNumber(tokenizer);
+				this.hasHeight = true;
+			}
+			else
+			{
+				tokenizer.skipValue();
+			}
+		}
+	}
+
+	/**
+	 * This method places the nodes read into the graphs of their parents and
+	 * adds the edges read, once all elements are known.
+	 */
+	private void buildGraph() throws IOException
+	{
+		LGraphManager gm = this.layout.getGraphManager();
+		LGraph root = gm.getRoot();
+
+		if (root == null)
+		{
+			root = gm.addRoot();
+		}
+
+		for (int i = 0; i < this.nodes.size(); i++)
+		{
+			String parentId = this.parentIds.get(i);
+			LGraph owner = root;
+
+			if (parentId != null)
+			{
+				LNode parent = getNode(parentId);
+
+				if (parent.getChild() == null)
+				{
+					gm.add(this.layout.newGraph(null), parent);
+				}
+
+				owner = parent.getChild();
+			}
+
+			owner.add(this.nodes.get(i));
+		}
+
+		for (int i = 0; i < this.edges.size(); i++)
+		{
+			gm.add(this.edges.get(i), getNode(this.endIds.get(2 * i)),
+				getNode(this.endIds.get(2 * i + 1)));
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private LNode getNode(String id) throws IOException
+	{
+		LNode node = this.nodeMap.get(id);
+
+		if (node == null)
+		{
+			throw new IOException("Element refers to unknown node " + id);
+		}
+
+		return node;
+	}
+
+	/**
+	 * This method reads a string value; null values are returned as null.
+	 */
+	private static String readString(JsonTokenizer tokenizer)
+		throws IOException
+	{
+		int token = tokenizer.next();
+
+		if (token == JsonTokenizer.STRING)
+		{
+			return tokenizer.getString();
+		}
+		else if (token == JsonTokenizer.NUMBER)
+		{
+			// numeric ids are used as they are written
+			return tokenizer.getString();
+		}
+		else if (token != JsonTokenizer.NULL)
+		{
+			throw tokenizer.error("String expected");
+		}
+
+		return null;
+	}
+
+	private static double readNumber(JsonTokenizer tokenizer)
+		throws IOException
+	{
+		int token = tokenizer.next();
+
+		if (token != JsonTokenizer.NUMBER)
+		{
+			throw tokenizer.error("Number expected");
+		}
+
+		return tokenizer.getNumber();
+	}
+
+	private static void expect(JsonTokenizer tokenizer, int token)
+		throws IOException
+	{
+		if (tokenizer.next() != token)
+		{
+			throw tokenizer.error("Unexpected token");
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package org.ivis.io.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.sbgn.SbgnPDConstants;
+import org.ivis.layout.sbgn.SbgnProcessNode;
+
+/**
+ * This class writes the l-level graph of a layout as Cytoscape.js elements
+ * in JSON, in the form {"nodes": [...], "edges": [...]}, with node centers as
+ * positions. Output is accumulated in a reused buffer and written to the
+ * underlying writer in large chunks.
+ *
+ * Only the objects whose view objects are string ids (as created by
+ * CytoscapeJsonReader) are written; nodes created by the layout itself, such
+ * as the ports of processes, are not. Edges attached to such ports by the
+ * layout are written with their processes as ends. Edges between written
+ * nodes that have no string ids are written with generated ids, which are
+ * not used by any other element.
+ *
+ * Non-finite node geometry cannot be represented in JSON, so it is rejected
+ * with an IOException.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class CytoscapeJsonWriter
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Prefix of the ids generated for edges without ids
+	 */
+	private static final String GENERATED_ID_PREFIX = "_e";
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	private Writer out;
+
+	/**
+	 * Buffer in which the output is accumulated before it is written
+	 */
+	private StringBuilder buffer;
+
+	/**
+	 * Chunk used to move buffer contents to the writer
+	 */
+	private char[] chunk;
+
+	/**
+	 * Map from the port nodes created by the layout to their processes
+	 */
+	private Map<LNode, LNode> portOwners;
+
+	/**
+	 * Ids of the elements of the graph manager being written, and the number
+	 * of the next id to be generated
+	 */
+	private Set<String> usedIds;
+	private int nextGeneratedId;
+
+	/**
+	 * Whether an element was written into the current array
+	 */
+	private boolean hasElement;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	public CytoscapeJsonWriter()
+	{
+		this.buffer = new StringBuilder(BUFFER_SIZE);
+		this.chunk = new char[BUFFER_SIZE];
+		this.portOwners = new IdentityHashMap<LNode, LNode>();
+		this.usedIds = new HashSet<String>();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Writing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method writes the given graph manager to the given writer, which
+	 * is flushed but not closed.
+	 */
+	public void write(LGraphManager gm, Writer out) throws IOException
+	{
+		this.out = out;
+
+		try
+		{
+			this.buffer.append("{\"nodes\":[");
+			this.hasElement = false;
+			writeNodes(gm.getRoot(), null);
+
+			this.buffer.append("],\"edges\":[");
+			this.hasElement = false;
+
+			for (Object obj : gm.getGraphs())
+			{
+				reserveIds(((LGraph) obj).getEdges());
+			}
+
+			reserveIds(gm.getInterGraphEdges());
+
+			for (Object obj : gm.getGraphs())
+			{
+				writeEdges(((LGraph) obj).getEdges());
+			}
+
+			writeEdges(gm.getInterGraphEdges());
+
+			this.buffer.append("]}");
+			flushBuffer();
+			out.flush();
+		}
+		finally
+		{
+			this.out = null;
+			this.buffer.setLength(0);
+			this.portOwners.clear();
+			this.usedIds.clear();
+			this.nextGeneratedId = 0;
+		}
+	}
+
+	/**
+	 * This method recursively writes the nodes of the given graph, whose
+	 * parent has the given id.
+	 */
+	private void writeNodes(LGraph graph, String parentId) throws IOException
+	{
+		for (Object obj : graph.getNodes())
+		{
+			LNode node = (LNode) obj;
+
+			if (node instanceof SbgnProcessNode)
+			{
+				SbgnProcessNode process = (SbgnProcessNode) node;
+				this.portOwners.put(process.getInputPort(), process);
+				this.portOwners.put(process.getOutputPort(), process);
+			}
+
+			String id = getId(node);
+
+			// members of a node that is not written are written as members
+			// of its nearest written ancestor
+			if (id == null)
+			{
+				if (node.getChild() != null)
+				{
+					writeNodes(node.getChild(), parentId);
+				}
+
+				continue;
+			}
+
+			this.usedIds.add(id);
+			beginElement();
+			this.buffer.append("{\"data\":{\"id\":");
+			appendString(id);
+
+			if (parentId != null)
+			{
+				this.buffer.append(",\"parent\":");
+				appendString(parentId);
+			}
+
+			if (node.type != null)
+			{
+				this.buffer.append(",\"class\":");
+				appendString(node.type);
+			}
+
+			this.buffer.append(",\"width\":");
+			appendNumber(node.getWidth(), id);
+			this.buffer.append(",\"height\":");
+			appendNumber(node.getHeight(), id);
+			this.buffer.append("},\"position\":{\"x\":");
+			appendNumber(node.getCenterX(), id);
+			this.buffer.append(",\"y\":");
+			appendNumber(node.getCenterY(), id);
+			this.buffer.append("}}");
+
+			flushBufferIfFull();
+
+			if (node.getChild() != null)
+			{
+				writeNodes(node.getChild(), id);
+			}
+		}
+	}
+
+	/**
+	 * This method marks the ids of the given edges as used, so that they are
+	 * not generated for other edges.
+	 */
+	private void reserveIds(List<?> edges)
+	{
+		for (int i = 0; i < edges.size(); i++)
+		{
+			Object vGraphObject = ((LEdge) edges.get(i)).vGraphObject;
+
+			if (vGraphObject instanceof String)
+			{
+				this.usedIds.add((String) vGraphObject);
+			}
+		}
+	}
+
+	/**
+	 * This method writes those of the given edges whose ends are written,
+	 * except the rigid edges between processes and their ports, which the
+	 * layout creates.
+	 */
+	private void writeEdges(List<?> edges) throws IOException
+	{
+		for (int i = 0; i < edges.size(); i++)
+		{
+			LEdge edge = (LEdge) edges.get(i);
+
+			if (SbgnPDConstants.RIGID_EDGE.equals(edge.type))
+			{
+				continue;
+			}
+
+			LNode source = getEnd(edge.getSource());
+			LNode target = getEnd(edge.getTarget());
+			String sourceId = getId(source);
+			String targetId = getId(target);
+
+			// an edge between a process and its own port would be a loop
+			if (sourceId == null || targetId == null || source == target)
+			{
+				continue;
+			}
+
+			String id = (edge.vGraphObject instanceof String) ?
+				(String) edge.vGraphObject : generateId();
+
+			beginElement();
+			this.buffer.append("{\"data\":{\"id\":");
+			appendString(id);
+			this.buffer.append(",\"source\":");
+			appendString(sourceId);
+			this.buffer.append(",\"target\":");
+			appendString(targetId);
+
+			if (edge.type != null)
+			{
+				this.buffer.append(",\"class\":");
+				appendString(edge.type);
+			}
+
+			this.buffer.append("}}");
+
+			flushBufferIfFull();
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private static String getId(LNode node)
+	{
+		return (node.vGraphObject instanceof String) ?
+			(String) node.vGraphObject : null;
+	}
+
+	/**
+	 * This method returns the node written in place of the given edge end,
+	 * which is the process of the port nodes created by the layout.
+	 */
+	private LNode getEnd(LNode node)
+	{
+		LNode owner = this.portOwners.get(node);
+
+		return (owner != null) ? owner : node;
+	}
+
+	/**
+	 * This method returns a new id that is not used by any element.
+	 */
+	private String generateId()
+	{
+		String id;
+
+		do
+		{
+			id = GENERATED_ID_PREFIX + this.nextGeneratedId++;
+		}
+		while (!this.usedIds.add(id));
+
+		return id;
+	}
+
+	private void beginElement()
+	{
+		if (this.hasElement)
+		{
+			this.buffer.append(',');
+		}
+
+		this.hasElement = true;
+	}
+
+	/**
+	 * This method appends the given string as a JSON string literal.
+	 */
+	private void appendString(String string)
+	{
+		this.buffer.append('"');
+
+		for (int i = 0; i < string.length(); i++)
+		{
+			char c = string.charAt(i);
+
+			if (c == '"' || c == '\\')
+			{
+				this.buffer.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				this.buffer.append("\\u00");
+				this.buffer.append(HEX_DIGITS[c >> 4]);
+				this.buffer.append(HEX_DIGITS[c & 0xF]);
+			}
+			else
+			{
+				this.buffer.append(c);
+			}
+		}
+
+		this.buffer.append('"');
+	}
+
+	/**
+	 * This method appends the given number of the node with the given id,
+	 * which must be finite to be valid JSON.
+	 */
+	private void appendNumber(double value, String id) throws IOException
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			throw new IOException("Node " + id + " has non-finite geometry: " +
+				value);
+		}
+
+		this.buffer.append(value);
+	}
+
+	private void flushBufferIfFull() throws IOException
+	{
+		if (this.buffer.length() >= BUFFER_SIZE)
+		{
+			flushBuffer();
+		}
+	}
+
+	/**
+	 * This method moves the buffer contents to the writer.
+	 */
+	private void flushBuffer() throws IOException
+	{
+		int length = this.buffer.length();
+
+		for (int start = 0; start < length; start += this.chunk.length)
+		{
+			int end = Math.min(length, start + this.chunk.length);
+			this.buffer.getChars(start, end, this.chunk, 0);
+			this.out.write(this.chunk, 0, end - start);
+		}
+
+		this.buffer.setLength(0);
+	}
+}
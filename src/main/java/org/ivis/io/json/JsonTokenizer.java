@@ -0,0 +1,488 @@
+package org.ivis.io.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class implements a small streaming JSON tokenizer. Tokens are pulled
+ * one at a time from an underlying reader through a fixed buffer; the text
+ * of names and strings is accumulated in a reused builder, so that names can
+ * be compared without creating strings and simple numbers are converted
+ * without creating strings either.
+ *
+ * The tokenizer is lenient: separators are skipped rather than validated,
+ * which is enough for reading well-formed documents.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class JsonTokenizer
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	public static final int BEGIN_OBJECT = 0;
+	public static final int END_OBJECT = 1;
+	public static final int BEGIN_ARRAY = 2;
+	public static final int END_ARRAY = 3;
+	public static final int NAME = 4;
+	public static final int STRING = 5;
+	public static final int NUMBER = 6;
+	public static final int TRUE = 7;
+	public static final int FALSE = 8;
+	public static final int NULL = 9;
+	public static final int END_DOCUMENT = 10;
+
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	/**
+	 * Maximum number of digits of numbers converted without a string, so
+	 * that the mantissa is exact
+	 */
+	private static final int MAX_FAST_DIGITS = 15;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4,
+		1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	private Reader in;
+
+	private char[] buffer;
+	private int position;
+	private int limit;
+
+	/**
+	 * Number of characters consumed before the buffer, for error messages
+	 */
+	private long offset;
+
+	/**
+	 * Text of the current name, string or number
+	 */
+	private StringBuilder text;
+
+	/**
+	 * Value of the current number
+	 */
+	private double number;
+
+	/**
+	 * Whether each enclosing container is an object, innermost last
+	 */
+	private boolean[] containers;
+	private int depth;
+
+	/**
+	 * Whether the next string is a name
+	 */
+	private boolean expectName;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	public JsonTokenizer(Reader in)
+	{
+		this.in = in;
+		this.buffer = new char[BUFFER_SIZE];
+		this.text = new StringBuilder();
+		this.containers = new boolean[32];
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the text of the current name or string.
+	 */
+	public String getString()
+	{
+		return this.text.toString();
+	}
+
+	/**
+	 * This method returns the value of the current number.
+	 */
+	public double getNumber()
+	{
+		return this.number;
+	}
+
+	/**
+	 * This method returns whether the text of the current name or string is
+	 * equal to the given one, without creating a string.
+	 */
+	public boolean textEquals(String string)
+	{
+		int length = this.text.length();
+
+		if (length != string.length())
+		{
+			return false;
+		}
+
+		for (int i = 0; i < length; i++)
+		{
+			if (this.text.charAt(i) != string.charAt(i))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Tokenizing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method reads the next token and returns its kind.
+	 */
+	public int next() throws IOException
+	{
+		while (true)
+		{
+			int c = read();
+
+			switch (c)
+			{
+				case -1:
+					return END_DOCUMENT;
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+				case ':':
+					break;
+				case ',':
+					this.expectName = (this.depth > 0 &&
+						this.containers[this.depth - 1]);
+					break;
+				case '{':
+					push(true);
+					this.expectName = true;
+					return BEGIN_OBJECT;
+				case '}':
+					pop();
+					this.expectName = false;
+					return END_OBJECT;
+				case '[':
+					push(false);
+					this.expectName = false;
+					return BEGIN_ARRAY;
+				case ']':
+					pop();
+					return END_ARRAY;
+				case '"':
+					readString();
+
+					if (this.expectName)
+					{
+						this.expectName = false;
+						return NAME;
+					}
+
+					return STRING;
+				case 't':
+					readLiteral("rue");
+					return TRUE;
+				case 'f':
+					readLiteral("alse");
+					return FALSE;
+				case 'n':
+					readLiteral("ull");
+					return NULL;
+				default:
+					if (c == '-' || (c >= '0' && c <= '9'))
+					{
+						readNumber((char) c);
+						return NUMBER;
+					}
+
+					throw error("Unexpected character '" + (char) c + "'");
+			}
+		}
+	}
+
+	/**
+	 * This method skips the value whose first token is the given one, which
+	 * is the token last returned.
+	 */
+	public void skipValue(int token) throws IOException
+	{
+		if (token != BEGIN_OBJECT && token != BEGIN_ARRAY)
+		{
+			return;
+		}
+
+		int level = 1;
+
+		while (level > 0)
+		{
+			int next = next();
+
+			if (next == BEGIN_OBJECT || next == BEGIN_ARRAY)
+			{
+				level++;
+			}
+			else if (next == END_OBJECT || next == END_ARRAY)
+			{
+				level--;
+			}
+			else if (next == END_DOCUMENT)
+			{
+				throw error("Unexpected end of document");
+			}
+		}
+	}
+
+	/**
+	 * This method skips the next value.
+	 */
+	public void skipValue() throws IOException
+	{
+		skipValue(next());
+	}
+
+	/**
+	 * This method returns an exception with the given message and the
+	 * current position.
+	 */
+	public IOException error(String message)
+	{
+		return new IOException(message + " at offset " +
+			(this.offset + this.position));
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private int read() throws IOException
+	{
+		if (this.position == this.limit && !fill())
+		{
+			return -1;
+		}
+
+		return this.buffer[this.position++];
+	}
+
+	private int peek() throws IOException
+	{
+		if (this.position == this.limit && !fill())
+		{
+			return -1;
+		}
+
+		return this.buffer[this.position];
+	}
+
+	private boolean fill() throws IOException
+	{
+		this.offset += this.limit;
+		this.position = 0;
+		this.limit = 0;
+
+		int count = this.in.read(this.buffer, 0, this.buffer.length);
+
+		if (count <= 0)
+		{
+			return false;
+		}
+
+		this.limit = count;
+
+		return true;
+	}
+
+	private void push(boolean isObject)
+	{
+		if (this.depth == this.containers.length)
+		{
+			boolean[] grown = new boolean[this.depth * 2];
+			System.arraycopy(this.containers, 0, grown, 0, this.depth);
+			this.containers = grown;
+		}
+
+		this.containers[this.depth++] = isObject;
+	}
+
+	private void pop() throws IOException
+	{
+		if (this.depth == 0)
+		{
+			throw error("Unbalanced brackets");
+		}
+
+		this.depth--;
+	}
+
+	private void readString() throws IOException
+	{
+		this.text.setLength(0);
+
+		while (true)
+		{
+			// copy unescaped runs directly from the buffer
+			int start = this.position;
+
+			while (this.position < this.limit)
+			{
+				char c = this.buffer[this.position];
+
+				if (c == '"' || c == '\\')
+				{
+					break;
+				}
+
+				this.position++;
+			}
+
+			this.text.append(this.buffer, start, this.position - start);
+
+			int c = read();
+
+			if (c == '"')
+			{
+				return;
+			}
+			else if (c == '\\')
+			{
+				readEscape();
+			}
+			else if (c == -1)
+			{
+				throw error("Unterminated string");
+			}
+			else
+			{
+				// the run reached the end of the buffer
+				this.position--;
+			}
+		}
+	}
+
+	private void readEscape() throws IOException
+	{
+		int c = read();
+
+		switch (c)
+		{
+			case '"':
+			case '\\':
+			case '/':
+				this.text.append((char) c);
+				break;
+			case 'b':
+				this.text.append('\b');
+				break;
+			case 'f':
+				this.text.append('\f');
+				break;
+			case 'n':
+				this.text.append('\n');
+				break;
+			case 'r':
+				this.text.append('\r');
+				break;
+			case 't':
+				this.text.append('\t');
+				break;
+			case 'u':
+				int value = 0;
+
+				for (int i = 0; i < 4; i++)
+				{
+					int digit = Character.digit(read(), 16);
+
+					if (digit < 0)
+					{
+						throw error("Invalid unicode escape");
+					}
+
+					value = value * 16 + digit;
+				}
+
+				this.text.append((char) value);
+				break;
+			default:
+				throw error("Invalid escape");
+		}
+	}
+
+	private void readLiteral(String rest) throws IOException
+	{
+		for (int i = 0; i < rest.length(); i++)
+		{
+			if (read() != rest.charAt(i))
+			{
+				throw error("Invalid literal");
+			}
+		}
+	}
+
+	/**
+	 * This method reads a number starting with the given character. Numbers
+	 * with few enough digits and no exponent are converted directly, others
+	 * through Double.parseDouble.
+	 */
+	private void readNumber(char first) throws IOException
+	{
+		this.text.setLength(0);
+		this.text.append(first);
+
+		boolean isSimple = true;
+		long mantissa = (first == '-') ? 0 : first - '0';
+		int digits = (first == '-') ? 0 : 1;
+		int fractionDigits = 0;
+		boolean inFraction = false;
+
+		while (true)
+		{
+			int c = peek();
+
+			if (c >= '0' && c <= '9')
+			{
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+
+				if (inFraction)
+				{
+					fractionDigits++;
+				}
+			}
+			else if (c == '.' && !inFraction)
+			{
+				inFraction = true;
+			}
+			else if (c == 'e' || c == 'E' || c == '+' || c == '-' || c == '.')
+			{
+				isSimple = false;
+			}
+			else
+			{
+				break;
+			}
+
+			this.text.append((char) c);
+			this.position++;
+		}
+
+		if (isSimple && digits > 0 && digits <= MAX_FAST_DIGITS)
+		{
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			this.number = (first == '-') ? -value : value;
+		}
+		else
+		{
+			try
+			{
+				this.number = Double.parseDouble(this.text.toString());
+			}
+			catch (NumberFormatException e)
+			{
+				throw error("Invalid number " + this.text);
+			}
+		}
+	}
+}
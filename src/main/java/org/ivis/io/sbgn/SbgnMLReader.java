@@ -0,0 +1,520 @@
+package org.ivis.io.sbgn;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.sbgn.SbgnPDConstants;
+
+/**
+ * This class reads an SBGN-ML process description map into the l-level
+ * graph manager of a layout (typically an SbgnPDLayout), streaming with StAX
+ * so that neither libSBGN nor an intermediate object model is needed.
+ *
+ * Glyph classes are mapped onto node types as defined in SbgnPDConstants:
+ * multimers are treated as their single counterparts, and omitted and
+ * uncertain processes, associations and dissociations as processes. Members
+ * of complexes and of compartments (through compartmentRef) are placed into
+ * the child graphs of these. Auxiliary glyphs such as state variables and
+ * units of information are not part of the layout and are skipped. Arcs
+ * become edges typed by their classes, with arcs to or from a port connected
+ * to the process owning the port.
+ *
+ * Nodes and edges are created through the factory methods of the layout,
+ * with the glyph and arc ids as view objects. The roles of process ports, as
+ * implied by the consumption and production arcs incident to them, are
+ * recorded so that SbgnMLWriter can write the port positions computed by the
+ * layout back.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class SbgnMLReader
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final String MULTIMER_SUFFIX = " multimer";
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Layout whose graph manager is populated
+	 */
+	private Layout layout;
+
+	/**
+	 * Map from glyph ids to the l-level nodes created
+	 */
+	private Map<String, LNode> nodeMap;
+
+	/**
+	 * Map from port ids to the nodes of the glyphs owning them
+	 */
+	private Map<String, LNode> portOwners;
+
+	/**
+	 * Map from port ids to their roles, either SbgnPDConstants.INPUT_PORT or
+	 * SbgnPDConstants.OUTPUT_PORT
+	 */
+	private Map<String, String> portRoles;
+
+	/**
+	 * Ids of the auxiliary glyphs skipped
+	 */
+	private Set<String> auxiliaryIds;
+
+	/**
+	 * Nodes referring to compartments not read yet, and the ids of these
+	 * compartments
+	 */
+	private List<LNode> pendingMembers;
+	private List<String> pendingCompartmentIds;
+
+	/**
+	 * Id, class, source id and target id of each arc read, consecutively
+	 */
+	private List<String> arcs;
+
+	/**
+	 * Factory used to create stream readers
+	 */
+	private XMLInputFactory inputFactory;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param layout layout whose graph manager is to be populated
+	 */
+	public SbgnMLReader(Layout layout)
+	{
+		this.layout = layout;
+		this.nodeMap = new HashMap<String, LNode>();
+		this.portOwners = new HashMap<String, LNode>();
+		this.portRoles = new HashMap<String, String>();
+		this.auxiliaryIds = new HashSet<String>();
+		this.pendingMembers = new ArrayList<LNode>();
+		this.pendingCompartmentIds = new ArrayList<String>();
+		this.arcs = new ArrayList<String>();
+
+		this.inputFactory = XMLInputFactory.newInstance();
+		this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD,
+			Boolean.FALSE);
+		this.inputFactory.setProperty(
+			XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the map from glyph ids to the l-level nodes created
+	 * for them.
+	 */
+	public Map<String, LNode> getNodeMap()
+	{
+		return this.nodeMap;
+	}
+
+	/**
+	 * This method returns the map from port ids to their roles, either
+	 * SbgnPDConstants.INPUT_PORT or SbgnPDConstants.OUTPUT_PORT. Ports with
+	 * no consumption or production arcs have no roles.
+	 */
+	public Map<String, String> getPortRoles()
+	{
+		return this.portRoles;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Reading
+// -----------------------------------------------------------------------------
+	/**
+	 * This method reads the map in the given stream into the graph manager of
+	 * the associated layout. The stream is not closed.
+	 */
+	public LGraphManager read(InputStream in) throws XMLStreamException
+	{
+		XMLStreamReader reader = this.inputFactory.createXMLStreamReader(in);
+
+		try
+		{
+			read(reader);
+			attachPendingMembers();
+			addArcs();
+		}
+		finally
+		{
+			reader.close();
+			this.pendingMembers.clear();
+			this.pendingCompartmentIds.clear();
+			this.arcs.clear();
+		}
+
+		return this.layout.getGraphManager();
+	}
+
+	/**
+	 * This method processes the events of the given reader, creating nodes as
+	 * glyphs start and collecting the arcs.
+	 */
+	private void read(XMLStreamReader reader) throws XMLStreamException
+	{
+		LGraphManager gm = this.layout.getGraphManager();
+		LGraph root = gm.getRoot();
+
+		if (root == null)
+		{
+			root = gm.addRoot();
+		}
+
+		// glyphs whose elements are open, innermost first
+		Deque<LNode> openGlyphs = new ArrayDeque<LNode>();
+
+		while (reader.hasNext())
+		{
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = reader.getLocalName();
+
+				if (name.equals("glyph"))
+				{
+					LNode parent = openGlyphs.peek();
+					String id = getRequiredAttribute(reader, "id");
+					String glyphClass = getRequiredAttribute(reader, "class");
+
+					if (isAuxiliary(parent, glyphClass))
+					{
+						this.auxiliaryIds.add(id);
+						skipElement(reader);
+						continue;
+					}
+
+					LNode node = this.layout.newNode(id);
+					node.type = getNodeType(glyphClass);
+
+					if (this.nodeMap.put(id, node) != null)
+					{
+						throw new XMLStreamException("Duplicate glyph id: " + id,
+							reader.getLocation());
+					}
+
+					String compartmentId =
+						reader.getAttributeValue(null, "compartmentRef");
+
+					if (parent != null)
+					{
+						getChildGraph(parent).add(node);
+					}
+					else if (compartmentId == null)
+					{
+						root.add(node);
+					}
+					else if (compartmentId.equals(id))
+					{
+						throw new XMLStreamException("Glyph refers to itself " +
+							"as compartment: " + id, reader.getLocation());
+					}
+					else if (this.nodeMap.containsKey(compartmentId))
+					{
+						getChildGraph(this.nodeMap.get(compartmentId)).add(node);
+					}
+					else
+					{
+						this.pendingMembers.add(node);
+						this.pendingCompartmentIds.add(compartmentId);
+					}
+
+					openGlyphs.push(node);
+				}
+				else if (name.equals("bbox"))
+				{
+					LNode node = openGlyphs.peek();
+
+					if (node != null)
+					{
+						node.setLocation(getDouble(reader, "x"),
+							getDouble(reader, "y"));
+						node.setWidth(getDouble(reader, "w"));
+						node.setHeight(getDouble(reader, "h"));
+					}
+				}
+				else if (name.equals("port"))
+				{
+					LNode node = openGlyphs.peek();
+
+					if (node != null)
+					{
+						this.portOwners.put(getRequiredAttribute(reader, "id"),
+							node);
+					}
+				}
+				else if (name.equals("arc"))
+				{
+					this.arcs.add(getRequiredAttribute(reader, "id"));
+					this.arcs.add(getRequiredAttribute(reader, "class"));
+					this.arcs.add(getRequiredAttribute(reader, "source"));
+					this.arcs.add(getRequiredAttribute(reader, "target"));
+
+					// start, next and end points are recomputed by the layout
+					skipElement(reader);
+				}
+				else if (!name.equals("sbgn") && !name.equals("map") &&
+					!name.equals("arcgroup"))
+				{
+					// labels, clones, notes, extensions, ...
+					skipElement(reader);
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				if (reader.getLocalName().equals("glyph"))
+				{
+					openGlyphs.pop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method adds the members of compartments read after them into the
+	 * child graphs of the compartments. Compartment references that form a
+	 * cycle are rejected.
+	 */
+	private void attachPendingMembers() throws XMLStreamException
+	{
+		for (int i = 0; i < this.pendingMembers.size(); i++)
+		{
+			String compartmentId = this.pendingCompartmentIds.get(i);
+			LNode compartment = this.nodeMap.get(compartmentId);
+
+			if (compartment == null)
+			{
+				throw new XMLStreamException("Glyph refers to unknown " +
+					"compartment: " + compartmentId);
+			}
+
+			LNode member = this.pendingMembers.get(i);
+
+			if (isNestedIn(compartment, member))
+			{
+				throw new XMLStreamException("Compartment references form " +
+					"a cycle: " + compartmentId);
+			}
+
+			getChildGraph(compartment).add(member);
+		}
+	}
+
+	/**
+	 * This method returns whether the given node is the given ancestor or is
+	 * nested within it.
+	 */
+	private static boolean isNestedIn(LNode node, LNode ancestor)
+	{
+		while (node != null)
+		{
+			if (node == ancestor)
+			{
+				return true;
+			}
+
+			LGraph owner = node.getOwner();
+			node = (owner == null) ? null : owner.getParent();
+		}
+
+		return false;
+	}
+
+	/**
+	 * This method adds an edge for each arc read, recording the roles of the
+	 * ports at its ends.
+	 */
+	private void addArcs() throws XMLStreamException
+	{
+		LGraphManager gm = this.layout.getGraphManager();
+
+		for (int i = 0; i < this.arcs.size(); i += 4)
+		{
+			String arcClass = this.arcs.get(i + 1);
+			String sourceId = this.arcs.get(i + 2);
+			String targetId = this.arcs.get(i + 3);
+
+			LNode source = getArcEnd(sourceId);
+			LNode target = getArcEnd(targetId);
+
+			// arcs of auxiliary glyphs are not part of the layout
+			if (source == null || target == null)
+			{
+				continue;
+			}
+
+			if (arcClass.equals(SbgnPDConstants.CONSUMPTION) &&
+				this.portOwners.containsKey(targetId))
+			{
+				this.portRoles.put(targetId, SbgnPDConstants.INPUT_PORT);
+			}
+			else if (arcClass.equals(SbgnPDConstants.PRODUCTION) &&
+				this.portOwners.containsKey(sourceId))
+			{
+				this.portRoles.put(sourceId, SbgnPDConstants.OUTPUT_PORT);
+			}
+
+			LEdge edge = this.layout.newEdge(this.arcs.get(i));
+			edge.type = arcClass;
+			gm.add(edge, source, target);
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the node corresponding to the given arc end, which
+	 * is the id of either a glyph or a port. Null is returned for auxiliary
+	 * glyphs.
+	 */
+	private LNode getArcEnd(String id) throws XMLStreamException
+	{
+		LNode node = this.nodeMap.get(id);
+
+		if (node == null)
+		{
+			node = this.portOwners.get(id);
+		}
+
+		if (node == null && !this.auxiliaryIds.contains(id))
+		{
+			throw new XMLStreamException("Arc refers to unknown glyph or " +
+				"port: " + id);
+		}
+
+		return node;
+	}
+
+	private LGraph getChildGraph(LNode node)
+	{
+		if (node.getChild() == null)
+		{
+			this.layout.getGraphManager().add(this.layout.newGraph(null), node);
+		}
+
+		return node.getChild();
+	}
+
+	/**
+	 * This method returns whether a glyph of the given class within the given
+	 * parent is auxiliary, i.e. it is not laid out on its own. Only complexes
+	 * have non-auxiliary child glyphs.
+	 */
+	private static boolean isAuxiliary(LNode parent, String glyphClass)
+	{
+		if (glyphClass.equals(SbgnPDConstants.STATE_VARIABLE) ||
+			glyphClass.equals(SbgnPDConstants.UNIT_OF_INFORMATION) ||
+			glyphClass.equals("cardinality"))
+		{
+			return true;
+		}
+
+		return parent != null &&
+			!SbgnPDConstants.COMPLEX.equals(parent.type);
+	}
+
+	/**
+	 * This method returns the node type corresponding to the given glyph
+	 * class.
+	 */
+	private static String getNodeType(String glyphClass)
+	{
+		if (glyphClass.endsWith(MULTIMER_SUFFIX))
+		{
+			glyphClass = glyphClass.substring(0,
+				glyphClass.length() - MULTIMER_SUFFIX.length());
+		}
+
+		if (glyphClass.equals(SbgnPDConstants.OMITTED_PROCESS) ||
+			glyphClass.equals(SbgnPDConstants.UNCERTAIN_PROCESS) ||
+			glyphClass.equals(SbgnPDConstants.ASSOCIATION) ||
+			glyphClass.equals(SbgnPDConstants.DISSOCIATION))
+		{
+			return SbgnPDConstants.PROCESS;
+		}
+
+		return glyphClass;
+	}
+
+	private static String getRequiredAttribute(XMLStreamReader reader,
+		String name) throws XMLStreamException
+	{
+		String value = reader.getAttributeValue(null, name);
+
+		if (value == null)
+		{
+			throw new XMLStreamException("Missing attribute " + name + " of " +
+				reader.getLocalName(), reader.getLocation());
+		}
+
+		return value;
+	}
+
+	private static double getDouble(XMLStreamReader reader, String name)
+		throws XMLStreamException
+	{
+		String value = getRequiredAttribute(reader, name);
+
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new XMLStreamException("Invalid value of attribute " + name +
+				": " + value, reader.getLocation());
+		}
+	}
+
+	/**
+	 * This method skips the subtree of the current element, leaving the
+	 * reader at its end element.
+	 */
+	private static void skipElement(XMLStreamReader reader)
+		throws XMLStreamException
+	{
+		int depth = 1;
+
+		while (depth > 0)
+		{
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+}
@@ -0,0 +1,568 @@
+package org.ivis.io.sbgn;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.sbgn.SbgnPDConstants;
+import org.ivis.layout.sbgn.SbgnProcessNode;
+import org.ivis.util.PointD;
+
+/**
+ * This class writes the result of a layout back into the SBGN-ML map it was
+ * read from (by SbgnMLReader). The original map is streamed through and
+ * copied as is, except for the geometry:
+ * <ul>
+ * <li>bounding boxes of the glyphs laid out are replaced by the bounds of
+ * their nodes,</li>
+ * <li>ports of processes are placed at the port nodes created by the layout,
+ * </li>
+ * <li>bounding boxes of labels, auxiliary glyphs and ports with no roles are
+ * moved along with the glyphs containing them,</li>
+ * <li>arcs are drawn straight between the (new) positions of their ends, so
+ * their intermediate points are dropped.</li>
+ * </ul>
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class SbgnMLWriter
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final String ENCODING = "UTF-8";
+
+	private static final QName ID = new QName("id");
+	private static final QName SOURCE = new QName("source");
+	private static final QName TARGET = new QName("target");
+	private static final QName X = new QName("x");
+	private static final QName Y = new QName("y");
+	private static final QName W = new QName("w");
+	private static final QName H = new QName("h");
+
+	private static final String[] POINT_ATTRIBUTES = {"x", "y"};
+	private static final String[] BOX_ATTRIBUTES = {"x", "y", "w", "h"};
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Roles of the ports of processes, as recorded by SbgnMLReader
+	 */
+	private Map<String, String> portRoles;
+
+	/**
+	 * Map from glyph ids to the laid out nodes
+	 */
+	private Map<String, LNode> nodeMap;
+
+	/**
+	 * Positions at which ports are written
+	 */
+	private Map<String, PointD> portPositions;
+
+	private XMLInputFactory inputFactory;
+	private XMLOutputFactory outputFactory;
+	private XMLEventFactory eventFactory;
+
+	/**
+	 * Glyphs whose elements are open, innermost first
+	 */
+	private Deque<GlyphFrame> openGlyphs;
+
+	/**
+	 * Events of the innermost glyph held until its bounding box is read, as
+	 * the elements preceding it may need to be moved
+	 */
+	private List<XMLEvent> heldEvents;
+
+	private XMLEventWriter writer;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param portRoles roles of the ports in the map to be written, as
+	 * returned by SbgnMLReader.getPortRoles()
+	 */
+	public SbgnMLWriter(Map<String, String> portRoles)
+	{
+		this.portRoles = portRoles;
+		this.nodeMap = new HashMap<String, LNode>();
+		this.portPositions = new HashMap<String, PointD>();
+		this.openGlyphs = new ArrayDeque<GlyphFrame>();
+
+		this.inputFactory = XMLInputFactory.newInstance();
+		this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD,
+			Boolean.FALSE);
+		this.inputFactory.setProperty(
+			XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		this.outputFactory = XMLOutputFactory.newInstance();
+		this.eventFactory = XMLEventFactory.newInstance();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Writing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method copies the given original map to the given stream in UTF-8,
+	 * updating its geometry from the given laid out graph manager. Neither
+	 * stream is closed.
+	 */
+	public void write(LGraphManager gm, InputStream original, OutputStream out)
+		throws XMLStreamException, IOException
+	{
+		mapNodes(gm.getRoot());
+
+		BufferedOutputStream buffer = new BufferedOutputStream(out,
+			BUFFER_SIZE);
+		XMLEventReader reader = this.inputFactory.createXMLEventReader(original);
+		this.writer = this.outputFactory.createXMLEventWriter(buffer, ENCODING);
+
+		try
+		{
+			copy(reader);
+			this.writer.flush();
+		}
+		finally
+		{
+			reader.close();
+			this.writer.close();
+			this.writer = null;
+			this.nodeMap.clear();
+			this.portPositions.clear();
+			this.openGlyphs.clear();
+			this.heldEvents = null;
+		}
+
+		buffer.flush();
+	}
+
+	/**
+	 * This method copies the events of the given reader to the writer,
+	 * replacing the geometry of the elements laid out.
+	 */
+	private void copy(XMLEventReader reader) throws XMLStreamException
+	{
+		int depth = 0;
+
+		// depth of the next element being dropped, if any
+		int droppedDepth = -1;
+
+		// start and end points of the arc being copied
+		PointD arcStart = null;
+		PointD arcEnd = null;
+
+		while (reader.hasNext())
+		{
+			XMLEvent event = reader.nextEvent();
+
+			if (event.isStartElement())
+			{
+				depth++;
+
+				StartElement element = event.asStartElement();
+				String name = element.getName().getLocalPart();
+				GlyphFrame frame = this.openGlyphs.peek();
+				boolean isChildOfGlyph =
+					(frame != null && depth == frame.depth + 1);
+
+				if (droppedDepth != -1)
+				{
+					continue;
+				}
+				else if (name.equals("glyph"))
+				{
+					// the glyph had no bounding box of its own
+					releaseHeldEvents(null);
+
+					LNode node = this.nodeMap.get(getValue(element, ID));
+					this.openGlyphs.push(new GlyphFrame(node, depth));
+					emit(event);
+
+					if (node != null)
+					{
+						this.heldEvents = new ArrayList<XMLEvent>();
+					}
+
+					continue;
+				}
+				else if (name.equals("bbox") && isChildOfGlyph &&
+					frame.node != null)
+				{
+					LNode node = frame.node;
+					frame.dx = node.getCenterX() - (getDouble(element, X) +
+						getDouble(element, W) / 2);
+					frame.dy = node.getCenterY() - (getDouble(element, Y) +
+						getDouble(element, H) / 2);
+					frame.isMoved = true;
+
+					releaseHeldEvents(frame);
+					event = replace(element, BOX_ATTRIBUTES, node.getLeft(),
+						node.getTop(), node.getWidth(), node.getHeight());
+				}
+				else if (name.equals("bbox") && this.heldEvents == null)
+				{
+					// held bounding boxes are moved once they are released
+					event = move(element, BOX_ATTRIBUTES, findMovedFrame());
+				}
+				else if (name.equals("port") && isChildOfGlyph)
+				{
+					String id = getValue(element, ID);
+					PointD position = getPortPosition(frame.node, id);
+
+					if (position != null)
+					{
+						event = replace(element, POINT_ATTRIBUTES, position.x,
+							position.y);
+					}
+					else
+					{
+						event = move(element, POINT_ATTRIBUTES,
+							findMovedFrame());
+					}
+
+					element = event.asStartElement();
+					this.portPositions.put(id, new PointD(
+						getDouble(element, X), getDouble(element, Y)));
+				}
+				else if (name.equals("arc"))
+				{
+					arcStart = getArcEndPosition(getValue(element, SOURCE));
+					arcEnd = getArcEndPosition(getValue(element, TARGET));
+				}
+				else if (name.equals("start") && arcStart != null)
+				{
+					event = replace(element, POINT_ATTRIBUTES, arcStart.x,
+						arcStart.y);
+				}
+				else if (name.equals("end") && arcEnd != null)
+				{
+					event = replace(element, POINT_ATTRIBUTES, arcEnd.x,
+						arcEnd.y);
+				}
+				else if (name.equals("next") && arcStart != null &&
+					arcEnd != null)
+				{
+					droppedDepth = depth;
+					continue;
+				}
+			}
+			else if (event.isEndElement())
+			{
+				int endDepth = depth--;
+
+				if (droppedDepth != -1)
+				{
+					if (endDepth == droppedDepth)
+					{
+						droppedDepth = -1;
+					}
+
+					continue;
+				}
+
+				String name = event.asEndElement().getName().getLocalPart();
+
+				if (name.equals("glyph") && !this.openGlyphs.isEmpty() &&
+					this.openGlyphs.peek().depth == endDepth)
+				{
+					releaseHeldEvents(null);
+					this.openGlyphs.pop();
+				}
+				else if (name.equals("arc"))
+				{
+					arcStart = null;
+					arcEnd = null;
+				}
+			}
+			else if (droppedDepth != -1)
+			{
+				continue;
+			}
+
+			emit(event);
+		}
+	}
+
+	/**
+	 * This method writes the given event, or holds it if the bounding box of
+	 * the innermost glyph is not read yet.
+	 */
+	private void emit(XMLEvent event) throws XMLStreamException
+	{
+		if (this.heldEvents != null)
+		{
+			this.heldEvents.add(event);
+		}
+		else
+		{
+			this.writer.add(event);
+		}
+	}
+
+	/**
+	 * This method writes the events held, moving the bounding boxes among
+	 * them along with the given glyph, if any.
+	 */
+	private void releaseHeldEvents(GlyphFrame frame) throws XMLStreamException
+	{
+		if (this.heldEvents == null)
+		{
+			return;
+		}
+
+		List<XMLEvent> events = this.heldEvents;
+		this.heldEvents = null;
+
+		for (XMLEvent event : events)
+		{
+			if (frame != null && event.isStartElement() &&
+				event.asStartElement().getName().getLocalPart().equals("bbox"))
+			{
+				event = move(event.asStartElement(), BOX_ATTRIBUTES, frame);
+			}
+
+			this.writer.add(event);
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	/**
+	 * This method maps the ids of the glyphs laid out in the given graph and
+	 * its descendants to their nodes.
+	 */
+	private void mapNodes(LGraph graph)
+	{
+		for (Object obj : graph.getNodes())
+		{
+			LNode node = (LNode) obj;
+
+			// port nodes and dummy compounds are not glyphs
+			if (node.vGraphObject instanceof String &&
+				!SbgnPDConstants.INPUT_PORT.equals(node.type) &&
+				!SbgnPDConstants.OUTPUT_PORT.equals(node.type) &&
+				!SbgnPDConstants.DUMMY_COMPOUND.equals(node.type))
+			{
+				this.nodeMap.put((String) node.vGraphObject, node);
+			}
+
+			if (node.getChild() != null)
+			{
+				mapNodes(node.getChild());
+			}
+		}
+	}
+
+	/**
+	 * This method returns the position of the port node created by the
+	 * layout for the given port of the given glyph, if any.
+	 */
+	private PointD getPortPosition(LNode node, String portId)
+	{
+		if (!(node instanceof SbgnProcessNode))
+		{
+			return null;
+		}
+
+		SbgnProcessNode processNode = (SbgnProcessNode) node;
+		String role = this.portRoles.get(portId);
+		LNode port = null;
+
+		if (SbgnPDConstants.INPUT_PORT.equals(role))
+		{
+			port = processNode.getInputPort();
+		}
+		else if (SbgnPDConstants.OUTPUT_PORT.equals(role))
+		{
+			port = processNode.getOutputPort();
+		}
+
+		return (port == null) ?
+			null : new PointD(port.getCenterX(), port.getCenterY());
+	}
+
+	/**
+	 * This method returns the new position of the given arc end, which is the
+	 * id of either a port or a glyph, or null if it is not known.
+	 */
+	private PointD getArcEndPosition(String id)
+	{
+		PointD position = this.portPositions.get(id);
+
+		if (position == null)
+		{
+			LNode node = this.nodeMap.get(id);
+
+			if (node != null)
+			{
+				position = new PointD(node.getCenterX(), node.getCenterY());
+			}
+		}
+
+		return position;
+	}
+
+	/**
+	 * This method returns the innermost open glyph that is moved, or null.
+	 */
+	private GlyphFrame findMovedFrame()
+	{
+		for (GlyphFrame frame : this.openGlyphs)
+		{
+			if (frame.isMoved)
+			{
+				return frame;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * This method returns the given element with its x and y attributes moved
+	 * along with the given glyph, if any.
+	 */
+	private StartElement move(StartElement element, String[] names,
+		GlyphFrame frame) throws XMLStreamException
+	{
+		if (frame == null)
+		{
+			return element;
+		}
+
+		double[] values = new double[names.length];
+
+		for (int i = 0; i < names.length; i++)
+		{
+			values[i] = getDouble(element, new QName(names[i]));
+		}
+
+		values[0] += frame.dx;
+		values[1] += frame.dy;
+
+		return replace(element, names, values);
+	}
+
+	/**
+	 * This method returns a copy of the given element whose attributes with
+	 * the given names have the given values.
+	 */
+	private StartElement replace(StartElement element, String[] names,
+		double... values)
+	{
+		List<Attribute> attributes = new ArrayList<Attribute>();
+
+		for (Iterator<?> iter = element.getAttributes(); iter.hasNext();)
+		{
+			Attribute attribute = (Attribute) iter.next();
+			QName name = attribute.getName();
+			int index = -1;
+
+			if (name.getNamespaceURI().length() == 0)
+			{
+				for (int i = 0; i < names.length; i++)
+				{
+					if (names[i].equals(name.getLocalPart()))
+					{
+						index = i;
+					}
+				}
+			}
+
+			if (index != -1)
+			{
+				attribute = this.eventFactory.createAttribute(name,
+					Double.toString(values[index]));
+			}
+
+			attributes.add(attribute);
+		}
+
+		return this.eventFactory.createStartElement(element.getName(),
+			attributes.iterator(), element.getNamespaces());
+	}
+
+	private static String getValue(StartElement element, QName name)
+	{
+		Attribute attribute = element.getAttributeByName(name);
+
+		return (attribute == null) ? null : attribute.getValue();
+	}
+
+	private static double getDouble(StartElement element, QName name)
+		throws XMLStreamException
+	{
+		String value = getValue(element, name);
+
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (RuntimeException e)
+		{
+			throw new XMLStreamException("Invalid value of attribute " +
+				name + ": " + value, element.getLocation());
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Inner classes
+// -----------------------------------------------------------------------------
+	/**
+	 * State of a glyph whose element is open
+	 */
+	private static class GlyphFrame
+	{
+		/**
+		 * Laid out node of the glyph, null if it is not laid out
+		 */
+		LNode node;
+
+		/**
+		 * Depth of the element of the glyph
+		 */
+		int depth;
+
+		/**
+		 * Whether the glyph is moved, and by how much
+		 */
+		boolean isMoved;
+		double dx;
+		double dy;
+
+		GlyphFrame(LNode node, int depth)
+		{
+			this.node = node;
+			this.depth = depth;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package org.ivis.io.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.util.PointD;
+
+/**
+ * This class reads a graph in the view format described by layout.xsd into
+ * the l-level graph manager of a layout. The input is streamed with StAX and
+ * l-level objects are created as their elements are encountered, so that
+ * only a map from node ids to l-level nodes is kept in addition to the
+ * graph itself; no intermediate object model of the whole document is built.
+ * Edges referring to nodes which are not read yet are added once the whole
+ * document is read.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class ViewReader
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Layout whose graph manager is populated
+	 */
+	private Layout layout;
+
+	/**
+	 * Map from node ids in the input to the l-level nodes created
+	 */
+	private Map<String, LNode> nodeMap;
+
+	/**
+	 * Edges whose end nodes were not read yet, along with the ids of their
+	 * source and target nodes
+	 */
+	private List<LEdge> pendingEdges;
+	private List<String> pendingEndIds;
+
+	/**
+	 * Factory used to create stream readers
+	 */
+	private XMLInputFactory inputFactory;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param layout layout whose graph manager is to be populated
+	 */
+	public ViewReader(Layout layout)
+	{
+		this.layout = layout;
+		this.nodeMap = new HashMap<String, LNode>();
+		this.pendingEdges = new ArrayList<LEdge>();
+		this.pendingEndIds = new ArrayList<String>();
+
+		this.inputFactory = XMLInputFactory.newInstance();
+
+		// the view format has no use for DTDs or external entities
+		this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD,
+			Boolean.FALSE);
+		this.inputFactory.setProperty(
+			XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the map from node ids in the input to the l-level
+	 * nodes created for them.
+	 */
+	public Map<String, LNode> getNodeMap()
+	{
+		return this.nodeMap;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Reading
+// -----------------------------------------------------------------------------
+	/**
+	 * This method reads the view in the given stream into the graph manager
+	 * of the associated layout. The stream is not closed.
+	 */
+	public LGraphManager read(InputStream in) throws XMLStreamException
+	{
+		XMLStreamReader reader = this.inputFactory.createXMLStreamReader(in);
+
+		try
+		{
+			read(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return this.layout.getGraphManager();
+	}
+
+	/**
+	 * This method reads the view in the given reader into the graph manager
+	 * of the associated layout. The reader is not closed.
+	 */
+	public LGraphManager read(Reader in) throws XMLStreamException
+	{
+		XMLStreamReader reader = this.inputFactory.createXMLStreamReader(in);
+
+		try
+		{
+			read(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return this.layout.getGraphManager();
+	}
+
+	/**
+	 * This method processes the events of the given reader, creating l-level
+	 * objects as their elements start.
+	 */
+	private void read(XMLStreamReader reader) throws XMLStreamException
+	{
+		LGraphManager gm = this.layout.getGraphManager();
+		LGraph graph = gm.getRoot();
+
+		if (graph == null)
+		{
+			graph = gm.addRoot();
+		}
+
+		// nodes whose elements are open, innermost first
+		Deque<LNode> openNodes = new ArrayDeque<LNode>();
+
+		LEdge edge = null;
+		String sourceId = null;
+		String targetId = null;
+
+		while (reader.hasNext())
+		{
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = reader.getLocalName();
+
+				if (name.equals("node"))
+				{
+					String id = getRequiredAttribute(reader, "id");
+					LNode node = graph.add(this.layout.newNode(id));
+
+					if (this.nodeMap.put(id, node) != null)
+					{
+						throw new XMLStreamException("Duplicate node id: " + id,
+							reader.getLocation());
+					}
+
+					openNodes.push(node);
+				}
+				else if (name.equals("edge"))
+				{
+					edge = this.layout.newEdge(
+						getRequiredAttribute(reader, "id"));
+					sourceId = null;
+					targetId = null;
+				}
+				else if (name.equals("bounds"))
+				{
+					LNode node = openNodes.peek();
+
+					node.setLocation(getDouble(reader, "x"),
+						getDouble(reader, "y"));
+					node.setWidth(getDouble(reader, "width"));
+					node.setHeight(getDouble(reader, "height"));
+				}
+				else if (name.equals("type"))
+				{
+					String value = reader.getAttributeValue(null, "value");
+
+					if (edge != null)
+					{
+						edge.type = value;
+					}
+					else
+					{
+						openNodes.peek().type = value;
+					}
+				}
+				else if (name.equals("children"))
+				{
+					graph = gm.add(this.layout.newGraph(null), openNodes.peek());
+				}
+				else if (name.equals("clusterID"))
+				{
+					String text = reader.getElementText().trim();
+
+					try
+					{
+						openNodes.peek().addCluster(Integer.parseInt(text));
+					}
+					catch (NumberFormatException e)
+					{
+						throw new XMLStreamException("Invalid cluster id: " +
+							text, reader.getLocation());
+					}
+				}
+				else if (name.equals("sourceNode"))
+				{
+					sourceId = getRequiredAttribute(reader, "id");
+				}
+				else if (name.equals("targetNode"))
+				{
+					targetId = getRequiredAttribute(reader, "id");
+				}
+				else if (name.equals("bendPoint"))
+				{
+					edge.getBendpoints().add(new PointD(getDouble(reader, "x"),
+						getDouble(reader, "y")));
+				}
+				else if (name.equals("customData"))
+				{
+					skipElement(reader);
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				String name = reader.getLocalName();
+
+				if (name.equals("node"))
+				{
+					openNodes.pop();
+				}
+				else if (name.equals("children"))
+				{
+					graph = graph.getParent().getOwner();
+				}
+				else if (name.equals("edge"))
+				{
+					if (sourceId == null || targetId == null)
+					{
+						throw new XMLStreamException("Edge without end nodes",
+							reader.getLocation());
+					}
+
+					LNode source = this.nodeMap.get(sourceId);
+					LNode target = this.nodeMap.get(targetId);
+
+					if (source != null && target != null)
+					{
+						gm.add(edge, source, target);
+					}
+					else
+					{
+						this.pendingEdges.add(edge);
+						this.pendingEndIds.add(sourceId);
+						this.pendingEndIds.add(targetId);
+					}
+
+					edge = null;
+				}
+			}
+		}
+
+		addPendingEdges(gm);
+	}
+
+	/**
+	 * This method adds the edges whose end nodes were read after them.
+	 */
+	private void addPendingEdges(LGraphManager gm) throws XMLStreamException
+	{
+		for (int i = 0; i < this.pendingEdges.size(); i++)
+		{
+			LNode source = getNode(this.pendingEndIds.get(2 * i));
+			LNode target = getNode(this.pendingEndIds.get(2 * i + 1));
+
+			gm.add(this.pendingEdges.get(i), source, target);
+		}
+
+		this.pendingEdges.clear();
+		this.pendingEndIds.clear();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private LNode getNode(String id) throws XMLStreamException
+	{
+		LNode node = this.nodeMap.get(id);
+
+		if (node == null)
+		{
+			throw new XMLStreamException("Edge refers to unknown node: " + id);
+		}
+
+		return node;
+	}
+
+	private static String getRequiredAttribute(XMLStreamReader reader,
+		String name) throws XMLStreamException
+	{
+		String value = reader.getAttributeValue(null, name);
+
+		if (value == null)
+		{
+			throw new XMLStreamException("Missing attribute " + name + " of " +
+				reader.getLocalName(), reader.getLocation());
+		}
+
+		return value;
+	}
+
+	private static double getDouble(XMLStreamReader reader, String name)
+		throws XMLStreamException
+	{
+		String value = getRequiredAttribute(reader, name);
+
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new XMLStreamException("Invalid value of attribute " + name +
+				": " + value, reader.getLocation());
+		}
+	}
+
+	/**
+	 * This method skips the subtree of the current element, leaving the
+	 * reader at its end element.
+	 */
+	private static void skipElement(XMLStreamReader reader)
+		throws XMLStreamException
+	{
+		int depth = 1;
+
+		while (depth > 0)
+		{
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+}
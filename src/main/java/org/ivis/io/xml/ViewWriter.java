@@ -0,0 +1,294 @@
+package org.ivis.io.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.ivis.layout.Cluster;
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LGraphObject;
+import org.ivis.layout.LNode;
+import org.ivis.util.PointD;
+
+/**
+ * This class writes the geometry of the l-level graph of a layout in the
+ * view format described by layout.xsd. Elements are streamed directly from
+ * the l-level graph, so no intermediate object model of the whole document
+ * is built.
+ *
+ * Nodes and edges are identified by their view objects if those are strings.
+ * Others (e.g. dummy nodes created by the layout) are given generated ids,
+ * which start with "_n" or "_e" and differ from all ids in use; labels are
+ * not used as ids, as they need not be unique.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class ViewWriter
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	/**
+	 * Size of the buffer between the stream writer and the output stream
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * Prefixes of the ids generated for nodes and edges
+	 */
+	private static final String NODE_ID_PREFIX = "_n";
+	private static final String EDGE_ID_PREFIX = "_e";
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Factory used to create stream writers
+	 */
+	private XMLOutputFactory outputFactory;
+
+	/**
+	 * Ids generated for the nodes with no id of their own
+	 */
+	private Map<LNode, String> generatedIds;
+
+	/**
+	 * Ids of the objects of the graph manager being written, including the
+	 * generated ones, and the number of ids generated
+	 */
+	private Set<String> usedIds;
+	private int generatedIdCount;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	public ViewWriter()
+	{
+		this.outputFactory = XMLOutputFactory.newInstance();
+		this.generatedIds = new IdentityHashMap<LNode, String>();
+		this.usedIds = new HashSet<String>();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Writing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method writes the given graph manager to the given stream in UTF-8.
+	 * The stream is flushed but not closed.
+	 */
+	public void write(LGraphManager gm, OutputStream out)
+		throws XMLStreamException, IOException
+	{
+		BufferedOutputStream buffer = new BufferedOutputStream(out,
+			BUFFER_SIZE);
+		XMLStreamWriter writer =
+			this.outputFactory.createXMLStreamWriter(buffer, ENCODING);
+
+		try
+		{
+			reserveIds(gm.getAllNodes());
+			reserveIds(gm.getAllEdges());
+
+			writer.writeStartDocument(ENCODING, "1.0");
+			writer.writeStartElement("view");
+
+			writeNodes(writer, gm.getRoot());
+
+			for (Object obj : gm.getGraphs())
+			{
+				writeEdges(writer, ((LGraph) obj).getEdges());
+			}
+
+			writeEdges(writer, gm.getInterGraphEdges());
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		}
+		finally
+		{
+			writer.close();
+			this.generatedIds.clear();
+			this.usedIds.clear();
+			this.generatedIdCount = 0;
+		}
+
+		buffer.flush();
+	}
+
+	/**
+	 * This method recursively writes the nodes of the given graph.
+	 */
+	private void writeNodes(XMLStreamWriter writer, LGraph graph)
+		throws XMLStreamException
+	{
+		for (Object obj : graph.getNodes())
+		{
+			LNode node = (LNode) obj;
+
+			writer.writeStartElement("node");
+			writer.writeAttribute("id", getId(node));
+
+			writer.writeEmptyElement("bounds");
+			writer.writeAttribute("x", Double.toString(node.getLeft()));
+			writer.writeAttribute("y", Double.toString(node.getTop()));
+			writer.writeAttribute("width", Double.toString(node.getWidth()));
+			writer.writeAttribute("height", Double.toString(node.getHeight()));
+
+			writeType(writer, node.type);
+
+			if (node.getChild() != null)
+			{
+				writer.writeStartElement("children");
+				writeNodes(writer, node.getChild());
+				writer.writeEndElement();
+			}
+
+			if (!node.getClusters().isEmpty())
+			{
+				writer.writeStartElement("clusterIDs");
+
+				for (Object cluster : node.getClusters())
+				{
+					writer.writeStartElement("clusterID");
+					writer.writeCharacters(Integer.toString(
+						((Cluster) cluster).getClusterID()));
+					writer.writeEndElement();
+				}
+
+				writer.writeEndElement();
+			}
+
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * This method writes the given edges along with their bend points.
+	 */
+	private void writeEdges(XMLStreamWriter writer, List<?> edges)
+		throws XMLStreamException
+	{
+		for (Object obj : edges)
+		{
+			LEdge edge = (LEdge) obj;
+
+			writer.writeStartElement("edge");
+			writer.writeAttribute("id", getId(edge));
+
+			writer.writeEmptyElement("sourceNode");
+			writer.writeAttribute("id", getId(edge.getSource()));
+			writer.writeEmptyElement("targetNode");
+			writer.writeAttribute("id", getId(edge.getTarget()));
+
+			writeType(writer, edge.type);
+
+			List<PointD> bendpoints = edge.getBendpoints();
+
+			if (!bendpoints.isEmpty())
+			{
+				writer.writeStartElement("bendPointList");
+
+				for (PointD point : bendpoints)
+				{
+					writer.writeEmptyElement("bendPoint");
+					writer.writeAttribute("x", Double.toString(point.x));
+					writer.writeAttribute("y", Double.toString(point.y));
+				}
+
+				writer.writeEndElement();
+			}
+
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeType(XMLStreamWriter writer, String type)
+		throws XMLStreamException
+	{
+		if (type != null)
+		{
+			writer.writeEmptyElement("type");
+			writer.writeAttribute("value", type);
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	/**
+	 * This method marks the string view objects of the given nodes or edges
+	 * as used ids, so that they are not generated for other objects.
+	 */
+	private void reserveIds(Object[] objects)
+	{
+		for (int i = 0; i < objects.length; i++)
+		{
+			Object vGraphObject = ((LGraphObject) objects[i]).vGraphObject;
+
+			if (vGraphObject instanceof String)
+			{
+				this.usedIds.add((String) vGraphObject);
+			}
+		}
+	}
+
+	private String getId(LNode node)
+	{
+		if (node.vGraphObject instanceof String)
+		{
+			return (String) node.vGraphObject;
+		}
+
+		String id = this.generatedIds.get(node);
+
+		if (id == null)
+		{
+			id = generateId(NODE_ID_PREFIX);
+			this.generatedIds.put(node, id);
+		}
+
+		return id;
+	}
+
+	private String getId(LEdge edge)
+	{
+		if (edge.vGraphObject instanceof String)
+		{
+			return (String) edge.vGraphObject;
+		}
+
+		// edges are not referred to, so they need not be remembered
+		return generateId(EDGE_ID_PREFIX);
+	}
+
+	/**
+	 * This method returns a new id with the given prefix that is not used by
+	 * any object.
+	 */
+	private String generateId(String prefix)
+	{
+		String id;
+
+		do
+		{
+			id = prefix + this.generatedIdCount++;
+		}
+		while (!this.usedIds.add(id));
+
+		return id;
+	}
+}
@@ -0,0 +1,157 @@
+package org.ivis.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ivis.util.PointD;
+
+/**
+ * This class records the changes made to a graph since it was last laid out,
+ * along with the locations the nodes had then, so that a layout can start
+ * from the previous drawing and confine itself to the neighborhood of the
+ * changes.
+ *
+ * Added objects are recorded once they are in the graph; removed nodes must
+ * be recorded before they are removed from their graphs, so that their
+ * neighbors are known.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class GraphDiff
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	private List<LNode> addedNodes;
+	private List<LEdge> addedEdges;
+	private List<LNode> removedNodes;
+	private List<LEdge> removedEdges;
+
+	/**
+	 * Nodes that were adjacent to removed nodes
+	 */
+	private Set<LNode> formerNeighbors;
+
+	/**
+	 * Centers of nodes in the previous drawing
+	 */
+	private Map<LNode, PointD> previousCenters;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	public GraphDiff()
+	{
+		this.addedNodes = new ArrayList<LNode>();
+		this.addedEdges = new ArrayList<LEdge>();
+		this.removedNodes = new ArrayList<LNode>();
+		this.removedEdges = new ArrayList<LEdge>();
+		this.formerNeighbors = new LinkedHashSet<LNode>();
+		this.previousCenters = new IdentityHashMap<LNode, PointD>();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Recording changes
+// -----------------------------------------------------------------------------
+	public void addNode(LNode node)
+	{
+		this.addedNodes.add(node);
+	}
+
+	public void addEdge(LEdge edge)
+	{
+		this.addedEdges.add(edge);
+	}
+
+	/**
+	 * This method records the removal of the given node, which should still
+	 * be in its graph.
+	 */
+	public void removeNode(LNode node)
+	{
+		this.removedNodes.add(node);
+		this.formerNeighbors.addAll(node.getNeighborsList());
+	}
+
+	public void removeEdge(LEdge edge)
+	{
+		this.removedEdges.add(edge);
+	}
+
+	/**
+	 * This method sets the center of the given node in the previous drawing.
+	 * Nodes without previous centers, other than the added ones, are laid
+	 * out starting from their current locations.
+	 */
+	public void setPreviousCenter(LNode node, double x, double y)
+	{
+		this.previousCenters.put(node, new PointD(x, y));
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public List<LNode> getAddedNodes()
+	{
+		return Collections.unmodifiableList(this.addedNodes);
+	}
+
+	public List<LEdge> getAddedEdges()
+	{
+		return Collections.unmodifiableList(this.addedEdges);
+	}
+
+	public List<LNode> getRemovedNodes()
+	{
+		return Collections.unmodifiableList(this.removedNodes);
+	}
+
+	public List<LEdge> getRemovedEdges()
+	{
+		return Collections.unmodifiableList(this.removedEdges);
+	}
+
+	public Map<LNode, PointD> getPreviousCenters()
+	{
+		return Collections.unmodifiableMap(this.previousCenters);
+	}
+
+	public boolean isEmpty()
+	{
+		return this.addedNodes.isEmpty() && this.addedEdges.isEmpty() &&
+			this.removedNodes.isEmpty() && this.removedEdges.isEmpty();
+	}
+
+	/**
+	 * This method returns the nodes still in the graph that are directly
+	 * affected by the changes: the added nodes, the ends of added and removed
+	 * edges, and the former neighbors of removed nodes.
+	 */
+	public Set<LNode> getChangedNodes()
+	{
+		Set<LNode> changedNodes = new LinkedHashSet<LNode>();
+		changedNodes.addAll(this.addedNodes);
+		changedNodes.addAll(this.formerNeighbors);
+
+		for (LEdge edge : this.addedEdges)
+		{
+			changedNodes.add(edge.getSource());
+			changedNodes.add(edge.getTarget());
+		}
+
+		for (LEdge edge : this.removedEdges)
+		{
+			changedNodes.add(edge.getSource());
+			changedNodes.add(edge.getTarget());
+		}
+
+		changedNodes.removeAll(this.removedNodes);
+
+		return changedNodes;
+	}
+}
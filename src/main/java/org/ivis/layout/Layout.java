@@ -3,11 +3,8 @@ package org.ivis.layout;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.awt.Dimension;
 import java.awt.Point;
 
@@ -172,6 +169,18 @@ public abstract class Layout {
 		return gm; //why to return the gm value when it also sets graphManager?
 	}
 
+	/**
+	 * This method discards the graph of this layout, along with any state left
+	 * by a previous run, so that this layout can be reused for another graph
+	 * with the same options instead of creating a new layout.
+	 */
+	public void reset()
+	{
+		this.newGraphManager();
+		this.edgeToDummyNodes.clear();
+		this.isLayoutFinished = false;
+	}
+
 	/**
 	 * This method creates a new graph associated with the input view graph.
 	 *
@@ -503,102 +512,111 @@ public abstract class Layout {
 	public List<List<LNode>> getFlatForest()
 	{
 		List<List<LNode>> flatForest = new ArrayList<List<LNode>>();
-		boolean isForest = true;
 
+		if (!findFlatForest(flatForest))
+		{
+			flatForest.clear();
+		}
+
+		return flatForest;
+	}
+
+	/**
+	 * This method returns whether the graph is flat and each of its
+	 * component(s) is a tree, that is whether getFlatForest returns a
+	 * non-empty list, without collecting the trees. It stops at the first
+	 * compound node or cycle found.
+	 *
+	 * @return true if the graph is a non-empty flat forest
+	 */
+	public boolean isFlatForest()
+	{
+		return findFlatForest(null);
+	}
+
+	/**
+	 * This method decides whether the graph is a non-empty flat forest by a
+	 * BFS on each of its components, adding the nodes of each tree to the
+	 * given forest in BFS order, if the forest is not null. Multiple edges
+	 * between two nodes are counted once.
+	 */
+	private boolean findFlatForest(List<List<LNode>> flatForest)
+	{
 		// Quick reference for all nodes in the graph manager associated with
 		// this layout. The list should not be changed.
 		final List<LNode> allNodes = graphManager.getRoot().getNodes();
+		int n = allNodes.size();
 
 		// First be sure that the graph is flat
-		boolean isFlat = true;
-
-		for (int i = 0; i < allNodes.size(); i++)
+		for (int i = 0; i < n; i++)
 		{
 			if (allNodes.get(i).getChild() != null)
 			{
-				isFlat = false;
+				return false;
 			}
 		}
 
-		// Return empty forest if the graph is not flat.
-		if (!isFlat)
-		{
-			return flatForest;
-		}
-
-		// Run BFS for each component of the graph.
-
-		Set<LNode> visited = new HashSet<LNode>();
-		LinkedList<LNode> toBeVisited = new LinkedList<LNode>();
-		HashMap<LNode, LNode> parents = new HashMap<LNode, LNode>();
-		LinkedList<LNode> unProcessedNodes = new LinkedList<LNode>();
-
-		unProcessedNodes.addAll(allNodes);
+		int[] offsets = new int[n + 1];
+		int[] neighbors = calcNeighbors(allNodes, offsets);
 
-		// Each iteration of this loop finds a component of the graph and
-		// decides whether it is a tree or not. If it is a tree, adds it to the
-		// forest and continued with the next component.
+		// Run BFS for each component of the graph. A component is not a tree
+		// if the BFS reaches a node it has seen before, other than through
+		// the edge it has come from.
+		int[] parents = new int[n];
+		boolean[] seen = new boolean[n];
+		int[] queue = new int[n];
+		int tail = 0;
 
-		while (unProcessedNodes.size() > 0 && isForest)
+		for (int root = 0; root < n; root++)
 		{
-			toBeVisited.add(unProcessedNodes.getFirst());
-
-			// Start the BFS. Each iteration of this loop visits a node in a
-			// BFS manner.
-			while (!toBeVisited.isEmpty() && isForest)
+			if (seen[root])
 			{
-				LNode currentNode = toBeVisited.poll();
-				visited.add(currentNode);
+				continue;
+			}
 
-				// Traverse all neighbors of this node
-				List<LEdge> neighborEdges = currentNode.getEdges();
+			int head = tail;
+			seen[root] = true;
+			parents[root] = -1;
+			queue[tail++] = root;
 
-				for (int i = 0; i < neighborEdges.size(); i++)
+			for (int visit = head; visit < tail; visit++)
+			{
+				int node = queue[visit];
+
+				for (int k = offsets[node]; k < offsets[node + 1]; k++)
 				{
-					LNode currentNeighbor =
-						neighborEdges.get(i).getOtherEnd(currentNode);
+					int neighbor = neighbors[k];
+
+					if (neighbor == parents[node])
+					{
+						continue;
+					}
 
-					// If BFS is not growing from this neighbor.
-					if (parents.get(currentNode) != currentNeighbor)
+					if (seen[neighbor])
 					{
-						// We haven't previously visited this neighbor.
-						if (!visited.contains(currentNeighbor))
-						{
-							toBeVisited.addLast(currentNeighbor);
-							parents.put(currentNeighbor, currentNode);
-						}
-						// Since we have previously visited this neighbor and
-						// this neighbor is not parent of currentNode, given
-						// graph contains a component that is not tree, hence
-						// it is not a forest.
-						else
-						{
-							isForest = false;
-							break;
-						}
+						return false;
 					}
+
+					seen[neighbor] = true;
+					parents[neighbor] = node;
+					queue[tail++] = neighbor;
 				}
 			}
 
-			if (!isForest)
-			// The graph contains a component that is not a tree. Empty
-			// previously found trees. The method will end.
-			{
-				flatForest.clear();
-			}
-			else
-			// Save currently visited nodes as a tree in our forest. Reset
-			// visited and parents lists. Continue with the next component of
-			// the graph, if any.
+			if (flatForest != null)
 			{
-				flatForest.add(new ArrayList<LNode>(visited));
-				unProcessedNodes.removeAll(visited);
-				visited.clear();
-				parents.clear();
+				List<LNode> tree = new ArrayList<LNode>(tail - head);
+
+				for (int visit = head; visit < tail; visit++)
+				{
+					tree.add(allNodes.get(queue[visit]));
+				}
+
+				flatForest.add(tree);
 			}
 		}
 
-		return flatForest;
+		return n > 0;
 	}
 
 	/**
@@ -780,80 +798,120 @@ public abstract class Layout {
 	 */
 	public static LNode findCenterOfTree(List<LNode> nodes)
 	{
-		ArrayList<LNode> list = new ArrayList<LNode>();
-		list.addAll(nodes);
+		int n = nodes.size();
 
-		ArrayList<LNode> removedNodes = new ArrayList<LNode>();
-		HashMap<LNode, Integer> remainingDegrees =
-			new HashMap<LNode, Integer>();
-		boolean foundCenter = false;
-		LNode centerNode = null;
-
-		if (list.size() == 1 || list.size() == 2)
+		if (n <= 2)
 		{
-			foundCenter = true;
-			centerNode = list.get(0);
+			return (n == 0) ? null : nodes.get(0);
 		}
 
-		Iterator<LNode> iter = list.iterator();
+		int[] offsets = new int[n + 1];
+		int[] neighbors = calcNeighbors(nodes, offsets);
+
+		// Remove the leaves layer by layer, until one or two nodes remain.
+		int[] remainingDegrees = new int[n];
+		boolean[] removed = new boolean[n];
+		int[] layer = new int[n];
+		int[] nextLayer = new int[n];
+		int layerSize = 0;
+		int remainingCount = n;
 
-		while (iter.hasNext())
+		for (int i = 0; i < n; i++)
 		{
-			LNode node = iter.next();
-			Integer degree = new Integer(node.getNeighborsList().size());
-			remainingDegrees.put(node , degree);
+			remainingDegrees[i] = offsets[i + 1] - offsets[i];
 
-			if (degree.intValue() == 1)
+			if (remainingDegrees[i] == 1)
 			{
-				removedNodes.add(node);
+				layer[layerSize++] = i;
 			}
 		}
 
-		ArrayList<LNode> tempList = new ArrayList<LNode>();
-		tempList.addAll(removedNodes);
-
-		while (!foundCenter)
+		while (remainingCount > 2 && layerSize > 0)
 		{
-			ArrayList<LNode> tempList2 = new ArrayList<LNode>();
-			tempList2.addAll(tempList);
-			tempList.removeAll(tempList);
-			iter = tempList2.iterator();
+			int nextLayerSize = 0;
 
-			while (iter.hasNext())
+			for (int l = 0; l < layerSize; l++)
 			{
-				LNode node = iter.next();
-				list.remove(node);
+				int i = layer[l];
+				removed[i] = true;
+				remainingCount--;
 
-				Set<LNode> neighbours = node.getNeighborsList();
-
-				for (LNode neighbor: neighbours)
+				for (int k = offsets[i]; k < offsets[i + 1]; k++)
 				{
-					if (!removedNodes.contains(neighbor))
-					{
-						Integer otherDegree = remainingDegrees.get(neighbor);
-						Integer newDegree =
-							new Integer(otherDegree.intValue() - 1);
+					int j = neighbors[k];
 
-						if (newDegree.intValue() == 1)
-						{
-							tempList.add(neighbor);
-						}
-
-						remainingDegrees.put(neighbor, newDegree);
+					if (!removed[j] && --remainingDegrees[j] == 1)
+					{
+						nextLayer[nextLayerSize++] = j;
 					}
 				}
 			}
 
-			removedNodes.addAll(tempList);
+			int[] temp = layer;
+			layer = nextLayer;
+			nextLayer = temp;
+			layerSize = nextLayerSize;
+		}
 
-			if (list.size() == 1 || list.size() == 2)
+		for (int i = 0; i < n; i++)
+		{
+			if (!removed[i])
 			{
-				foundCenter = true;
-				centerNode = list.get(0);
+				return nodes.get(i);
 			}
 		}
 
-		return centerNode;
+		return null;
+	}
+
+	/**
+	 * This method returns the neighbors of the given nodes in a single array,
+	 * as indices into the given list; the neighbors of the i-th node are at
+	 * offsets[i] to offsets[i + 1] - 1, and multiple edges between two nodes
+	 * are counted once. Neighbors should be in the given list as well.
+	 *
+	 * @param nodes list of nodes
+	 * @param offsets array of size nodes.size() + 1 to be filled in
+	 *
+	 * @return array of neighbor indices
+	 */
+	private static int[] calcNeighbors(List<LNode> nodes, int[] offsets)
+	{
+		int n = nodes.size();
+		Map<LNode, Integer> indices = new HashMap<LNode, Integer>();
+		int edgeEndCount = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			indices.put(nodes.get(i), i);
+			edgeEndCount += nodes.get(i).getEdges().size();
+		}
+
+		int[] neighbors = new int[edgeEndCount];
+		int[] lastNeighborOf = new int[n];
+		Arrays.fill(lastNeighborOf, -1);
+		int neighborCount = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			LNode node = nodes.get(i);
+			List<LEdge> edges = node.getEdges();
+
+			for (LEdge edge : edges)
+			{
+				int j = indices.get(edge.getOtherEnd(node));
+
+				if (lastNeighborOf[j] != i)
+				{
+					lastNeighborOf[j] = i;
+					neighbors[neighborCount++] = j;
+				}
+			}
+
+			offsets[i + 1] = neighborCount;
+		}
+
+		return neighbors;
 	}
 
 // -----------------------------------------------------------------------------
@@ -50,6 +50,7 @@ public class LayoutOptionsPack implements Serializable
 		public int compoundGravityRange; // 0-100
 		public boolean smartEdgeLengthCalc; // T-F
 		public boolean multiLevelScaling; // T-F
+		public boolean pivotMdsPlacement; // T-F
 
 		public int defaultIdealEdgeLength = CoSEConstants.DEFAULT_EDGE_LENGTH;
 		public int defaultSpringStrength = 50;
@@ -61,6 +62,7 @@ public class LayoutOptionsPack implements Serializable
 		public int defaultCompoundGravityRange = 50;
 		public boolean defaultSmartEdgeLengthCalc = CoSEConstants.DEFAULT_USE_SMART_IDEAL_EDGE_LENGTH_CALCULATION;
 		public boolean defaultMultiLevelScaling = CoSEConstants.DEFAULT_USE_MULTI_LEVEL_SCALING;
+		public boolean defaultPivotMdsPlacement = CoSEConstants.DEFAULT_USE_PIVOT_MDS_PLACEMENT;
 	}
 
 	private LayoutOptionsPack()
@@ -90,6 +92,7 @@ public class LayoutOptionsPack implements Serializable
 		coSE.compoundGravityRange = coSE.defaultCompoundGravityRange ;
 		coSE.smartEdgeLengthCalc = coSE.defaultSmartEdgeLengthCalc ;
 		coSE.multiLevelScaling = coSE.defaultMultiLevelScaling ;
+		coSE.pivotMdsPlacement = coSE.defaultPivotMdsPlacement ;
 	}
 
 	public static LayoutOptionsPack getInstance()
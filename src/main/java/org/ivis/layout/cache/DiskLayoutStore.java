@@ -0,0 +1,199 @@
+package org.ivis.layout.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps layout results as files in a directory, so that they are
+ * shared by processes and survive restarts. When the total size of the files
+ * exceeds a limit, the least recently used ones are deleted; the modification
+ * times of the files are updated on use for this purpose.
+ *
+ * Files are written under temporary names and renamed, so that readers never
+ * see partially written results.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class DiskLayoutStore implements LayoutStore
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final Logger log =
+		LoggerFactory.getLogger(DiskLayoutStore.class);
+
+	private static final String SUFFIX = ".layout";
+
+	private static final FileFilter RESULT_FILTER = new FileFilter()
+	{
+		public boolean accept(File file)
+		{
+			return file.getName().endsWith(SUFFIX);
+		}
+	};
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	private File directory;
+
+	/**
+	 * Maximum and current total size of the result files in bytes
+	 */
+	private long maxBytes;
+	private long totalBytes;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor; the directory is created if it does not exist.
+	 *
+	 * @param directory directory of the result files
+	 * @param maxBytes maximum total size of the result files kept
+	 */
+	public DiskLayoutStore(File directory, long maxBytes) throws IOException
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(directory.toPath());
+
+		for (File file : listResultFiles())
+		{
+			this.totalBytes += file.length();
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public synchronized long getTotalBytes()
+	{
+		return this.totalBytes;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Storing
+// -----------------------------------------------------------------------------
+	public synchronized byte[] get(String key) throws IOException
+	{
+		File file = getFile(key);
+
+		try
+		{
+			byte[] value = Files.readAllBytes(file.toPath());
+			file.setLastModified(System.currentTimeMillis());
+
+			return value;
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+
+	public synchronized void put(String key, byte[] value) throws IOException
+	{
+		if (value.length > this.maxBytes)
+		{
+			return;
+		}
+
+		File file = getFile(key);
+		File temp = File.createTempFile("result", ".tmp", this.directory);
+
+		try
+		{
+			Files.write(temp.toPath(), value);
+
+			this.totalBytes -= file.length();
+			Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			this.totalBytes += value.length;
+		}
+		finally
+		{
+			Files.deleteIfExists(temp.toPath());
+		}
+
+		if (this.totalBytes > this.maxBytes)
+		{
+			evict();
+		}
+	}
+
+	/**
+	 * This method deletes the least recently used result files until their
+	 * total size is within the limit.
+	 */
+	private void evict()
+	{
+		File[] files = listResultFiles();
+		final long[] times = new long[files.length];
+		Integer[] order = new Integer[files.length];
+
+		// modification times are read once, as they may change while sorting
+		for (int i = 0; i < files.length; i++)
+		{
+			times[i] = files[i].lastModified();
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer i, Integer j)
+			{
+				return Long.compare(times[i], times[j]);
+			}
+		});
+
+		// recount, in case files were removed by others
+		this.totalBytes = 0;
+
+		for (File file : files)
+		{
+			this.totalBytes += file.length();
+		}
+
+		for (int i = 0; i < order.length && this.totalBytes > this.maxBytes; i++)
+		{
+			File file = files[order[i]];
+			long length = file.length();
+
+			if (file.delete())
+			{
+				this.totalBytes -= length;
+			}
+			else
+			{
+				log.warn("Cannot delete cached layout " + file);
+			}
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Helper methods
+// -----------------------------------------------------------------------------
+	private File getFile(String key)
+	{
+		return new File(this.directory, key + SUFFIX);
+	}
+
+	private File[] listResultFiles()
+	{
+		File[] files = this.directory.listFiles(RESULT_FILTER);
+
+		return (files != null) ? files : new File[0];
+	}
+}
@@ -0,0 +1,684 @@
+package org.ivis.layout.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.LayoutOptionsPack;
+import org.ivis.layout.cose.CoSELayout;
+import org.ivis.layout.fd.DefaultForceModel;
+import org.ivis.layout.fd.FDLayout;
+import org.ivis.layout.sbgn.SbgnPDLayout;
+import org.ivis.util.PointD;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class caches the results of layouts, so that a graph laid out before
+ * with the same options is not laid out again. Results are looked up by a
+ * hash of the structure of the graph, covering its topology, the nesting of
+ * its nodes, node sizes, node and edge types (such as SBGN classes), the
+ * class of the layout and the layout options (along with node locations for
+ * incremental layouts). Labels and view objects are not hashed. Layouts whose
+ * result depends on more than these, namely CoSE layouts with pending graph
+ * changes and force-directed layouts with force models other than the
+ * default one, are run without the cache.
+ *
+ * Nodes and edges are matched with stored results by their order: nodes in
+ * preorder of the inclusion tree, in the order of their owner graphs, and
+ * edges in the order of the graphs they belong to, visited in the same
+ * order, followed by inter-graph edges. On a hit, the stored locations, sizes
+ * and bendpoints are applied to the nodes and edges of the graph, and the
+ * layout itself is not run. Objects created by a layout for its own purposes,
+ * such as the ports of SBGN process nodes, are not stored; nodes replaced by
+ * a layout are matched with their replacements through their view objects.
+ *
+ * The cache is safe for use by multiple threads as long as each thread uses
+ * its own layout.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class LayoutCache
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final Logger log = LoggerFactory.getLogger(LayoutCache.class);
+
+	/**
+	 * Version of the key and result formats, hashed into keys so that results
+	 * stored in older formats are not found
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Stream that discards the bytes written, once they are digested
+	 */
+	private static final OutputStream NULL_STREAM = new OutputStream()
+	{
+		public void write(int b)
+		{
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+		}
+	};
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	private LayoutStore store;
+
+	private AtomicLong hitCount;
+	private AtomicLong missCount;
+	private AtomicLong bypassCount;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param store backend in which results are kept
+	 */
+	public LayoutCache(LayoutStore store)
+	{
+		this.store = store;
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+		this.bypassCount = new AtomicLong();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public LayoutStore getStore()
+	{
+		return this.store;
+	}
+
+	public long getHitCount()
+	{
+		return this.hitCount.get();
+	}
+
+	public long getMissCount()
+	{
+		return this.missCount.get();
+	}
+
+	/**
+	 * This method returns the number of layouts run without the cache, as
+	 * their results cannot be keyed.
+	 */
+	public long getBypassCount()
+	{
+		return this.bypassCount.get();
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Layout
+// -----------------------------------------------------------------------------
+	/**
+	 * This method applies the stored result for the graph of the given layout
+	 * if there is one, and otherwise runs the layout and stores its result if
+	 * it is successful. It returns whether the graph is laid out. Failures of
+	 * the store are logged, and the layout is run as if there were no cache.
+	 */
+	public boolean runLayout(Layout layout)
+	{
+		if (!isCacheable(layout))
+		{
+			this.bypassCount.incrementAndGet();
+
+			return layout.runLayout();
+		}
+
+		List<LNode> nodes = new ArrayList<LNode>();
+		List<LEdge> edges = new ArrayList<LEdge>();
+		collectObjects(layout.getGraphManager(), nodes, edges);
+
+		String key = computeKey(layout, nodes, edges);
+
+		try
+		{
+			byte[] result = this.store.get(key);
+
+			if (result != null && applyResult(layout, nodes, edges, result))
+			{
+				this.hitCount.incrementAndGet();
+
+				return true;
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("Cannot read cached layout " + key, e);
+		}
+
+		this.missCount.incrementAndGet();
+
+		if (!layout.runLayout())
+		{
+			return false;
+		}
+
+		try
+		{
+			this.store.put(key, captureResult(layout, nodes, edges));
+		}
+		catch (IOException e)
+		{
+			log.warn("Cannot store layout " + key, e);
+		}
+
+		return true;
+	}
+
+	/**
+	 * This method returns the key of the graph of the given layout, as a hex
+	 * string.
+	 */
+	public String computeKey(Layout layout)
+	{
+		List<LNode> nodes = new ArrayList<LNode>();
+		List<LEdge> edges = new ArrayList<LEdge>();
+		collectObjects(layout.getGraphManager(), nodes, edges);
+
+		return computeKey(layout, nodes, edges);
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Hashing
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns whether the result of the given layout is
+	 * determined by what is hashed into its key. A pending graph diff makes
+	 * the layout start from the previous drawing and is consumed by the run,
+	 * and a custom force model may have settings of its own.
+	 */
+	private static boolean isCacheable(Layout layout)
+	{
+		if (layout instanceof CoSELayout &&
+			((CoSELayout) layout).getGraphDiff() != null)
+		{
+			return false;
+		}
+
+		return !(layout instanceof FDLayout) ||
+			((FDLayout) layout).forceModel.getClass() ==
+				DefaultForceModel.class;
+	}
+
+	/**
+	 * This method collects the nodes of the given graph manager in preorder
+	 * and its edges graph by graph, followed by the inter-graph edges.
+	 */
+	private static void collectObjects(LGraphManager gm, List<LNode> nodes,
+		List<LEdge> edges)
+	{
+		if (gm.getRoot() != null)
+		{
+			collectObjects(gm.getRoot(), nodes, edges);
+		}
+
+		for (Object obj : gm.getInterGraphEdges())
+		{
+			edges.add((LEdge) obj);
+		}
+	}
+
+	private static void collectObjects(LGraph graph, List<LNode> nodes,
+		List<LEdge> edges)
+	{
+		for (Object obj : graph.getEdges())
+		{
+			edges.add((LEdge) obj);
+		}
+
+		for (Object obj : graph.getNodes())
+		{
+			LNode node = (LNode) obj;
+			nodes.add(node);
+
+			if (node.getChild() != null)
+			{
+				collectObjects(node.getChild(), nodes, edges);
+			}
+		}
+	}
+
+	private static String computeKey(Layout layout, List<LNode> nodes,
+		List<LEdge> edges)
+	{
+		MessageDigest digest;
+
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new DigestOutputStream(NULL_STREAM, digest)));
+
+		try
+		{
+			out.writeInt(FORMAT_VERSION);
+			writeString(layout.getClass().getName(), out);
+			boolean isIncremental = writeOptions(layout, out);
+			writeStructure(nodes, edges, isIncremental, out);
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			// not thrown, as the bytes are only digested and strings are
+			// written without length limits
+			throw new IllegalStateException(e);
+		}
+
+		byte[] hash = digest.digest();
+		char[] hex = new char[2 * hash.length];
+
+		for (int i = 0; i < hash.length; i++)
+		{
+			hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+
+		return new String(hex);
+	}
+
+	/**
+	 * This method writes the options that affect the result of the given
+	 * layout, and returns whether the layout is incremental. Layouts take the
+	 * general and force-directed options from the options pack, unless they
+	 * are sub-layouts, which use their own fields as they are set. Settings
+	 * that are not in the options pack, such as the incremental
+	 * radius of CoSE and the rotation and phase 2 stopping settings of SBGN
+	 * PD, are taken from the layout itself.
+	 */
+	private static boolean writeOptions(Layout layout, DataOutputStream out)
+		throws IOException
+	{
+		LayoutOptionsPack.General general =
+			LayoutOptionsPack.getInstance().getGeneral();
+		LayoutOptionsPack.CoSE coSE = LayoutOptionsPack.getInstance().getCoSE();
+		boolean isIncremental;
+
+		out.writeBoolean(layout.isSubLayout);
+
+		if (layout.isSubLayout)
+		{
+			out.writeInt(layout.layoutQuality);
+			out.writeBoolean(layout.createBendsAsNeeded);
+			out.writeBoolean(layout.uniformLeafNodeSizes);
+			isIncremental = layout.incremental;
+		}
+		else
+		{
+			out.writeInt(general.layoutQuality);
+			out.writeBoolean(general.createBendsAsNeeded);
+			out.writeBoolean(general.uniformLeafNodeSizes);
+			isIncremental = general.incremental;
+		}
+
+		out.writeBoolean(isIncremental);
+
+		// the repulsion range calculation is taken from the options pack by
+		// sub-layouts as well
+		out.writeBoolean(coSE.smartRepulsionRangeCalc);
+
+		if (layout.isSubLayout && layout instanceof FDLayout)
+		{
+			FDLayout fdLayout = (FDLayout) layout;
+
+			out.writeDouble(fdLayout.idealEdgeLength);
+			out.writeDouble(fdLayout.springConstant);
+			out.writeDouble(fdLayout.repulsionConstant);
+			out.writeDouble(fdLayout.gravityConstant);
+			out.writeDouble(fdLayout.gravityRangeFactor);
+			out.writeDouble(fdLayout.compoundGravityConstant);
+			out.writeDouble(fdLayout.compoundGravityRangeFactor);
+			out.writeBoolean(fdLayout.useSmartIdealEdgeLengthCalculation);
+
+			if (layout instanceof CoSELayout)
+			{
+				out.writeBoolean(((CoSELayout) layout).useMultiLevelScaling);
+				out.writeBoolean(((CoSELayout) layout).usePivotMdsPlacement);
+			}
+		}
+		else
+		{
+			out.writeInt(coSE.idealEdgeLength);
+			out.writeInt(coSE.springStrength);
+			out.writeInt(coSE.repulsionStrength);
+			out.writeInt(coSE.gravityStrength);
+			out.writeInt(coSE.gravityRange);
+			out.writeInt(coSE.compoundGravityStrength);
+			out.writeInt(coSE.compoundGravityRange);
+			out.writeBoolean(coSE.smartEdgeLengthCalc);
+			out.writeBoolean(coSE.multiLevelScaling);
+			out.writeBoolean(coSE.pivotMdsPlacement);
+		}
+
+		if (layout instanceof CoSELayout)
+		{
+			out.writeInt(((CoSELayout) layout).incrementalRadius);
+		}
+
+		if (layout instanceof SbgnPDLayout)
+		{
+			SbgnPDLayout sbgnPDLayout = (SbgnPDLayout) layout;
+
+			out.writeInt(sbgnPDLayout.rotationRandomizationMethod);
+			out.writeInt(sbgnPDLayout.maxRotationsPerStep);
+			out.writeDouble(sbgnPDLayout.phase2MinGain);
+			out.writeInt(sbgnPDLayout.phase2PlateauCheckCount);
+		}
+
+		return isIncremental;
+	}
+
+	/**
+	 * This method writes the structure of the graph with the given nodes and
+	 * edges. Nesting is captured by the number of children of each node in
+	 * preorder, and edges by the indices of their ends.
+	 */
+	private static void writeStructure(List<LNode> nodes, List<LEdge> edges,
+		boolean isIncremental, DataOutputStream out) throws IOException
+	{
+		Map<LNode, Integer> indices = new IdentityHashMap<LNode, Integer>();
+
+		out.writeInt(nodes.size());
+
+		for (int i = 0; i < nodes.size(); i++)
+		{
+			LNode node = nodes.get(i);
+			indices.put(node, i);
+
+			out.writeInt(node.getChild() != null ?
+				node.getChild().getNodes().size() : -1);
+			out.writeDouble(node.getWidth());
+			out.writeDouble(node.getHeight());
+			writeString(node.type, out);
+
+			if (isIncremental)
+			{
+				out.writeDouble(node.getLeft());
+				out.writeDouble(node.getTop());
+			}
+		}
+
+		out.writeInt(edges.size());
+
+		for (LEdge edge : edges)
+		{
+			out.writeInt(indices.get(edge.getSource()));
+			out.writeInt(indices.get(edge.getTarget()));
+			writeString(edge.type, out);
+		}
+	}
+
+	/**
+	 * This method writes the given string as its length in UTF-8 bytes
+	 * followed by the bytes, so that strings of any length can be hashed,
+	 * unlike with writeUTF.
+	 */
+	private static void writeString(String string, DataOutputStream out)
+		throws IOException
+	{
+		out.writeBoolean(string != null);
+
+		if (string != null)
+		{
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Results
+// -----------------------------------------------------------------------------
+	/**
+	 * This method encodes the geometry of the given nodes and edges after the
+	 * given layout. Nodes and edges that are no longer in the graph are
+	 * looked up by their view objects; for those not found, NaN locations and
+	 * negative bendpoint counts are stored.
+	 */
+	private static byte[] captureResult(Layout layout, List<LNode> nodes,
+		List<LEdge> edges)
+	{
+		LGraphManager gm = layout.getGraphManager();
+		gm.resetAllNodes();
+		gm.resetAllEdges();
+
+		Map<Object, LNode> finalNodes = new IdentityHashMap<Object, LNode>();
+		Map<Object, LEdge> finalEdges = new IdentityHashMap<Object, LEdge>();
+
+		for (Object obj : gm.getAllNodes())
+		{
+			LNode node = (LNode) obj;
+			finalNodes.put(node, node);
+
+			if (node.vGraphObject != null)
+			{
+				finalNodes.put(node.vGraphObject, node);
+			}
+		}
+
+		for (Object obj : gm.getAllEdges())
+		{
+			LEdge edge = (LEdge) obj;
+			finalEdges.put(edge, edge);
+
+			if (edge.vGraphObject != null)
+			{
+				finalEdges.put(edge.vGraphObject, edge);
+			}
+		}
+
+		LEdge[] resultEdges = new LEdge[edges.size()];
+		int size = 8 + 32 * nodes.size() + 4 * edges.size();
+
+		for (int i = 0; i < resultEdges.length; i++)
+		{
+			resultEdges[i] = findFinal(finalEdges, edges.get(i),
+				edges.get(i).vGraphObject);
+
+			if (resultEdges[i] != null)
+			{
+				size += 16 * resultEdges[i].getBendpoints().size();
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(nodes.size());
+
+		for (LNode inputNode : nodes)
+		{
+			LNode node = findFinal(finalNodes, inputNode,
+				inputNode.vGraphObject);
+
+			if (node != null)
+			{
+				buffer.putDouble(node.getLeft());
+				buffer.putDouble(node.getTop());
+				buffer.putDouble(node.getWidth());
+				buffer.putDouble(node.getHeight());
+			}
+			else
+			{
+				buffer.putDouble(Double.NaN).putDouble(Double.NaN);
+				buffer.putDouble(Double.NaN).putDouble(Double.NaN);
+			}
+		}
+
+		buffer.putInt(resultEdges.length);
+
+		for (LEdge edge : resultEdges)
+		{
+			if (edge == null)
+			{
+				buffer.putInt(-1);
+				continue;
+			}
+
+			List<PointD> bendpoints = edge.getBendpoints();
+			buffer.putInt(bendpoints.size());
+
+			for (PointD point : bendpoints)
+			{
+				buffer.putDouble(point.x);
+				buffer.putDouble(point.y);
+			}
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * This method returns the object in the final graph for the given input
+	 * object, which is either the object itself or a replacement with the
+	 * same view object.
+	 */
+	private static <T> T findFinal(Map<Object, T> finalObjects, T object,
+		Object vGraphObject)
+	{
+		T result = finalObjects.get(object);
+
+		if (result == null && vGraphObject != null)
+		{
+			result = finalObjects.get(vGraphObject);
+		}
+
+		return result;
+	}
+
+	/**
+	 * This method applies the given encoded result to the given nodes and
+	 * edges, and propagates it to the view objects. It returns false, without
+	 * changing anything, if the result does not match the graph.
+	 */
+	private static boolean applyResult(Layout layout, List<LNode> nodes,
+		List<LEdge> edges, byte[] result)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(result);
+
+		try
+		{
+			if (buffer.getInt() != nodes.size())
+			{
+				return false;
+			}
+
+			// validate the edge section before changing the nodes
+			buffer.position(4 + 32 * nodes.size());
+
+			if (buffer.getInt() != edges.size())
+			{
+				return false;
+			}
+
+			int edgeStart = buffer.position();
+
+			for (int i = 0; i < edges.size(); i++)
+			{
+				int bendCount = buffer.getInt();
+
+				if (bendCount > 0)
+				{
+					buffer.position(buffer.position() + 16 * bendCount);
+				}
+			}
+
+			buffer.position(4);
+
+			for (LNode node : nodes)
+			{
+				double left = buffer.getDouble();
+				double top = buffer.getDouble();
+				double width = buffer.getDouble();
+				double height = buffer.getDouble();
+
+				if (!Double.isNaN(left))
+				{
+					node.setWidth(width);
+					node.setHeight(height);
+					node.setLocation(left, top);
+				}
+			}
+
+			buffer.position(edgeStart);
+
+			for (LEdge edge : edges)
+			{
+				int bendCount = buffer.getInt();
+
+				if (bendCount < 0)
+				{
+					continue;
+				}
+
+				List<PointD> bendpoints = edge.getBendpoints();
+				bendpoints.clear();
+
+				for (int j = 0; j < bendCount; j++)
+				{
+					bendpoints.add(new PointD(buffer.getDouble(),
+						buffer.getDouble()));
+				}
+			}
+		}
+		catch (BufferUnderflowException e)
+		{
+			log.warn("Ignoring truncated cached layout");
+
+			return false;
+		}
+		catch (IllegalArgumentException e)
+		{
+			log.warn("Ignoring malformed cached layout");
+
+			return false;
+		}
+
+		// compound nodes keep their stored bounds, only graph bounds follow
+		for (Object obj : layout.getGraphManager().getGraphs())
+		{
+			((LGraph) obj).updateBounds(false);
+		}
+
+		if (!layout.isSubLayout)
+		{
+			layout.update();
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,25 @@
+package org.ivis.layout.cache;
+
+import java.io.IOException;
+
+/**
+ * This interface is implemented by the backends of LayoutCache, which map
+ * graph keys to encoded layout results and evict results to stay within a
+ * size limit. Implementations must be safe for use by multiple threads.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public interface LayoutStore
+{
+	/**
+	 * This method returns the result stored with the given key, or null if
+	 * there is none.
+	 */
+	byte[] get(String key) throws IOException;
+
+	/**
+	 * This method stores the given result with the given key, replacing any
+	 * result stored with the same key.
+	 */
+	void put(String key, byte[] value) throws IOException;
+}
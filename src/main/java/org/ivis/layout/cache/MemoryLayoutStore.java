@@ -0,0 +1,90 @@
+package org.ivis.layout.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps layout results in memory, evicting the least recently
+ * used ones when their total size exceeds a limit.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class MemoryLayoutStore implements LayoutStore
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Results in access order, least recently used first
+	 */
+	private LinkedHashMap<String, byte[]> results;
+
+	/**
+	 * Maximum and current total size of the results in bytes
+	 */
+	private long maxBytes;
+	private long totalBytes;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes maximum total size of the results kept
+	 */
+	public MemoryLayoutStore(long maxBytes)
+	{
+		this.results = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+		this.maxBytes = maxBytes;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public synchronized int size()
+	{
+		return this.results.size();
+	}
+
+	public synchronized long getTotalBytes()
+	{
+		return this.totalBytes;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Storing
+// -----------------------------------------------------------------------------
+	public synchronized byte[] get(String key)
+	{
+		return this.results.get(key);
+	}
+
+	public synchronized void put(String key, byte[] value)
+	{
+		byte[] old = this.results.remove(key);
+
+		if (old != null)
+		{
+			this.totalBytes -= old.length;
+		}
+
+		if (value.length > this.maxBytes)
+		{
+			return;
+		}
+
+		this.results.put(key, value);
+		this.totalBytes += value.length;
+
+		Iterator<Map.Entry<String, byte[]>> iter =
+			this.results.entrySet().iterator();
+
+		while (this.totalBytes > this.maxBytes)
+		{
+			this.totalBytes -= iter.next().getValue().length;
+			iter.remove();
+		}
+	}
+}
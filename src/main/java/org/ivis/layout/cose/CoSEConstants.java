@@ -15,6 +15,7 @@ public class CoSEConstants extends FDLayoutConstants
 // Section: CoSE layout user options
 // -----------------------------------------------------------------------------
 	public static final boolean DEFAULT_USE_MULTI_LEVEL_SCALING = false;
+	public static final boolean DEFAULT_USE_PIVOT_MDS_PLACEMENT = false;
 	
 // -----------------------------------------------------------------------------
 // Section: CoSE layout remaining contants
@@ -29,4 +30,16 @@ public class CoSEConstants extends FDLayoutConstants
 	 * Default separation of trees in a forest when tiled to a grid
 	 */
 	public static final int DEFAULT_COMPONENT_SEPERATION = 60;
+
+	/**
+	 * Default number of edges by which the part of the graph laid out after
+	 * changes extends beyond the changed nodes
+	 */
+	public static final int DEFAULT_INCREMENTAL_RADIUS = 2;
+
+	/**
+	 * Minimum fraction of the maximum iterations used for a level finer than
+	 * the coarsest one during multi-level scaling
+	 */
+	public static final double MIN_LEVEL_SCALE = 0.3;
 }
\ No newline at end of file
@@ -2,8 +2,10 @@ package org.ivis.layout.cose;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
 import org.ivis.layout.LGraphManager;
 import org.ivis.layout.LNode;
 import org.ivis.layout.Layout;
@@ -18,6 +20,16 @@ import org.ivis.layout.Layout;
  */
 public class CoSEGraphManager extends LGraphManager
 {
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Graph managers (M0 to Mk) built by the last coarsening of this graph
+	 * manager, and the topology of this graph manager they were built for
+	 */
+	private ArrayList<CoSEGraphManager> coarsenedMList;
+	private List<Object> coarsenedTopology;
+
 // -----------------------------------------------------------------------------
 // Section: Constructors and initialization
 // -----------------------------------------------------------------------------
@@ -32,9 +44,25 @@ public class CoSEGraphManager extends LGraphManager
 	 * This method returns a list of CoSEGraphManager. 
 	 * Returned list holds graphs finer to coarser (M0 to Mk)
 	 * Additionally, this method is only called by M0.
+	 * 
+	 * As the coarser graphs depend only on the topology of M0, they are
+	 * reused while it is unchanged, updating only the locations and sizes
+	 * of their nodes.
 	 */
 	public ArrayList<CoSEGraphManager> coarsenGraph()
 	{
+		List<Object> topology = this.getTopology();
+		
+		if (this.coarsenedMList != null && topology.equals(this.coarsenedTopology))
+		{
+			for (int i = 0; i < this.coarsenedMList.size() - 1; i++)
+			{
+				updateCoarserNodes((CoSEGraph) this.coarsenedMList.get(i).getRoot());
+			}
+			
+			return new ArrayList<CoSEGraphManager>(this.coarsenedMList);
+		}
+		
 		// MList holds graph managers from M0 to Mk
 		ArrayList<CoSEGraphManager> MList = new ArrayList<CoSEGraphManager>();
 		int prevNodeCount;
@@ -42,30 +70,30 @@ public class CoSEGraphManager extends LGraphManager
 		
 		// "this" graph manager holds the finest (input) graph
 		MList.add(this);
-		
-		// coarsening graph G holds only the leaf nodes and the edges between them 
-		// which are considered for coarsening process
-		CoarseningGraph G = new CoarseningGraph(this.getLayout());
-		
-		// construct G0
-		convertToCoarseningGraph((CoSEGraph)this.getRoot(), G);
-		currNodeCount = G.getNodes().size();
+		currNodeCount = this.getAllNodes().length;
 
 		CoSEGraphManager lastM, newM;
-		// if two graphs Gi and Gi+1 have the same order, 
-		// then Gi = Gi+1 is the coarsest graph (Gk), so stop coarsening process
+		// if two graphs Mi and Mi+1 have the same order, 
+		// then Mi = Mi+1 is the coarsest graph (Mk), so stop coarsening process
 		do {
 			prevNodeCount = currNodeCount;
 
-			// coarsen Gi
-			G.coarsen();
-
-			// get current coarsest graph lastM = Mi and construct newM = Mi+1
+			// get current coarsest graph lastM = Mi
 			lastM = MList.get((MList.size()-1));
+			
+			// coarsening graph Gi holds the leaf nodes of Mi that are not
+			// collapsed with their compounds, and the edges between them
+			// which are considered for coarsening process; it is rebuilt
+			// at each level, since compounds collapsed in Mi+1 become leaves
+			CoarseningGraph G = new CoarseningGraph(this.getLayout());
+			convertToCoarseningGraph((CoSEGraph)lastM.getRoot(), G);
+
+			// coarsen Gi and construct newM = Mi+1
+			G.coarsen();
 			newM = coarsen(lastM);
 			
 			MList.add(newM);
-			currNodeCount = G.getNodes().size();
+			currNodeCount = newM.getAllNodes().length;
 
 		} while ((prevNodeCount != currNodeCount) && (currNodeCount > 1));
 
@@ -73,12 +101,62 @@ public class CoSEGraphManager extends LGraphManager
 		this.getLayout().setGraphManager(this);
 		
 		MList.remove( MList.size()-1 );
-		return MList;
+		
+		this.coarsenedMList = MList;
+		this.coarsenedTopology = topology;
+		
+		return new ArrayList<CoSEGraphManager>(MList);
 	}
 	
 	/**
-	 * This method converts given CoSEGraph to CoarseningGraph G0
-	 * G0 consists of leaf nodes of CoSEGraph and edges between them
+	 * This method returns the graphs of this graph manager along with their
+	 * parents, nodes and edges in order, which determine the coarser graphs.
+	 */
+	private List<Object> getTopology()
+	{
+		List<Object> topology = new ArrayList<Object>();
+		
+		for (Object obj: this.getGraphs())
+		{
+			LGraph graph = (LGraph) obj;
+			
+			topology.add(graph);
+			topology.add(graph.getParent());
+			topology.add(graph.getNodes().size());
+			
+			for (Object node: graph.getNodes())
+			{
+				topology.add(node);
+			}
+			
+			addEdgeTopology(graph.getEdges(), topology);
+		}
+		
+		addEdgeTopology(this.getInterGraphEdges(), topology);
+		
+		return topology;
+	}
+	
+	private void addEdgeTopology(List<?> edges, List<Object> topology)
+	{
+		topology.add(edges.size());
+		
+		for (Object obj: edges)
+		{
+			LEdge e = (LEdge) obj;
+			
+			topology.add(e);
+			topology.add(e.getSource());
+			topology.add(e.getTarget());
+		}
+	}
+	
+	/**
+	 * This method converts given CoSEGraph of Mi to CoarseningGraph Gi
+	 * Gi consists of leaf nodes of CoSEGraph and edges between them, except
+	 * for the members of compounds to be collapsed. As edges between leaves
+	 * of different graphs are not in Gi, leaves are only contracted with
+	 * leaves of the same graph.
 	 */
 	private void convertToCoarseningGraph(CoSEGraph coseG, CoarseningGraph G)
 	{
@@ -89,9 +167,15 @@ public class CoSEGraphManager extends LGraphManager
 		for (Object obj: coseG.getNodes())
 		{
 			CoSENode v = (CoSENode) obj;
+			// if current node is compound to be collapsed, its member is
+			// contracted into the compound rather than into another leaf
+			if (isCollapsible(v))
+			{
+				continue;
+			}
 			// if current node is compound, 
 			// then make a recursive call with child graph of current compound node 
-			if (v.getChild() != null)
+			else if (v.getChild() != null)
 			{
 				convertToCoarseningGraph((CoSEGraph)v.getChild(), G);
 			}
@@ -101,6 +185,7 @@ public class CoSEGraphManager extends LGraphManager
 				// v is a leaf node in CoSE graph, and is referenced by u in G0
 				CoarseningNode u = new CoarseningNode();
 				u.setReference(v);
+				u.setWeight(v.getWeight());
 				
 				// construct a mapping between v (from CoSE graph) and u (from coarsening graph)
 				map.put(v, u);
@@ -158,10 +243,17 @@ public class CoSEGraphManager extends LGraphManager
 		for (Object obj: g.getNodes())
 		{
 			CoSENode v = (CoSENode) obj;
+			// if v is a compound to be collapsed
+			// then, create the leaf node v.next representing v and its member
+			if (isCollapsible(v))
+			{
+				collapse(v, coarserG);
+				continue;
+			}
 			// if v is compound
 			// then, create the compound node v.next with an empty child graph
 			// and, make a recursive call with v.child (Mi) and v.next.child (Mi+1)
-			if (v.getChild() != null)
+			else if (v.getChild() != null)
 			{
 				v.setNext((CoSENode) coarserG.getGraphManager().getLayout().newNode(null));
 				coarserG.getGraphManager().add(coarserG.getGraphManager().getLayout().newGraph(null), 
@@ -185,13 +277,45 @@ public class CoSEGraphManager extends LGraphManager
 			
 			//v.getNext().vGraphObject = v.vGraphObject;
 			
-			// set location
-			v.getNext().setLocation(v.getLocation().x, v.getLocation().y);
-			v.getNext().setHeight(v.getHeight());
-			v.getNext().setWidth(v.getWidth());
+			updateNext(v);
 		}	
 	}
 
+	/**
+	 * This method updates the locations and sizes of the nodes of Mi+1 from
+	 * the nodes of Mi, in the same order as they are set by coarsenNodes.
+	 * g: Mi
+	 */
+	private void updateCoarserNodes(CoSEGraph g)
+	{
+		for (Object obj: g.getNodes())
+		{
+			CoSENode v = (CoSENode) obj;
+			
+			if (isCollapsible(v))
+			{
+				updateCollapsed(v);
+				continue;
+			}
+			else if (v.getChild() != null)
+			{
+				updateCoarserNodes((CoSEGraph) v.getChild());
+			}
+			
+			updateNext(v);
+		}
+	}
+	
+	/**
+	 * This method sets the location and size of v.next to those of v
+	 */
+	private void updateNext(CoSENode v)
+	{
+		v.getNext().setLocation(v.getLocation().x, v.getLocation().y);
+		v.getNext().setHeight(v.getHeight());
+		v.getNext().setWidth(v.getWidth());
+	}
+
 	/**
 	 * This method adds edges to the coarser graph.
 	 * It should be called after coarsenNodes method is executed
@@ -203,13 +327,16 @@ public class CoSEGraphManager extends LGraphManager
 		{
 			LEdge e = (LEdge) obj;
 			// if e is an inter-graph edge or source or target of e is compound 
-			// then, e has not contracted during coarsening process. Add e to the coarser graph.			
+			// then, e has not contracted during coarsening process unless a
+			// compound is collapsed. Add e to the coarser graph.			
 			if ( (e.isInterGraph()) || 
 				(e.getSource().getChild() != null) || 
 				(e.getTarget().getChild() != null) )
 			{
-				// check if e is not added before
-				if ( ! ((CoSENode)e.getSource()).getNext().getNeighborsList().
+				// check if e is not contracted nor added before
+				if ( (((CoSENode)e.getSource()).getNext() != 
+						((CoSENode)e.getTarget()).getNext()) &&
+					! ((CoSENode)e.getSource()).getNext().getNeighborsList().
 					contains(((CoSENode)e.getTarget()).getNext()) )
 				{
 					newM.add(newM.getLayout().newEdge(null), 
@@ -237,5 +364,68 @@ public class CoSEGraphManager extends LGraphManager
 		}
 	}
 
+	/**
+	 * This method returns whether the given node is a compound that is small
+	 * enough to be represented by a single leaf in the coarser graph, that is
+	 * an empty compound or one with a single leaf member.
+	 */
+	private boolean isCollapsible(CoSENode v)
+	{
+		if (v.getChild() == null)
+		{
+			return false;
+		}
+		
+		List<?> members = v.getChild().getNodes();
+		
+		return members.isEmpty() || 
+			(members.size() == 1 && ((LNode) members.get(0)).getChild() == null);
+	}
+
+	/**
+	 * This method collapses the given compound of Mi into a leaf of Mi+1 
+	 * (coarserG), which is weighted and sized so as to stand for the member.
+	 */
+	private void collapse(CoSENode v, CoSEGraph coarserG)
+	{
+		CoSENode z = (CoSENode) coarserG.getGraphManager().getLayout().newNode(null);
+		z.setPred1(v);
+		v.setNext(z);
+		coarserG.add(z);
+		
+		if (!v.getChild().getNodes().isEmpty())
+		{
+			CoSENode w = (CoSENode) v.getChild().getNodes().get(0);
+			
+			w.setNext(z);
+			z.setWeight(w.getWeight());
+		}
+		
+		updateCollapsed(v);
+	}
 	
+	/**
+	 * This method sets the location and size of the leaf of Mi+1 the given
+	 * compound of Mi is collapsed into.
+	 */
+	private void updateCollapsed(CoSENode v)
+	{
+		CoSENode z = v.getNext();
+		
+		z.setLocation(v.getLocation().x, v.getLocation().y);
+		
+		if (v.getChild().getNodes().isEmpty())
+		{
+			z.setWidth(v.getWidth());
+			z.setHeight(v.getHeight());
+		}
+		else
+		{
+			CoSENode w = (CoSENode) v.getChild().getNodes().get(0);
+			double margin = 2 * v.getChild().getMargin();
+			
+			z.setWidth(w.getWidth() + margin);
+			z.setHeight(w.getHeight() + margin);
+		}
+	}
 }
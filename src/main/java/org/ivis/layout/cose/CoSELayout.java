@@ -2,9 +2,11 @@ package org.ivis.layout.cose;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.awt.*;
 
@@ -37,6 +39,12 @@ public class CoSELayout extends FDLayout
 	 */
 	public boolean useMultiLevelScaling = CoSEConstants.DEFAULT_USE_MULTI_LEVEL_SCALING;
 	
+	/**
+	 * Whether or not nodes of graphs that are not forests should initially be
+	 * positioned by pivot multidimensional scaling rather than randomly
+	 */
+	public boolean usePivotMdsPlacement = CoSEConstants.DEFAULT_USE_PIVOT_MDS_PLACEMENT;
+	
 	/**
 	 * Level of the current graph manager in the coarsening process
 	 */
@@ -52,6 +60,30 @@ public class CoSELayout extends FDLayout
 	 */
 	ArrayList<CoSEGraphManager> MList;
 
+	/**
+	 * Ratio by which the maximum iterations of the current level are scaled
+	 * during multi-level scaling
+	 */
+	private double levelScale = 1.0;
+
+	/**
+	 * Angle between the directions in which successive added nodes are
+	 * placed, so that they do not line up
+	 */
+	private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+	/**
+	 * Number of edges by which the part of the graph laid out after changes
+	 * extends beyond the changed nodes
+	 */
+	public int incrementalRadius = CoSEConstants.DEFAULT_INCREMENTAL_RADIUS;
+
+	/**
+	 * Changes made to the graph since it was last laid out, if the next
+	 * layout is to start from the previous drawing
+	 */
+	private GraphDiff graphDiff;
+
 // -----------------------------------------------------------------------------
 // Section: Constructors and initializations
 // -----------------------------------------------------------------------------
@@ -73,6 +105,42 @@ public class CoSELayout extends FDLayout
 		graphManager = gm;
 		return gm;
 	}
+
+	/**
+	 * This method also discards the coarsened graph managers of a previous
+	 * multi-level run.
+	 */
+	public void reset()
+	{
+		super.reset();
+
+		this.MList = null;
+		this.level = 0;
+		this.noOfLevels = 0;
+		this.levelScale = 1.0;
+		this.graphDiff = null;
+	}
+
+	/**
+	 * This method sets the changes made to the graph since it was last laid
+	 * out. The next layout then starts from the previous drawing: added nodes
+	 * are placed near their neighbors, and only the nodes within the
+	 * incremental radius of the changes are moved, the farther ones the
+	 * less. The changes are cleared once the layout is run.
+	 */
+	public void setGraphDiff(GraphDiff graphDiff)
+	{
+		this.graphDiff = graphDiff;
+	}
+
+	/**
+	 * This method returns the changes to be taken into account by the next
+	 * layout, if any.
+	 */
+	public GraphDiff getGraphDiff()
+	{
+		return this.graphDiff;
+	}
 	
 	/**
 	 * This method creates a new graph associated with the input view graph.
@@ -123,6 +191,8 @@ public class CoSELayout extends FDLayout
 				layoutOptionsPack.smartEdgeLengthCalc;
 			useMultiLevelScaling =
 				layoutOptionsPack.multiLevelScaling;
+			usePivotMdsPlacement =
+				layoutOptionsPack.pivotMdsPlacement;
 			springConstant =
 				transform(layoutOptionsPack.springStrength,
 					FDLayoutConstants.DEFAULT_SPRING_STRENGTH, 5.0, 5.0);
@@ -162,7 +232,11 @@ public class CoSELayout extends FDLayout
 			graphManager.resetAllEdges();
 		}
 		
-		if (useMultiLevelScaling && !incremental) {
+		if (graphDiff != null) {
+			level = 0;
+			return warmStartLayout();
+		}
+		else if (useMultiLevelScaling && !incremental) {
 			return multiLevelScalingLayout();
 		}
 		else {
@@ -186,10 +260,21 @@ public class CoSELayout extends FDLayout
 		noOfLevels = MList.size()-1;
 		level = noOfLevels;
 		
+		int baseMaxIterations = maxIterations;
+		int coarsestNodeCount = MList.get(noOfLevels).getAllNodes().length;
+		
 		while (level >= 0)
 		{
 			graphManager = gm = MList.get(level);
 
+			// the coarsest level is laid out from scratch with the full
+			// budget, which is cheap as it is small; finer levels start from
+			// the drawing of the coarser ones, so they are only refined with
+			// fewer iterations, cooling down faster accordingly
+			levelScale = Math.max(CoSEConstants.MIN_LEVEL_SCALE, 
+				Math.sqrt(coarsestNodeCount / (double) gm.getAllNodes().length));
+			maxIterations = baseMaxIterations;
+			
 			classicLayout();
 
 			// after finishing layout of first (coarsest) level,
@@ -206,10 +291,211 @@ public class CoSELayout extends FDLayout
 			level--;
 		}
 		
+		levelScale = 1.0;
+		maxIterations = baseMaxIterations;
 		incremental = false;
 		return true;
 	}
 	
+	/**
+	 * This method lays out the graph starting from its previous drawing,
+	 * confining the layout to the neighborhood of the recorded changes. If
+	 * no node is affected by the changes, the previous drawing is kept as it
+	 * is, as every node would be pinned.
+	 */
+	private boolean warmStartLayout()
+	{
+		GraphDiff diff = graphDiff;
+		graphDiff = null;
+
+		for (Map.Entry<LNode, PointD> entry :
+			diff.getPreviousCenters().entrySet())
+		{
+			entry.getKey().setCenter(entry.getValue().x, entry.getValue().y);
+		}
+
+		Set<LNode> changedNodes = diff.getChangedNodes();
+
+		if (diff.isEmpty() || changedNodes.isEmpty())
+		{
+			return true;
+		}
+
+		incremental = true;
+
+		placeAddedNodes(diff.getAddedNodes());
+		confineToNeighborhood(changedNodes);
+
+		try
+		{
+			return classicLayout();
+		}
+		finally
+		{
+			for (Object obj : getAllNodes())
+			{
+				((FDLayoutNode) obj).mobility = 1.0;
+			}
+		}
+	}
+
+	/**
+	 * This method places each of the given nodes at the barycenter of its
+	 * neighbors already placed, proceeding outwards from the nodes of the
+	 * previous drawing. Nodes without such neighbors are placed at the center
+	 * of their siblings or parents.
+	 */
+	private void placeAddedNodes(List<LNode> addedNodes)
+	{
+		Set<LNode> unplaced = new HashSet<LNode>(addedNodes);
+		LinkedList<LNode> queue = new LinkedList<LNode>();
+
+		for (LNode node : addedNodes)
+		{
+			for (LNode neighbor : node.getNeighborsList())
+			{
+				if (!unplaced.contains(neighbor))
+				{
+					queue.add(node);
+					break;
+				}
+			}
+		}
+
+		int placedCount = 0;
+
+		while (!queue.isEmpty())
+		{
+			LNode node = queue.removeFirst();
+
+			if (!unplaced.remove(node))
+			{
+				continue;
+			}
+
+			double x = 0;
+			double y = 0;
+			int count = 0;
+
+			for (LNode neighbor : node.getNeighborsList())
+			{
+				if (unplaced.contains(neighbor))
+				{
+					queue.add(neighbor);
+				}
+				else if (neighbor != node)
+				{
+					x += neighbor.getCenterX();
+					y += neighbor.getCenterY();
+					count++;
+				}
+			}
+
+			// spread nodes placed around the same point, farther for nodes
+			// with a single neighbor
+			double offset = (count == 1) ? idealEdgeLength : idealEdgeLength / 2;
+			double angle = placedCount++ * GOLDEN_ANGLE;
+
+			node.setCenter(x / count + offset * Math.cos(angle),
+				y / count + offset * Math.sin(angle));
+		}
+
+		for (LNode node : addedNodes)
+		{
+			if (unplaced.contains(node))
+			{
+				PointD center = calcPlacementCenter(node, unplaced);
+				double angle = placedCount++ * GOLDEN_ANGLE;
+
+				node.setCenter(center.x + idealEdgeLength * Math.cos(angle),
+					center.y + idealEdgeLength * Math.sin(angle));
+			}
+		}
+	}
+
+	/**
+	 * This method returns the center of the placed siblings of the given
+	 * node, or the center of its parent if it has no placed siblings.
+	 */
+	private PointD calcPlacementCenter(LNode node, Set<LNode> unplaced)
+	{
+		double x = 0;
+		double y = 0;
+		int count = 0;
+
+		for (Object obj : node.getOwner().getNodes())
+		{
+			LNode sibling = (LNode) obj;
+
+			if (!unplaced.contains(sibling))
+			{
+				x += sibling.getCenterX();
+				y += sibling.getCenterY();
+				count++;
+			}
+		}
+
+		if (count > 0)
+		{
+			return new PointD(x / count, y / count);
+		}
+
+		LNode parent = node.getOwner().getParent();
+
+		if (parent != null && parent.getOwner() != null)
+		{
+			return new PointD(parent.getCenterX(), parent.getCenterY());
+		}
+
+		return new PointD(LayoutConstants.WORLD_CENTER_X,
+			LayoutConstants.WORLD_CENTER_Y);
+	}
+
+	/**
+	 * This method pins the nodes farther than the incremental radius from
+	 * the given nodes, and damps the others in proportion to their distance
+	 * from them.
+	 */
+	private void confineToNeighborhood(Set<LNode> changedNodes)
+	{
+		for (Object obj : getAllNodes())
+		{
+			((FDLayoutNode) obj).mobility = 0.0;
+		}
+
+		LinkedList<LNode> queue = new LinkedList<LNode>();
+		Map<LNode, Integer> distances = new HashMap<LNode, Integer>();
+
+		for (LNode node : changedNodes)
+		{
+			distances.put(node, 0);
+			queue.add(node);
+		}
+
+		while (!queue.isEmpty())
+		{
+			LNode node = queue.removeFirst();
+			int distance = distances.get(node);
+
+			((FDLayoutNode) node).mobility =
+				1.0 - (double) distance / (incrementalRadius + 1);
+
+			if (distance == incrementalRadius)
+			{
+				continue;
+			}
+
+			for (LNode neighbor : node.getNeighborsList())
+			{
+				if (!distances.containsKey(neighbor))
+				{
+					distances.put(neighbor, distance + 1);
+					queue.add(neighbor);
+				}
+			}
+		}
+	}
+
 	/**
 	 * This method uses classic layout method (without multi-scaling)
 	 * @return
@@ -233,12 +519,19 @@ public class CoSELayout extends FDLayout
 			{
 				positionNodesRadially(forest);
 			}
-			else
+			else if (usePivotMdsPlacement)
 			// The graph associated with this layout is not flat or a forest
+			{
+				positionNodesByPivotMDS();
+			}
+			else
 			{
 				positionNodesRandomly();
 			}
 		}
+
+		// the grid of the first iteration is based on these bounds
+		graphManager.updateBounds();
 	
 		initSpringEmbedder();
 		runSpringEmbedder();
@@ -248,6 +541,20 @@ public class CoSELayout extends FDLayout
 		return true;
 	}
 
+	/**
+	 * This method also scales the maximum iterations of the current level
+	 * during multi-level scaling, and thereby its cooling schedule.
+	 */
+	public void initSpringEmbedder()
+	{
+		super.initSpringEmbedder();
+		
+		if (levelScale < 1.0)
+		{
+			maxIterations = (int) (maxIterations * levelScale);
+		}
+	}
+
 	/**
 	 * This method performs the actual layout on the l-level compound graph. An
 	 * update() needs to be called for changes to be propogated to the v-level
@@ -454,7 +761,7 @@ public class CoSELayout extends FDLayout
 	{
 		double radialSep = Math.max(maxDiagonalInTree(tree),
 			CoSEConstants.DEFAULT_RADIAL_SEPARATION);
-		CoSELayout.branchRadialLayout(centerNode, null, 0, 359, 0, radialSep);
+		CoSELayout.branchRadialLayout(tree, centerNode, radialSep);
 		Rectangle bounds = LGraph.calculateBounds(tree);
 
 		Transform transform = new Transform();
@@ -476,95 +783,105 @@ public class CoSELayout extends FDLayout
 	}
 
 	/**
-	 * This method is recursively called for radial positioning of a node,
-	 * between the specified angles. Current radial level is implied by the
-	 * distance given. Parent of this node in the tree is also needed.
+	 * This method positions the nodes of the given tree radially around the
+	 * given center node. Each node is placed in the middle of the angular
+	 * interval reserved for it, at a distance implied by its radial level, and
+	 * its interval is split equally among its children, in the order of its
+	 * edges starting after the edge to its parent. Nodes are processed with
+	 * an explicit stack, so that deep trees do not overflow the call stack.
 	 */
-	private static void branchRadialLayout(LNode node,
-		LNode parentOfNode,
-		double startAngle, double endAngle,
-		double distance, double radialSeparation)
+	private static void branchRadialLayout(List<LNode> tree,
+		LNode centerNode,
+		double radialSeparation)
 	{
-		// First, position this node by finding its angle.
-		double halfInterval = ((endAngle - startAngle) + 1) / 2;
+		int n = tree.size();
+		Map<LNode, Integer> indices = new HashMap<LNode, Integer>();
 
-		if (halfInterval < 0)
+		for (int i = 0; i < n; i++)
 		{
-			halfInterval += 180;
+			indices.put(tree.get(i), i);
 		}
 
-		double nodeAngle = (halfInterval + startAngle) % 360;
-		double teta = (nodeAngle * IGeometry.TWO_PI) / 360;
-
-		// Make polar to java cordinate conversion.
-		double x = distance * Math.cos(teta);
-		double y = distance * Math.sin(teta);
+		LNode[] parents = new LNode[n];
+		double[] startAngles = new double[n];
+		double[] endAngles = new double[n];
+		double[] distances = new double[n];
+		int[] stack = new int[n];
+		int top = 0;
 
-		node.setCenter(x, y);
+		// index of the node whose children were last collected, for skipping
+		// multiple edges to the same child
+		int[] collectedBy = new int[n];
+		Arrays.fill(collectedBy, -1);
+		List<LNode> children = new ArrayList<LNode>();
 
-		// Traverse all neighbors of this node and recursively call this
-		// function.
+		int center = indices.get(centerNode);
+		endAngles[center] = 359;
+		stack[top++] = center;
 
-		List<LEdge> neighborEdges = new LinkedList<LEdge>(node.getEdges());
-		int childCount = neighborEdges.size();
-
-		if (parentOfNode != null)
+		while (top > 0)
 		{
-			childCount--;
-		}
+			int i = stack[--top];
+			LNode node = tree.get(i);
+			double startAngle = startAngles[i];
+			double endAngle = endAngles[i];
 
-		int branchCount = 0;
+			// First, position this node by finding its angle.
+			double halfInterval = ((endAngle - startAngle) + 1) / 2;
 
-		int incEdgesCount = neighborEdges.size();
-		int startIndex;
+			if (halfInterval < 0)
+			{
+				halfInterval += 180;
+			}
 
-		List edges = node.getEdgesBetween(parentOfNode);
+			double nodeAngle = (halfInterval + startAngle) % 360;
+			double teta = (nodeAngle * IGeometry.TWO_PI) / 360;
 
-		// If there are multiple edges, prune them until there remains only one
-		// edge.
-		while (edges.size() > 1)
-		{
-			neighborEdges.remove(edges.remove(0));
-			incEdgesCount--;
-			childCount--;
-		}
+			// Make polar to java cordinate conversion.
+			node.setCenter(distances[i] * Math.cos(teta),
+				distances[i] * Math.sin(teta));
 
-		if (parentOfNode != null)
-		{
-			assert edges.size() == 1;
-			startIndex =
-				(neighborEdges.indexOf(edges.get(0)) + 1) % incEdgesCount;
-		}
-		else
-		{
-			startIndex = 0;
-		}
+			// Collect the children, starting after the (last) edge to the
+			// parent of this node.
+			Object[] edges = node.getEdges().toArray();
+			int edgeCount = edges.length;
+			int startIndex = 0;
 
-		double stepAngle = Math.abs(endAngle - startAngle) / childCount;
+			for (int j = 0; j < edgeCount; j++)
+			{
+				if (((LEdge) edges[j]).getOtherEnd(node) == parents[i])
+				{
+					startIndex = j + 1;
+				}
+			}
 
-		for (int i = startIndex;
-			branchCount != childCount ;
-			i = (++i) % incEdgesCount)
-		{
-			LNode currentNeighbor =
-				neighborEdges.get(i).getOtherEnd(node);
+			children.clear();
 
-			// Don't back traverse to root node in current tree.
-			if (currentNeighbor == parentOfNode)
+			for (int j = 0; j < edgeCount; j++)
 			{
-				continue;
+				LNode neighbor = ((LEdge) edges[(startIndex + j) % edgeCount]).
+					getOtherEnd(node);
+				int k = indices.get(neighbor);
+
+				if (neighbor != parents[i] && collectedBy[k] != i)
+				{
+					collectedBy[k] = i;
+					children.add(neighbor);
+				}
 			}
 
-			double childStartAngle =
-				(startAngle + branchCount * stepAngle) % 360;
-			double childEndAngle = (childStartAngle + stepAngle) % 360;
+			double stepAngle = Math.abs(endAngle - startAngle) / children.size();
 
-			branchRadialLayout(currentNeighbor,
-					node,
-					childStartAngle, childEndAngle,
-					distance + radialSeparation, radialSeparation);
+			for (int branch = 0; branch < children.size(); branch++)
+			{
+				int k = indices.get(children.get(branch));
 
-			branchCount++;
+				parents[k] = node;
+				startAngles[k] = (startAngle + branch * stepAngle) % 360;
+				endAngles[k] = (startAngles[k] + stepAngle) % 360;
+				distances[k] = distances[i] + radialSeparation;
+				stack[top++] = k;
+			}
 		}
 	}
 
@@ -601,21 +918,111 @@ public class CoSELayout extends FDLayout
 		for (Object obj: graphManager.getAllNodes())
 		{
 			CoSENode v = (CoSENode) obj;
+			CoSENode pred1 = v.getPred1();
+			
+			// if v stands for a collapsed compound, move the member along
+			if (v.getChild() == null && pred1.getChild() != null)
+			{
+				pred1.propogateDisplacementToChildren(
+					v.getCenterX() - pred1.getCenterX(),
+					v.getCenterY() - pred1.getCenterY());
+			}
+			
 			// set positions of v.pred1 and v.pred2
-			v.getPred1().setLocation(v.getLeft(), v.getTop());
+			if (v.getPred2() == null)
+			{
+				pred1.setCenter(v.getCenterX(), v.getCenterY());
+			}
+			else
+			{
+				placeMatchedPredecessors(v);
+			}
+		}
+	}
+	
+	/**
+	 * This method places the two nodes of Mi-1 contracted into the given node
+	 * of Mi an ideal edge length apart around it, along the line between the
+	 * barycenters of their other neighbors, so that each is placed on the
+	 * side of its own neighbors. Locations of the neighbors are taken from
+	 * Mi, as Mi-1 is not placed yet.
+	 */
+	private void placeMatchedPredecessors(CoSENode v)
+	{
+		PointD direction1 = calcNeighborDirection(v.getPred1(), v);
+		PointD direction2 = calcNeighborDirection(v.getPred2(), v);
+		
+		double dx = 0;
+		double dy = 0;
+		
+		if (direction1 != null)
+		{
+			dx -= direction1.x;
+			dy -= direction1.y;
+		}
+		
+		if (direction2 != null)
+		{
+			dx += direction2.x;
+			dy += direction2.y;
+		}
+		
+		double length = Math.hypot(dx, dy);
+		
+		// if their neighbors are on the same side, separate them
+		// perpendicular to that side
+		if (length < 0.1)
+		{
+			if (direction1 != null)
+			{
+				dx = -direction1.y;
+				dy = direction1.x;
+			}
+			else
+			{
+				dx = 1;
+				dy = 1;
+			}
 			
-			if (v.getPred2() != null)
+			length = Math.hypot(dx, dy);
+		}
+		
+		double offsetX = (dx / length) * idealEdgeLength / 2;
+		double offsetY = (dy / length) * idealEdgeLength / 2;
+		
+		v.getPred1().setCenter(v.getCenterX() - offsetX, v.getCenterY() - offsetY);
+		v.getPred2().setCenter(v.getCenterX() + offsetX, v.getCenterY() + offsetY);
+	}
+	
+	/**
+	 * This method returns the unit vector from the given node of Mi towards
+	 * the barycenter of the neighbors of its given predecessor that are not
+	 * contracted into it, or null if there are no such neighbors.
+	 */
+	private PointD calcNeighborDirection(CoSENode pred, CoSENode v)
+	{
+		double x = 0;
+		double y = 0;
+		
+		for (Object obj: pred.getNeighborsList())
+		{
+			CoSENode next = ((CoSENode) obj).getNext();
+			
+			if (next != v)
 			{
-				// TODO: check (what?)
-				/*
-				double w = v.getPred1().getRect().width;
-				double l = idealEdgeLength;
-				v.getPred2().setLocation((v.getPred1().getLeft()+w+l), (v.getPred1().getTop()+w+l));
-				*/
-				v.getPred2().setLocation(v.getLeft()+idealEdgeLength,
-					v.getTop()+idealEdgeLength);
+				x += next.getCenterX() - v.getCenterX();
+				y += next.getCenterY() - v.getCenterY();
 			}
 		}
+		
+		double length = Math.hypot(x, y);
+		
+		if (length == 0)
+		{
+			return null;
+		}
+		
+		return new PointD(x / length, y / length);
 	}
 	
 // -----------------------------------------------------------------------------
@@ -37,6 +37,12 @@ public class CoSENode extends FDLayoutNode
 	 */
 	private boolean processed;
 
+	/**
+	 * Number of nodes of the input graph represented by this node during the
+	 * coarsening process
+	 */
+	private int weight = 1;
+
 // -----------------------------------------------------------------------------
 // Section: Constructors and initialization
 // -----------------------------------------------------------------------------
@@ -74,6 +80,12 @@ public class CoSENode extends FDLayoutNode
 		this.displacementY = layout.coolingFactor *
 			(this.springForceY + this.repulsionForceY + this.gravitationForceY) / this.noOfChildren;
 
+		if (this.mobility < 1.0)
+		{
+			this.displacementX *= this.mobility;
+			this.displacementY *= this.mobility;
+		}
+
 		if (Math.abs(this.displacementX) > maxNodeDisplacement)
 		{
 			this.displacementX = maxNodeDisplacement * IMath.sign(this.displacementX);
@@ -192,4 +204,14 @@ public class CoSENode extends FDLayoutNode
 	{
 		return processed;
 	}
+
+	public void setWeight(int weight)
+	{
+		this.weight = weight;
+	}
+
+	public int getWeight()
+	{
+		return weight;
+	}
 }
\ No newline at end of file
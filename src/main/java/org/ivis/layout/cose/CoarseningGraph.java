@@ -1,5 +1,9 @@
 package org.ivis.layout.cose;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
 import org.ivis.layout.LGraph;
 import org.ivis.layout.LGraphObject;
 import org.ivis.layout.LNode;
@@ -54,14 +58,24 @@ public class CoarseningGraph extends LGraph
 		
 		if (this.getNodes().size() > 0)
 		{
+			Map<LGraph, LinkedList<CoarseningNode>> isolatedMembers =
+				this.collectIsolatedMembers();
+
 			// match each node with the one of the unmatched neighbors has minimum weight
-			// if there is no unmatched neighbor, then match current node with itself
+			// if there is no unmatched neighbor, then match an isolated member
+			// of a compound with another one of the same compound, and any
+			// other node with itself
 			while (!((CoarseningNode) this.getNodes().get(0)).isMatched())
 			{
 				// get an unmatched node (v) and (if exists) matching of it (u).
 				v = (CoarseningNode) this.getNodes().get(0);
 				u = v.getMatching();
 				
+				if (u == null)
+				{
+					u = this.getSiblingMatching(v, isolatedMembers);
+				}
+				
 				// node t is constructed by contracting u and v
 				contract( v, u );
 			}
@@ -73,6 +87,7 @@ public class CoarseningGraph extends LGraph
 				
 				// new CoSE node will be in Mi+1
 				CoSENode z = (CoSENode) this.layout.newNode(null);
+				z.setWeight(y.getWeight());
 				
 				z.setPred1(y.getNode1().getReference());
 				y.getNode1().getReference().setNext(z);
@@ -89,6 +104,63 @@ public class CoarseningGraph extends LGraph
 		}
 	}
 	
+	/**
+	 * This method groups the nodes without neighbors that reference members
+	 * of compounds (rather than nodes of the root graph) by their owners.
+	 * Such nodes, such as the members of complexes, cannot be matched with
+	 * neighbors, but are kept together by their compounds.
+	 */
+	private Map<LGraph, LinkedList<CoarseningNode>> collectIsolatedMembers()
+	{
+		Map<LGraph, LinkedList<CoarseningNode>> isolatedMembers =
+			new HashMap<LGraph, LinkedList<CoarseningNode>>();
+
+		for (Object obj: this.getNodes())
+		{
+			CoarseningNode v = (CoarseningNode) obj;
+			LGraph owner = v.getReference().getOwner();
+
+			if (v.getEdges().isEmpty() && owner.getParent() != null &&
+				owner.getParent().getOwner() != null)
+			{
+				LinkedList<CoarseningNode> members = isolatedMembers.get(owner);
+
+				if (members == null)
+				{
+					members = new LinkedList<CoarseningNode>();
+					isolatedMembers.put(owner, members);
+				}
+
+				members.add(v);
+			}
+		}
+
+		return isolatedMembers;
+	}
+
+	/**
+	 * This method returns an unmatched isolated member of the same compound
+	 * as the given node, if the given node is an isolated member as well.
+	 */
+	private CoarseningNode getSiblingMatching(CoarseningNode v,
+		Map<LGraph, LinkedList<CoarseningNode>> isolatedMembers)
+	{
+		LinkedList<CoarseningNode> members =
+			isolatedMembers.get(v.getReference().getOwner());
+
+		// members are contracted in order, and isolated members are only
+		// matched with each other, so an isolated member is at the front of
+		// its list when it is contracted
+		if (members == null || members.peekFirst() != v)
+		{
+			return null;
+		}
+
+		members.removeFirst();
+
+		return members.pollFirst();
+	}
+
 	/**
 	 * This method unflags all nodes as unmatched
 	 * it should be called before each coarsening process
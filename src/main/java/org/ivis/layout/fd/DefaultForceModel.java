@@ -0,0 +1,137 @@
+package org.ivis.layout.fd;
+
+import java.util.HashSet;
+
+import org.ivis.layout.LGraph;
+
+/**
+ * This class implements the default force model of force-directed layouts.
+ * Spring and gravitation forces are calculated for each edge and node, and
+ * repulsion forces either for all pairs of sibling nodes or, if the FR grid
+ * variant is used, for the pairs within the repulsion range of each other.
+ * The forces themselves are calculated by the layout. This model uses only
+ * the public methods of the layout, as models in other packages would.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class DefaultForceModel implements ForceModel
+{
+// -----------------------------------------------------------------------------
+// Section: Force calculation
+// -----------------------------------------------------------------------------
+	public void calcSpringForces(FDLayout layout)
+	{
+		Object[] lEdges = layout.getAllEdges();
+		FDLayoutEdge edge;
+
+		for (int i = 0; i < lEdges.length; i++)
+		{
+			edge = (FDLayoutEdge) lEdges[i];
+
+			if (layout.appliesSpringForce(edge))
+			{
+				layout.calcSpringForce(edge, edge.idealLength);
+			}
+		}
+	}
+
+	public void calcRepulsionForces(FDLayout layout)
+	{
+		if (layout.useFRGridVariant)
+		{
+			calcGridRepulsionForces(layout);
+		}
+		else
+		{
+			calcAllRepulsionForces(layout);
+		}
+	}
+
+	public void calcGravitationalForces(FDLayout layout)
+	{
+		Object[] lNodes = layout.getAllNodesToApplyGravitation();
+		FDLayoutNode node;
+
+		for (int i = 0; i < lNodes.length; i++)
+		{
+			node = (FDLayoutNode) lNodes[i];
+
+			if (layout.appliesGravitationForce(node))
+			{
+				layout.calcGravitationalForce(node);
+			}
+		}
+	}
+
+	/**
+	 * This method calculates the repulsion forces between each node and the
+	 * nodes within its repulsion range, found by the grid of the layout.
+	 */
+	protected void calcGridRepulsionForces(FDLayout layout)
+	{
+		Object[] lNodes = layout.getAllNodes();
+		FDLayoutNode nodeA;
+
+		// grid is a vector matrix that holds FDLayoutNodes.
+		// be sure to convert the Object type to FDLayoutNode.
+		if (layout.getTotalIterations() %
+			FDLayoutConstants.GRID_CALCULATION_CHECK_PERIOD == 1)
+		{
+			LGraph root = layout.getGraphManager().getRoot();
+			layout.setGrid(layout.calcGrid(root));
+
+			// put all nodes to proper grid cells
+			for (int i = 0; i < lNodes.length; i++)
+			{
+				nodeA = (FDLayoutNode) lNodes[i];
+				layout.addNodeToGrid(nodeA, layout.getGrid(),
+					root.getLeft(),
+					root.getTop());
+			}
+		}
+
+		HashSet<FDLayoutNode> processedNodeSet = new HashSet<FDLayoutNode>();
+
+		// calculate repulsion forces between each nodes and its surrounding,
+		// which holds the nodes accepted by layout.appliesRepulsionForce
+		for (int i = 0; i < lNodes.length; i++)
+		{
+			nodeA = (FDLayoutNode) lNodes[i];
+			layout.calculateRepulsionForceOfANode(layout.getGrid(),
+				nodeA,
+				processedNodeSet);
+			processedNodeSet.add(nodeA);
+		}
+	}
+
+	/**
+	 * This method calculates the repulsion forces between all pairs of
+	 * sibling nodes.
+	 */
+	protected void calcAllRepulsionForces(FDLayout layout)
+	{
+		Object[] lNodes = layout.getAllNodes();
+		FDLayoutNode nodeA, nodeB;
+
+		for (int i = 0; i < lNodes.length; i++)
+		{
+			nodeA = (FDLayoutNode) lNodes[i];
+
+			for (int j = i + 1; j < lNodes.length; j++)
+			{
+				nodeB = (FDLayoutNode) lNodes[j];
+
+				// If both nodes are not members of the same graph, skip.
+				if (nodeA.getOwner() != nodeB.getOwner())
+				{
+					continue;
+				}
+
+				if (layout.appliesRepulsionForce(nodeA, nodeB))
+				{
+					layout.calcRepulsionForce(nodeA, nodeB);
+				}
+			}
+		}
+	}
+}
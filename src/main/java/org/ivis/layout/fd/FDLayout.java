@@ -93,7 +93,7 @@ public abstract class FDLayout extends Layout
 	/**
 	 * Maximum number of layout iterations allowed
 	 */
-	protected int maxIterations = 2500;
+	protected int maxIterations = FDLayoutConstants.DEFAULT_MAX_ITERATIONS;
 
 	/**
 	 * Total number of iterations currently performed
@@ -126,6 +126,17 @@ public abstract class FDLayout extends Layout
 	 * Grid is re-calculated after every tenth iteration.
 	 */
 	protected Vector[][] grid;
+
+	/**
+	 * Model used for calculating the forces in each iteration
+	 */
+	public ForceModel forceModel = new DefaultForceModel();
+
+	/**
+	 * Batch of uniform leaf nodes whose repulsion with a node is calculated
+	 * together
+	 */
+	private RepulsionBatch repulsionBatch = new RepulsionBatch();
 	
 // -----------------------------------------------------------------------------
 // Section: Constructors and initialization
@@ -139,6 +150,23 @@ public abstract class FDLayout extends Layout
 		super();
 	}
 
+	/**
+	 * This method also restores the parameters adjusted during a previous run.
+	 */
+	public void reset()
+	{
+		super.reset();
+
+		this.maxIterations = FDLayoutConstants.DEFAULT_MAX_ITERATIONS;
+		this.displacementThresholdPerNode =
+			(3.0 * (double) FDLayoutConstants.DEFAULT_EDGE_LENGTH) / 100;
+		this.coolingFactor = 1.0;
+		this.initialCoolingFactor = 1.0;
+		this.totalDisplacement = 0.0;
+		this.oldTotalDisplacement = 0.0;
+		this.grid = null;
+	}
+
 	/**
 	 * This method is used to set all layout parameters to default values.
 	 */
@@ -166,6 +194,36 @@ public abstract class FDLayout extends Layout
 		this.useFRGridVariant = layoutOptionsPack.smartRepulsionRangeCalc;
 	}
 
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	/**
+	 * This method returns the number of iterations performed so far.
+	 */
+	public int getTotalIterations()
+	{
+		return this.totalIterations;
+	}
+
+	/**
+	 * This method returns the repulsion range, which is also the edge length
+	 * of a grid square.
+	 */
+	public double getRepulsionRange()
+	{
+		return this.repulsionRange;
+	}
+
+	public Vector<?>[][] getGrid()
+	{
+		return this.grid;
+	}
+
+	public void setGrid(Vector<?>[][] grid)
+	{
+		this.grid = grid;
+	}
+
 // -----------------------------------------------------------------------------
 // Section: Remaining methods
 // -----------------------------------------------------------------------------
@@ -214,6 +272,20 @@ public abstract class FDLayout extends Layout
 		}
 	}
 
+	/**
+	 * This method determines the initial positions of nodes in the associated
+	 * l-level compound graph structure by pivot multidimensional scaling of
+	 * their graph theoretic distances, from which the spring embedder
+	 * converges sooner than from random positions. Lowest common ancestors
+	 * and estimated sizes should have been calculated beforehand.
+	 */
+	public void positionNodesByPivotMDS()
+	{
+		assert !incremental;
+		new PivotMDS(idealEdgeLength).position(graphManager);
+		graphManager.getRoot().updateBounds(true);
+	}
+
 	/**
 	 * This method is used to set parameters used by spring embedder.
 	 */
@@ -237,8 +309,19 @@ public abstract class FDLayout extends Layout
 		maxIterations =
 			Math.max(getAllNodes().length * 5, maxIterations);
 
+		// pinned nodes do not contribute to the total displacement
+		int movableNodeCount = 0;
+
+		for (Object obj : getAllNodes())
+		{
+			if (!((FDLayoutNode) obj).isPinned())
+			{
+				movableNodeCount++;
+			}
+		}
+
 		totalDisplacementThreshold =
-			displacementThresholdPerNode * getAllNodes().length;
+			displacementThresholdPerNode * movableNodeCount;
 		
 		repulsionRange = calcRepulsionRange();
 	}
@@ -248,15 +331,7 @@ public abstract class FDLayout extends Layout
 	 */
 	public void calcSpringForces()
 	{
-		Object[] lEdges = getAllEdges();
-		FDLayoutEdge edge;
-
-		for (int i = 0; i < lEdges.length; i++)
-		{
-			edge = (FDLayoutEdge) lEdges[i];
-
-			calcSpringForce(edge, edge.idealLength);
-		}
+		forceModel.calcSpringForces(this);
 	}
 
 	/**
@@ -264,56 +339,7 @@ public abstract class FDLayout extends Layout
 	 */
 	public void calcRepulsionForces()
 	{
-		int i, j;
-		FDLayoutNode nodeA, nodeB;
-		Object[] lNodes = getAllNodes();
-		HashSet<FDLayoutNode> processedNodeSet;
-		
-		if (useFRGridVariant)
-		{
-			// grid is a vector matrix that holds CoSENodes.
-			// be sure to convert the Object type to CoSENode.
-			if (totalIterations % FDLayoutConstants.GRID_CALCULATION_CHECK_PERIOD == 1)
-			{
-				grid = calcGrid(graphManager.getRoot());
-
-				// put all nodes to proper grid cells
-				for (i = 0; i < lNodes.length; i++)
-				{
-					nodeA = (FDLayoutNode) lNodes[i];
-					addNodeToGrid(nodeA, grid,
-							graphManager.getRoot().getLeft(),
-							graphManager.getRoot().getTop());
-				}
-			}
-			
-			processedNodeSet = new HashSet<FDLayoutNode>();
-			// calculate repulsion forces between each nodes and its surrounding
-			for (i = 0; i < lNodes.length; i++)
-			{
-				nodeA = (FDLayoutNode) lNodes[i];
-				calculateRepulsionForceOfANode(grid, nodeA, processedNodeSet);
-				processedNodeSet.add(nodeA);
-			}			
-		} else
-		{
-			for (i = 0; i < lNodes.length; i++)
-			{
-				nodeA = (FDLayoutNode) lNodes[i];
-
-				for (j = i + 1; j < lNodes.length; j++)
-				{
-					nodeB = (FDLayoutNode) lNodes[j];
-
-					// If both nodes are not members of the same graph, skip.
-					if (nodeA.getOwner() != nodeB.getOwner()) {
-						continue;
-					}
-
-					calcRepulsionForce(nodeA, nodeB);
-				}
-			}
-		}
+		forceModel.calcRepulsionForces(this);
 	}
 
 	/**
@@ -321,15 +347,35 @@ public abstract class FDLayout extends Layout
 	 */
 	public void calcGravitationalForces()
 	{
-		FDLayoutNode node;
-		Object[] lNodes = getAllNodesToApplyGravitation();
+		forceModel.calcGravitationalForces(this);
+	}
 
-		for (int i = 0; i < lNodes.length; i++)
-		{
-			node = (FDLayoutNode) lNodes[i];
+	/**
+	 * This method returns whether the spring force of the input edge is to be
+	 * calculated. Edges between pinned nodes are skipped.
+	 */
+	public boolean appliesSpringForce(FDLayoutEdge edge)
+	{
+		return !((FDLayoutNode) edge.getSource()).isPinned() ||
+			!((FDLayoutNode) edge.getTarget()).isPinned();
+	}
 
-			calcGravitationalForce(node);
-		}
+	/**
+	 * This method returns whether the repulsion force between the input
+	 * sibling nodes is to be calculated. Pairs of pinned nodes are skipped.
+	 */
+	public boolean appliesRepulsionForce(FDLayoutNode nodeA, FDLayoutNode nodeB)
+	{
+		return !nodeA.isPinned() || !nodeB.isPinned();
+	}
+
+	/**
+	 * This method returns whether the gravitation force of the input node is
+	 * to be calculated. Pinned nodes are skipped.
+	 */
+	public boolean appliesGravitationForce(FDLayoutNode node)
+	{
+		return !node.isPinned();
 	}
 
 	/**
@@ -343,7 +389,15 @@ public abstract class FDLayout extends Layout
 		for (int i = 0; i < lNodes.length; i++)
 		{
 			node = (FDLayoutNode) lNodes[i];
-			node.move();
+
+			if (node.isPinned())
+			{
+				node.resetForces();
+			}
+			else
+			{
+				node.move();
+			}
 		}
 	}
 
@@ -351,7 +405,7 @@ public abstract class FDLayout extends Layout
 	 * This method calculates the spring force for the ends of input edge based
 	 * on the input ideal length.
 	 */
-	protected void calcSpringForce(LEdge edge, double idealLength)
+	public void calcSpringForce(LEdge edge, double idealLength)
 	{
 		FDLayoutNode sourceNode = (FDLayoutNode) edge.getSource();
 		FDLayoutNode targetNode = (FDLayoutNode) edge.getTarget();
@@ -396,7 +450,7 @@ public abstract class FDLayout extends Layout
 	/**
 	 * This method calculates the repulsion forces for the input node pair.
 	 */
-	protected void calcRepulsionForce(FDLayoutNode nodeA, FDLayoutNode nodeB)
+	public void calcRepulsionForce(FDLayoutNode nodeA, FDLayoutNode nodeB)
 	{
 		RectangleD rectA = nodeA.getRect();
 		RectangleD rectB = nodeB.getRect();
@@ -454,7 +508,10 @@ public abstract class FDLayout extends Layout
 			else
 			// use clipping points
 			{
-				IGeometry.getIntersection(rectA, rectB, clipPoints);
+				if (!calcDistantClipPoints(rectA, rectB, clipPoints))
+				{
+					IGeometry.getIntersection(rectA, rectB, clipPoints);
+				}
 
 				distanceX = clipPoints[2] - clipPoints[0];
 				distanceY = clipPoints[3] - clipPoints[1];
@@ -490,10 +547,63 @@ public abstract class FDLayout extends Layout
 		}
 	}
 
+	/**
+	 * This method calculates the clipping points of the line between the
+	 * centers of the input rectangles in closed form, if the rectangles are
+	 * far apart, that is, if the gap between them along x or y is larger than
+	 * both of them along that axis. Then the repulsion between two large
+	 * compound nodes is that of their centers, reduced by their extents along
+	 * the center line. Returns false, leaving the clipping points to
+	 * IGeometry, if the rectangles are near.
+	 */
+	protected boolean calcDistantClipPoints(RectangleD rectA,
+		RectangleD rectB,
+		double[] clipPoints)
+	{
+		double centerDistanceX = rectB.getCenterX() - rectA.getCenterX();
+		double centerDistanceY = rectB.getCenterY() - rectA.getCenterY();
+		double absDistanceX = Math.abs(centerDistanceX);
+		double absDistanceY = Math.abs(centerDistanceY);
+		double gapX = absDistanceX - rectA.getWidthHalf() - rectB.getWidthHalf();
+		double gapY = absDistanceY - rectA.getHeightHalf() - rectB.getHeightHalf();
+
+		if (gapX <= Math.max(rectA.width, rectB.width) &&
+			gapY <= Math.max(rectA.height, rectB.height))
+		{
+			return false;
+		}
+
+		// distances from the centers to the clipping points, along the
+		// center line, relative to the distance between the centers
+		double extentA = Math.min(rectA.getWidthHalf() * absDistanceY,
+			rectA.getHeightHalf() * absDistanceX);
+		double extentB = Math.min(rectB.getWidthHalf() * absDistanceY,
+			rectB.getHeightHalf() * absDistanceX);
+		double product = absDistanceX * absDistanceY;
+
+		if (product == 0)
+		// center line is horizontal or vertical
+		{
+			extentA = (absDistanceX == 0) ? rectA.getHeightHalf() : rectA.getWidthHalf();
+			extentB = (absDistanceX == 0) ? rectB.getHeightHalf() : rectB.getWidthHalf();
+			product = absDistanceX + absDistanceY;
+		}
+
+		extentA /= product;
+		extentB /= product;
+
+		clipPoints[0] = rectA.getCenterX() + extentA * centerDistanceX;
+		clipPoints[1] = rectA.getCenterY() + extentA * centerDistanceY;
+		clipPoints[2] = rectB.getCenterX() - extentB * centerDistanceX;
+		clipPoints[3] = rectB.getCenterY() - extentB * centerDistanceY;
+
+		return true;
+	}
+
 	/**
 	 * This method calculates gravitational force for the input node.
 	 */
-	protected void calcGravitationalForce(FDLayoutNode node)
+	public void calcGravitationalForce(FDLayoutNode node)
 	{
 		assert node.gravitationForceX == 0 && node.gravitationForceY == 0;
 
@@ -596,7 +706,7 @@ public abstract class FDLayout extends Layout
 	/**
 	 * This method creates the empty grid with proper dimensions
 	 */
-	protected Vector[][] calcGrid(LGraph g)
+	public Vector[][] calcGrid(LGraph g)
 	{
 		int i, j;
 		Vector[][] grid;
@@ -623,7 +733,7 @@ public abstract class FDLayout extends Layout
 	 * This method adds input node v to the proper grid squares, 
 	 * and also sets the grid start and finish points of v 
 	 */
-	protected void addNodeToGrid(FDLayoutNode v, Vector[][] grid, double left, double top)
+	public void addNodeToGrid(FDLayoutNode v, Vector[][] grid, double left, double top)
 	{
 		int startX = (int) Math.floor((v.getRect().x - left) / repulsionRange);
 		int finishX = (int) Math.floor((v.getRect().width + v.getRect().x - left) / repulsionRange);
@@ -654,7 +764,7 @@ public abstract class FDLayout extends Layout
 	 * And calculates the repulsion forces between nodeA and its surrounding.
 	 * During the calculation, ignores the nodes that have already been processed.
 	 */
-	protected void calculateRepulsionForceOfANode (Vector[][] grid, 
+	public void calculateRepulsionForceOfANode (Vector[][] grid, 
 		FDLayoutNode nodeA,
 		HashSet<FDLayoutNode> processedNodeSet)
 	{
@@ -682,6 +792,11 @@ public abstract class FDLayout extends Layout
 							{
 								continue;
 							}
+
+							if (!appliesRepulsionForce(nodeA, nodeB))
+							{
+								continue;
+							}
 							
 							// check if the repulsion force between 
 							// nodeA and nodeB has already been calculated
@@ -707,11 +822,46 @@ public abstract class FDLayout extends Layout
 			nodeA.surrounding = surrounding.toArray();
 		}
 
-		for (i = 0; i < nodeA.surrounding.length; i++)
+		calcRepulsionForcesOfSurrounding(nodeA);
+	}
+
+	/**
+	 * This method calculates the repulsion forces between nodeA and its
+	 * surrounding. When leaf node sizes are uniform, the forces between a leaf
+	 * nodeA and the leaves not overlapping it are calculated in a batch.
+	 */
+	public void calcRepulsionForcesOfSurrounding(FDLayoutNode nodeA)
+	{
+		Object[] surrounding = nodeA.surrounding;
+
+		if (!uniformLeafNodeSizes || nodeA.getChild() != null)
 		{
-			calcRepulsionForce(nodeA, (FDLayoutNode) nodeA.surrounding[i]);
-		}		
-		
+			for (int i = 0; i < surrounding.length; i++)
+			{
+				calcRepulsionForce(nodeA, (FDLayoutNode) surrounding[i]);
+			}
+
+			return;
+		}
+
+		RectangleD rectA = nodeA.getRect();
+		repulsionBatch.clear(nodeA);
+
+		for (int i = 0; i < surrounding.length; i++)
+		{
+			FDLayoutNode nodeB = (FDLayoutNode) surrounding[i];
+
+			if (nodeB.getChild() != null || rectA.intersects(nodeB.getRect()))
+			{
+				calcRepulsionForce(nodeA, nodeB);
+			}
+			else
+			{
+				repulsionBatch.add(nodeB);
+			}
+		}
+
+		repulsionBatch.calcForces(repulsionConstant);
 	}
 	/**
 	 * This method calculates repulsion range
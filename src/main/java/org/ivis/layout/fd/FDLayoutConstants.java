@@ -24,6 +24,7 @@ public class FDLayoutConstants
 	public static final double DEFAULT_COMPOUND_GRAVITY_RANGE_FACTOR = 1.5;
 	public static final boolean DEFAULT_USE_SMART_IDEAL_EDGE_LENGTH_CALCULATION = true;
 	public static final boolean DEFAULT_USE_SMART_REPULSION_RANGE_CALCULATION = true;
+	public static final int DEFAULT_MAX_ITERATIONS = 2500;
 	
 // -----------------------------------------------------------------------------
 // Section: remaining constants
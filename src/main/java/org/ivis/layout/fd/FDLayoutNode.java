@@ -47,6 +47,13 @@ public abstract class FDLayoutNode extends LNode
 	 * Geometric neighbors of this node 
 	 */
 	public Object[] surrounding;
+
+	/**
+	 * Factor by which the displacement of this node is scaled. It is less
+	 * than 1 for nodes damped during incremental layout, and 0 for pinned
+	 * nodes, whose forces are not calculated and which are not moved.
+	 */
+	public double mobility = 1.0;
 	
 // -----------------------------------------------------------------------------
 // Section: Constructors and initialization
@@ -85,6 +92,28 @@ public abstract class FDLayoutNode extends LNode
 // -----------------------------------------------------------------------------
 // Section: Remaining methods
 // -----------------------------------------------------------------------------
+	/**
+	 * This method returns whether this node is pinned at its location.
+	 */
+	public boolean isPinned()
+	{
+		return this.mobility == 0.0;
+	}
+
+	/**
+	 * This method clears the forces acting on this node, for pinned nodes
+	 * which are not moved.
+	 */
+	public void resetForces()
+	{
+		this.springForceX = 0;
+		this.springForceY = 0;
+		this.repulsionForceX = 0;
+		this.repulsionForceY = 0;
+		this.gravitationForceX = 0;
+		this.gravitationForceY = 0;
+	}
+
 	/*
 	 * This method recalculates the displacement related attributes of this
 	 * object. These attributes are calculated at each layout iteration once,
@@ -0,0 +1,41 @@
+package org.ivis.layout.fd;
+
+/**
+ * This interface is implemented by the force models of force-directed
+ * layouts. A force model accumulates the spring, repulsion and gravitation
+ * forces of the nodes of a layout in each iteration, so that the way they are
+ * calculated (all pairs, grid, approximations, in parallel, etc.) can be
+ * changed without subclassing the layout.
+ *
+ * A model should calculate the forces only for the edges, node pairs and
+ * nodes accepted by FDLayout.appliesSpringForce, appliesRepulsionForce and
+ * appliesGravitationForce respectively, so that the layout styles keep their
+ * own rules, such as not repelling port nodes in SBGN layouts. The forces of
+ * single edges, node pairs and nodes may be calculated by the public methods
+ * FDLayout.calcSpringForce, calcRepulsionForce and calcGravitationalForce,
+ * and the FR grid of the layout is available through calcGrid,
+ * addNodeToGrid, calculateRepulsionForceOfANode, getGrid and
+ * getRepulsionRange.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public interface ForceModel
+{
+	/**
+	 * This method adds the spring forces of the edges of the input layout to
+	 * their end nodes.
+	 */
+	void calcSpringForces(FDLayout layout);
+
+	/**
+	 * This method adds the repulsion forces between sibling nodes of the
+	 * input layout to these nodes.
+	 */
+	void calcRepulsionForces(FDLayout layout);
+
+	/**
+	 * This method adds the gravitation forces to the nodes of the input
+	 * layout that are to be kept together with their siblings.
+	 */
+	void calcGravitationalForces(FDLayout layout);
+}
@@ -0,0 +1,476 @@
+package org.ivis.layout.fd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.LayoutConstants;
+
+/**
+ * This class positions nodes by pivot multidimensional scaling, as described
+ * in the following article:
+ * 		U. Brandes and C. Pich, "Eigensolver Methods for Progressive
+ * 		Multidimensional Scaling of Large Data", Graph Drawing 2006,
+ * 		LNCS 4372, pp. 42-53, 2007.
+ *
+ * Graph theoretic distances of all nodes to a few pivots are found by
+ * breadth-first search, and the nodes are placed along the two principal axes
+ * of the double centered matrix of squared distances. Each graph of the
+ * compound structure is positioned on its own, an inter-graph edge joining
+ * the ancestors of its end nodes in its lowest common ancestor graph, and the
+ * contents of each compound node are positioned around the compound node.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class PivotMDS
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	/**
+	 * Maximum number of pivots of a graph
+	 */
+	public static final int MAX_PIVOT_COUNT = 50;
+
+	/**
+	 * Number of power iterations for each principal axis
+	 */
+	private static final int POWER_ITERATIONS = 100;
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Desired length of an edge between nodes of average size
+	 */
+	private double edgeLength;
+
+	/**
+	 * Edges between the nodes of each graph, including the inter-graph edges
+	 * between the ancestors of their end nodes
+	 */
+	private Map<LGraph, List<LEdge>> graphEdges;
+
+	/**
+	 * Used for the initial vectors of power iterations, and for separating
+	 * nodes at equal distances to all pivots
+	 */
+	private Random random;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and initialization
+// -----------------------------------------------------------------------------
+	public PivotMDS(double edgeLength)
+	{
+		this.edgeLength = edgeLength;
+		this.random = new Random(Layout.RANDOM_SEED);
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Positioning
+// -----------------------------------------------------------------------------
+	/**
+	 * This method positions the nodes of the given graph manager, centering
+	 * the root graph at the world center. Lowest common ancestors of edges and
+	 * estimated sizes of nodes should have been calculated beforehand.
+	 */
+	public void position(LGraphManager graphManager)
+	{
+		this.graphEdges = new HashMap<LGraph, List<LEdge>>();
+
+		for (Object obj : graphManager.getAllEdges())
+		{
+			LEdge edge = (LEdge) obj;
+
+			// edges between a compound node and its contents are skipped
+			if (edge.getSourceInLca() != edge.getTargetInLca())
+			{
+				List<LEdge> edges = this.graphEdges.get(edge.getLca());
+
+				if (edges == null)
+				{
+					edges = new ArrayList<LEdge>();
+					this.graphEdges.put(edge.getLca(), edges);
+				}
+
+				edges.add(edge);
+			}
+		}
+
+		position(graphManager.getRoot(), LayoutConstants.WORLD_CENTER_X,
+			LayoutConstants.WORLD_CENTER_Y);
+	}
+
+	/**
+	 * This method positions the nodes of the given graph around the given
+	 * center, and the contents of its compound nodes around them.
+	 */
+	private void position(LGraph graph, double centerX, double centerY)
+	{
+		List<?> nodes = graph.getNodes();
+		double[][] coordinates = calcCoordinates(graph);
+
+		for (int i = 0; i < nodes.size(); i++)
+		{
+			LNode node = (LNode) nodes.get(i);
+			double x = centerX + coordinates[0][i];
+			double y = centerY + coordinates[1][i];
+
+			node.setCenter(x, y);
+
+			if (node.getChild() != null && !node.getChild().getNodes().isEmpty())
+			{
+				position(node.getChild(), x, y);
+				node.updateBounds();
+			}
+		}
+	}
+
+	/**
+	 * This method returns the x and y coordinates of the nodes of the given
+	 * graph, with their mean at the origin.
+	 */
+	private double[][] calcCoordinates(LGraph graph)
+	{
+		List<?> nodes = graph.getNodes();
+		int n = nodes.size();
+		double[][] coordinates = new double[2][n];
+
+		if (n < 2)
+		{
+			return coordinates;
+		}
+
+		// a hop is as long as an edge between nodes of average size
+		Map<LNode, Integer> indices = new HashMap<LNode, Integer>();
+		double totalSize = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			LNode node = (LNode) nodes.get(i);
+			indices.put(node, i);
+			totalSize += node.getEstimatedSize();
+		}
+
+		double unit = this.edgeLength + totalSize / n;
+
+		// adjacency lists of all nodes in a single array
+		List<LEdge> edges = this.graphEdges.get(graph);
+		int edgeCount = (edges == null) ? 0 : edges.size();
+		int[] sources = new int[edgeCount];
+		int[] targets = new int[edgeCount];
+		int[] offsets = new int[n + 1];
+
+		for (int j = 0; j < edgeCount; j++)
+		{
+			sources[j] = indices.get(edges.get(j).getSourceInLca());
+			targets[j] = indices.get(edges.get(j).getTargetInLca());
+			offsets[sources[j] + 1]++;
+			offsets[targets[j] + 1]++;
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			offsets[i + 1] += offsets[i];
+		}
+
+		int[] adjacency = new int[2 * edgeCount];
+		int[] next = Arrays.copyOf(offsets, n);
+
+		for (int j = 0; j < edgeCount; j++)
+		{
+			adjacency[next[sources[j]]++] = targets[j];
+			adjacency[next[targets[j]]++] = sources[j];
+		}
+
+		// each pivot is the node farthest from the previous ones, so that
+		// each component gets a pivot
+		int k = Math.min(MAX_PIVOT_COUNT, n);
+		int[] pivots = new int[k];
+		double[][] distances = new double[k][];
+		double[] minDistances = new double[n];
+		int[] queue = new int[n];
+
+		Arrays.fill(minDistances, Double.MAX_VALUE);
+		pivots[0] = this.random.nextInt(n);
+
+		for (int p = 0; p < k; p++)
+		{
+			distances[p] = calcDistances(pivots[p], offsets, adjacency, queue);
+
+			int farthest = 0;
+
+			for (int i = 0; i < n; i++)
+			{
+				distances[p][i] *= unit;
+				minDistances[i] = Math.min(minDistances[i], distances[p][i]);
+
+				if (minDistances[i] > minDistances[farthest])
+				{
+					farthest = i;
+				}
+			}
+
+			if (p + 1 < k)
+			{
+				pivots[p + 1] = farthest;
+			}
+		}
+
+		double[][] centered = doubleCenter(distances);
+		double[][] axes = calcPrincipalAxes(centered);
+
+		for (int d = 0; d < 2; d++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				for (int p = 0; p < k; p++)
+				{
+					coordinates[d][i] += centered[p][i] * axes[d][p];
+				}
+			}
+		}
+
+		scale(coordinates, pivots, distances);
+
+		// nodes at equal distances to all pivots, such as leaves of the same
+		// node, coincide; they are separated a bit for the spring embedder
+		double[] mean = new double[2];
+
+		for (int d = 0; d < 2; d++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				coordinates[d][i] += (this.random.nextDouble() - 0.5) * unit / 2;
+				mean[d] += coordinates[d][i] / n;
+			}
+
+			for (int i = 0; i < n; i++)
+			{
+				coordinates[d][i] -= mean[d];
+			}
+		}
+
+		return coordinates;
+	}
+
+	/**
+	 * This method returns the hop distances of all nodes to the given node.
+	 * Nodes in other components are taken to be one hop farther than the
+	 * farthest node of the component.
+	 */
+	private double[] calcDistances(int source, int[] offsets, int[] adjacency,
+		int[] queue)
+	{
+		int n = offsets.length - 1;
+		double[] distances = new double[n];
+		Arrays.fill(distances, -1);
+
+		distances[source] = 0;
+		queue[0] = source;
+		int head = 0;
+		int tail = 1;
+
+		while (head < tail)
+		{
+			int node = queue[head++];
+
+			for (int j = offsets[node]; j < offsets[node + 1]; j++)
+			{
+				int neighbor = adjacency[j];
+
+				if (distances[neighbor] < 0)
+				{
+					distances[neighbor] = distances[node] + 1;
+					queue[tail++] = neighbor;
+				}
+			}
+		}
+
+		double unreachable = distances[queue[tail - 1]] + 1;
+
+		for (int i = 0; i < n; i++)
+		{
+			if (distances[i] < 0)
+			{
+				distances[i] = unreachable;
+			}
+		}
+
+		return distances;
+	}
+
+	/**
+	 * This method returns the double centered matrix of the given squared
+	 * distances from pivots (rows) to nodes (columns), multiplied by -1/2.
+	 */
+	private double[][] doubleCenter(double[][] distances)
+	{
+		int k = distances.length;
+		int n = distances[0].length;
+		double[][] centered = new double[k][n];
+		double[] rowMeans = new double[k];
+		double[] columnMeans = new double[n];
+		double mean = 0;
+
+		for (int p = 0; p < k; p++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				double squared = distances[p][i] * distances[p][i];
+				centered[p][i] = squared;
+				rowMeans[p] += squared / n;
+				columnMeans[i] += squared / k;
+				mean += squared / (k * n);
+			}
+		}
+
+		for (int p = 0; p < k; p++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				centered[p][i] = -0.5 *
+					(centered[p][i] - rowMeans[p] - columnMeans[i] + mean);
+			}
+		}
+
+		return centered;
+	}
+
+	/**
+	 * This method returns the two dominant eigenvectors of C * C^T for the
+	 * given matrix C, found by power iteration.
+	 */
+	private double[][] calcPrincipalAxes(double[][] centered)
+	{
+		int k = centered.length;
+		int n = centered[0].length;
+		double[][] product = new double[k][k];
+
+		for (int p = 0; p < k; p++)
+		{
+			for (int q = p; q < k; q++)
+			{
+				double sum = 0;
+
+				for (int i = 0; i < n; i++)
+				{
+					sum += centered[p][i] * centered[q][i];
+				}
+
+				product[p][q] = sum;
+				product[q][p] = sum;
+			}
+		}
+
+		double[][] axes = new double[2][k];
+
+		for (int d = 0; d < 2; d++)
+		{
+			double[] axis = axes[d];
+
+			for (int p = 0; p < k; p++)
+			{
+				axis[p] = this.random.nextDouble() - 0.5;
+			}
+
+			for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++)
+			{
+				double[] image = new double[k];
+
+				for (int p = 0; p < k; p++)
+				{
+					for (int q = 0; q < k; q++)
+					{
+						image[p] += product[p][q] * axis[q];
+					}
+				}
+
+				// the second axis is kept orthogonal to the first one
+				if (d == 1)
+				{
+					double projection = 0;
+
+					for (int p = 0; p < k; p++)
+					{
+						projection += image[p] * axes[0][p];
+					}
+
+					for (int p = 0; p < k; p++)
+					{
+						image[p] -= projection * axes[0][p];
+					}
+				}
+
+				double norm = 0;
+
+				for (int p = 0; p < k; p++)
+				{
+					norm += image[p] * image[p];
+				}
+
+				norm = Math.sqrt(norm);
+
+				if (norm == 0)
+				{
+					break;
+				}
+
+				for (int p = 0; p < k; p++)
+				{
+					axis[p] = image[p] / norm;
+				}
+			}
+		}
+
+		return axes;
+	}
+
+	/**
+	 * This method scales the given coordinates so that the distances of the
+	 * nodes to the pivots fit the given graph theoretic ones best, in the
+	 * least squares sense.
+	 */
+	private void scale(double[][] coordinates, int[] pivots,
+		double[][] distances)
+	{
+		double numerator = 0;
+		double denominator = 0;
+
+		for (int p = 0; p < pivots.length; p++)
+		{
+			double pivotX = coordinates[0][pivots[p]];
+			double pivotY = coordinates[1][pivots[p]];
+
+			for (int i = 0; i < distances[p].length; i++)
+			{
+				double distance = Math.hypot(coordinates[0][i] - pivotX,
+					coordinates[1][i] - pivotY);
+
+				numerator += distance * distances[p][i];
+				denominator += distance * distance;
+			}
+		}
+
+		if (denominator > 0)
+		{
+			double factor = numerator / denominator;
+
+			for (int d = 0; d < 2; d++)
+			{
+				for (int i = 0; i < coordinates[d].length; i++)
+				{
+					coordinates[d][i] *= factor;
+				}
+			}
+		}
+	}
+}
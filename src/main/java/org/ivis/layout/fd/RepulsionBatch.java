@@ -0,0 +1,176 @@
+package org.ivis.layout.fd;
+
+import java.util.Arrays;
+
+import org.ivis.util.IMath;
+
+/**
+ * This class calculates the repulsion forces between a node and a batch of
+ * leaf nodes of uniform size not overlapping it, based on the distances of
+ * node centers. Distances and weights of the batch are kept in contiguous
+ * arrays, and the forces are calculated in a loop free of branches and field
+ * accesses, which the JIT compiler can vectorize.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class RepulsionBatch
+{
+// -----------------------------------------------------------------------------
+// Section: Class constants
+// -----------------------------------------------------------------------------
+	private static final int INITIAL_CAPACITY = 64;
+
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Node whose repulsion with the batch is calculated
+	 */
+	private FDLayoutNode node;
+
+	/**
+	 * Nodes of the batch, along with their distances from the node above and
+	 * their weights
+	 */
+	private FDLayoutNode[] nodes;
+	private double[] distanceX;
+	private double[] distanceY;
+	private double[] weight;
+
+	/**
+	 * Repulsion forces on the nodes of the batch
+	 */
+	private double[] forceX;
+	private double[] forceY;
+
+	/**
+	 * Number of nodes in the batch
+	 */
+	private int size;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and initialization
+// -----------------------------------------------------------------------------
+	public RepulsionBatch()
+	{
+		this.nodes = new FDLayoutNode[INITIAL_CAPACITY];
+		this.distanceX = new double[INITIAL_CAPACITY];
+		this.distanceY = new double[INITIAL_CAPACITY];
+		this.weight = new double[INITIAL_CAPACITY];
+		this.forceX = new double[INITIAL_CAPACITY];
+		this.forceY = new double[INITIAL_CAPACITY];
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * This method empties the batch, to be filled with nodes repelling the
+	 * input node.
+	 */
+	public void clear(FDLayoutNode node)
+	{
+		this.node = node;
+		this.size = 0;
+	}
+
+	/**
+	 * This method adds the input node to the batch, growing the arrays if
+	 * needed.
+	 */
+	public void add(FDLayoutNode nodeB)
+	{
+		if (this.size == this.nodes.length)
+		{
+			int capacity = 2 * this.size;
+
+			this.nodes = Arrays.copyOf(this.nodes, capacity);
+			this.distanceX = Arrays.copyOf(this.distanceX, capacity);
+			this.distanceY = Arrays.copyOf(this.distanceY, capacity);
+			this.weight = Arrays.copyOf(this.weight, capacity);
+			this.forceX = new double[capacity];
+			this.forceY = new double[capacity];
+		}
+
+		double distanceX = nodeB.getCenterX() - this.node.getCenterX();
+		double distanceY = nodeB.getCenterY() - this.node.getCenterY();
+
+		// No repulsion range. FR grid variant should take care of this.
+		if (Math.abs(distanceX) < FDLayoutConstants.MIN_REPULSION_DIST)
+		{
+			distanceX = IMath.sign(distanceX) *
+				FDLayoutConstants.MIN_REPULSION_DIST;
+		}
+
+		if (Math.abs(distanceY) < FDLayoutConstants.MIN_REPULSION_DIST)
+		{
+			distanceY = IMath.sign(distanceY) *
+				FDLayoutConstants.MIN_REPULSION_DIST;
+		}
+
+		this.nodes[this.size] = nodeB;
+		this.distanceX[this.size] = distanceX;
+		this.distanceY[this.size] = distanceY;
+		this.weight[this.size] = nodeB.noOfChildren;
+		this.size++;
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Force calculation
+// -----------------------------------------------------------------------------
+	/**
+	 * This method calculates the repulsion forces between the node and the
+	 * nodes of the batch, and applies them on all of these nodes. The result
+	 * is that of FDLayout.calcRepulsionForce for each pair.
+	 */
+	public void calcForces(double repulsionConstant)
+	{
+		calcBatchForces(repulsionConstant * this.node.noOfChildren);
+
+		double totalForceX = 0.0;
+		double totalForceY = 0.0;
+
+		for (int i = 0; i < this.size; i++)
+		{
+			this.nodes[i].repulsionForceX += this.forceX[i];
+			this.nodes[i].repulsionForceY += this.forceY[i];
+			totalForceX += this.forceX[i];
+			totalForceY += this.forceY[i];
+		}
+
+		this.node.repulsionForceX -= totalForceX;
+		this.node.repulsionForceY -= totalForceY;
+	}
+
+	/**
+	 * This method calculates the repulsion forces on the nodes of the batch,
+	 * the weight of the node being included in the input constant. This is
+	 * the loop to be vectorized, so it should be kept free of branches and
+	 * method calls other than intrinsics.
+	 */
+	private void calcBatchForces(double constant)
+	{
+		double[] distanceX = this.distanceX;
+		double[] distanceY = this.distanceY;
+		double[] weight = this.weight;
+		double[] forceX = this.forceX;
+		double[] forceY = this.forceY;
+		int size = this.size;
+
+		for (int i = 0; i < size; i++)
+		{
+			double distanceSquared =
+				distanceX[i] * distanceX[i] + distanceY[i] * distanceY[i];
+			double force = constant * weight[i] /
+				(distanceSquared * Math.sqrt(distanceSquared));
+
+			forceX[i] = force * distanceX[i];
+			forceY[i] = force * distanceY[i];
+		}
+	}
+}
@@ -71,5 +71,12 @@ public class SbgnPDConstants extends CoSEConstants
 	public static final double ROTATION_180_DEGREE = 0.5;
 	public static int ROTATIONAL_FORCE_ITERATION_COUNT = 2;
 	public static final double ROTATIONAL_FORCE_CONVERGENCE = 1.0;
+	public static final double DEFAULT_PHASE2_MIN_GAIN = 0.01;
+	// stopping phase 2 on a plateau is off by default, as it may leave more
+	// edges of large maps improperly oriented
+	public static final int DEFAULT_PHASE2_PLATEAU_CHECK_COUNT = 0;
+	
+	// process count from which orientations are scored in parallel
+	public static final int PARALLEL_ENHANCEMENT_PROCESS_COUNT = 512;
 }
 
@@ -37,6 +37,7 @@ public class SbgnPDEdge extends CoSEEdge
 	{
 		setSource(edge.getSource());
 		setTarget(edge.getTarget());
+		vGraphObject = edge.vGraphObject;
 		label = edge.label;
 		type = edge.type;
 		correspondingAngle = edge.correspondingAngle;
@@ -1,18 +1,17 @@
 package org.ivis.layout.sbgn;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import org.ivis.layout.*;
 import org.ivis.layout.cose.CoSELayout;
-import org.ivis.layout.cose.CoSENode;
 import org.ivis.layout.fd.FDLayoutConstants;
 import org.ivis.layout.fd.FDLayoutEdge;
 import org.ivis.layout.fd.FDLayoutNode;
 import org.ivis.layout.sbgn.SbgnProcessNode.Orientation;
 import org.ivis.layout.util.MemberPack;
 import org.ivis.layout.util.RectProc;
-import org.ivis.util.IGeometry;
-import org.ivis.util.PointD;
+import org.ivis.util.FenwickTree;
 import org.ivis.util.RectangleD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +86,40 @@ public class SbgnPDLayout extends CoSELayout
 	 */
 	public int rotationRandomizationMethod;
 
+	/**
+	 * Maximum number of processes rotated at each rotation step. Processes
+	 * rotated at the same step do not share any neighbors.
+	 */
+	public int maxRotationsPerStep;
+
+	/**
+	 * Selection weights of the processes (in the order of processNodeList) at
+	 * the current rotation step, and the tree used to sample them
+	 */
+	private double[] rotationWeights;
+	private FenwickTree rotationTree;
+
+	/**
+	 * Minimum gain in the success ratio, or minimum relative decrease in the
+	 * forces acting on the nodes (total displacement per unit cooling), that
+	 * counts as progress during a convergence check period of phase 2.
+	 */
+	public double phase2MinGain;
+
+	/**
+	 * Phase 2 is stopped after this many consecutive convergence check
+	 * periods without progress; non-positive values disable this check.
+	 */
+	public int phase2PlateauCheckCount;
+
+	/**
+	 * Best values observed in phase 2 and the number of consecutive check
+	 * periods without improving them
+	 */
+	private double bestSuccessRatio;
+	private double bestResidualForce;
+	private int checksWithoutGain;
+
 	public ArrayList<SbgnProcessNode> processNodeList;
 
 	public double successRatio;
@@ -94,9 +127,20 @@ public class SbgnPDLayout extends CoSELayout
 	
 	public int totalEffCount;
 
+	/**
+	 * Orientations tried for each process during the final enhancement, in
+	 * the order of preference
+	 */
+	private static final Orientation[] ENHANCEMENT_ORIENTATIONS = {
+			Orientation.LEFT_TO_RIGHT, Orientation.RIGHT_TO_LEFT,
+			Orientation.TOP_TO_BOTTOM, Orientation.BOTTOM_TO_TOP };
+
 	public SbgnPDLayout()
 	{
 		rotationRandomizationMethod = 1;
+		maxRotationsPerStep = 1;
+		phase2MinGain = SbgnPDConstants.DEFAULT_PHASE2_MIN_GAIN;
+		phase2PlateauCheckCount = SbgnPDConstants.DEFAULT_PHASE2_PLATEAU_CHECK_COUNT;
 		enhancedRatio = 0;
 		totalEffCount = 0;
 		compactionMethod = DefaultCompactionAlgorithm.TILING;
@@ -109,6 +153,34 @@ public class SbgnPDLayout extends CoSELayout
 			memberPackMap = new HashMap<SbgnPDNode, MemberPack>();
 	}
 
+	/**
+	 * This method also discards the complexes, processes and statistics of a
+	 * previous run.
+	 */
+	@Override
+	public void reset()
+	{
+		super.reset();
+
+		childGraphMap.clear();
+		complexOrder.clear();
+		dummyComplexList.clear();
+		emptiedDummyComplexMap.clear();
+		processNodeList.clear();
+		if (memberPackMap != null)
+			memberPackMap.clear();
+
+		rotationWeights = null;
+		rotationTree = null;
+		properlyOrientedEdgeCount = 0;
+		totalEdgeCountToBeOriented = 0;
+		phase1IterationCount = 0;
+		phase2IterationCount = 0;
+		successRatio = 0;
+		enhancedRatio = 0;
+		totalEffCount = 0;
+	}
+
 	/**
 	 * This method performs the actual layout on the l-level compound
 	 * graph. An update() needs to be called for changes to be
@@ -193,6 +265,10 @@ public class SbgnPDLayout extends CoSELayout
 
 		totalIterations = 0;
 
+		bestSuccessRatio = Double.NEGATIVE_INFINITY;
+		bestResidualForce = Double.POSITIVE_INFINITY;
+		checksWithoutGain = 0;
+
 		do
 		{
 			totalIterations++;
@@ -207,6 +283,13 @@ public class SbgnPDLayout extends CoSELayout
 					break;
 				}
 
+				if (hasPhase2Plateaued())
+				{
+					log.info("Phase 2 stopped making progress at iteration "
+							+ totalIterations);
+					break;
+				}
+
 				coolingFactor = initialCoolingFactor * ((maxIterations - totalIterations) / (double) maxIterations);
 			}
 
@@ -227,6 +310,39 @@ public class SbgnPDLayout extends CoSELayout
 		graphManager.updateBounds();
 	}
 
+	/**
+	 * This method checks whether neither the success ratio nor the forces
+	 * acting on the nodes have improved by phase2MinGain for the last
+	 * phase2PlateauCheckCount convergence check periods.
+	 */
+	private boolean hasPhase2Plateaued()
+	{
+		if (phase2PlateauCheckCount <= 0 || coolingFactor <= 0)
+			return false;
+
+		double residualForce = totalDisplacement / coolingFactor;
+		boolean isImproved = false;
+
+		if (successRatio >= bestSuccessRatio + phase2MinGain)
+		{
+			bestSuccessRatio = successRatio;
+			isImproved = true;
+		}
+
+		if (residualForce <= bestResidualForce * (1 - phase2MinGain))
+		{
+			bestResidualForce = residualForce;
+			isImproved = true;
+		}
+
+		if (isImproved)
+			checksWithoutGain = 0;
+		else
+			checksWithoutGain++;
+
+		return checksWithoutGain >= phase2PlateauCheckCount;
+	}
+
 	@Override
 	public void moveNodes()
 	{
@@ -240,8 +356,23 @@ public class SbgnPDLayout extends CoSELayout
 				p.applyApproximations();
 		}
 
-		for (SbgnProcessNode p : processNodeList)
+		// each rotation step, processes that want to rotate are weighted
+		boolean isRotationStep = phaseNumber == 2
+				&& totalIterations
+						% SbgnPDConstants.ROTATIONAL_FORCE_ITERATION_COUNT == 0;
+		int rotationCandidateCount = 0;
+
+		if (isRotationStep && (rotationWeights == null
+				|| rotationWeights.length < processNodeList.size()))
+		{
+			rotationWeights = new double[processNodeList.size()];
+			rotationTree = new FenwickTree(processNodeList.size());
+		}
+
+		for (int i = 0; i < processNodeList.size(); i++)
 		{
+			SbgnProcessNode p = processNodeList.get(i);
+
 			// calculate rotational forces for phase 2 only
 			if (phaseNumber == 2)
 			{
@@ -252,6 +383,15 @@ public class SbgnPDLayout extends CoSELayout
 						+ p.productEdges.size() + p.effectorEdges.size());
 				successRatio = properlyOrientedEdgeCount
 						/ totalEdgeCountToBeOriented;
+
+				if (isRotationStep)
+				{
+					rotationWeights[i] = p.isRotationNecessary() ? calcRotationWeight(p)
+							: 0;
+
+					if (rotationWeights[i] > 0)
+						rotationCandidateCount++;
+				}
 			}
 			p.transferForces();
 
@@ -261,11 +401,8 @@ public class SbgnPDLayout extends CoSELayout
 
 		}
 
-		// each time, rotate one process that wants to rotate
-		if (totalIterations
-				% SbgnPDConstants.ROTATIONAL_FORCE_ITERATION_COUNT == 0
-				&& phaseNumber == 2)
-			rotateAProcess();
+		if (rotationCandidateCount > 0)
+			rotateProcesses();
 
 		super.moveNodes();
 	}
@@ -278,38 +415,98 @@ public class SbgnPDLayout extends CoSELayout
 			return false;
 	}
 
-	private void rotateAProcess()
+	/**
+	 * This method returns the weight of a process that wants to rotate, for it
+	 * to be selected for rotation. A process with higher netRotationalForce
+	 * has more chance to be rotated when roulette wheel selection is used.
+	 */
+	private double calcRotationWeight(SbgnProcessNode p)
 	{
-		ArrayList<SbgnProcessNode> processNodesToBeRotated = new ArrayList<SbgnProcessNode>();
-
-		for (SbgnProcessNode p : processNodeList)
+		if (rotationRandomizationMethod == 0)
 		{
-			if (p.isRotationNecessary())
-				processNodesToBeRotated.add(p);
+			double force = Math.abs(p.netRotationalForce);
+
+			// a process may want to swap its ports with no net force at all
+			if (force > 0 && force < Double.POSITIVE_INFINITY)
+				return force;
+			else
+				return Double.MIN_NORMAL;
 		}
 
-		// random selection
-		if (processNodesToBeRotated.size() > 0)
+		return 1;
+	}
+
+	/**
+	 * This method randomly selects (by the weights calculated in moveNodes)
+	 * and rotates processes that want to rotate, at most maxRotationsPerStep
+	 * of them, skipping the ones sharing a neighbor with a rotated process.
+	 */
+	private void rotateProcesses()
+	{
+		int processCount = processNodeList.size();
+		Set<LNode> rotatedNeighbors = null;
+		int rotatedCount = 0;
+
+		rotationTree.build(rotationWeights, processCount);
+
+		if (maxRotationsPerStep > 1)
+			rotatedNeighbors = new HashSet<LNode>();
+
+		while (rotatedCount < maxRotationsPerStep)
 		{
-			int randomIndex = 0;
+			double total = rotationTree.getTotal();
 
-			if (rotationRandomizationMethod == 0)
-			{
-				randomIndex = rouletteWheelSelection(processNodesToBeRotated);
-				if (randomIndex == -1)
-					log.error("ERROR: no nodes have been selected for rotation");
-			}
-			else
-			{
-				randomIndex = (int) (Math.random() * processNodesToBeRotated
-						.size());
-			}
+			if (!(total > 0))
+				break;
+
+			int index = rotationTree.find(Math.random() * total);
+
+			// only rounding errors remain in the tree
+			if (index == -1 || rotationWeights[index] == 0)
+				break;
+
+			rotationTree.add(index, -rotationWeights[index]);
+			rotationWeights[index] = 0;
+
+			SbgnProcessNode p = processNodeList.get(index);
+
+			if (rotatedNeighbors != null && !addNeighbors(p, rotatedNeighbors))
+				continue;
 
-			SbgnProcessNode p = processNodesToBeRotated.get(randomIndex);
 			p.applyRotation();
+			rotatedCount++;
 		}
 	}
 
+	/**
+	 * This method adds the nodes connected to the given process (through its
+	 * ports or as effectors) into the given set, unless any of them is
+	 * already there.
+	 *
+	 * @return true if the neighbors are added, false otherwise
+	 */
+	private boolean addNeighbors(SbgnProcessNode p, Set<LNode> neighbors)
+	{
+		for (SbgnPDEdge edge : p.consumptionEdges)
+			if (neighbors.contains(edge.getSource()))
+				return false;
+		for (SbgnPDEdge edge : p.productEdges)
+			if (neighbors.contains(edge.getTarget()))
+				return false;
+		for (SbgnPDEdge edge : p.effectorEdges)
+			if (neighbors.contains(edge.getSource()))
+				return false;
+
+		for (SbgnPDEdge edge : p.consumptionEdges)
+			neighbors.add(edge.getSource());
+		for (SbgnPDEdge edge : p.productEdges)
+			neighbors.add(edge.getTarget());
+		for (SbgnPDEdge edge : p.effectorEdges)
+			neighbors.add(edge.getSource());
+
+		return true;
+	}
+
 	/*
 	 * This method iterates over the process nodes and checks if there exists
 	 * another orientation which maximizes the total number of proper edges.
@@ -317,113 +514,51 @@ public class SbgnPDLayout extends CoSELayout
 	 */
 	private void finalEnhancement()
 	{
-		List<Orientation> orientationList;
-		double bestStepResult;
-		Orientation bestOrientation = null;
-		double stepAppropriateEdgeCnt = 0;
-		double totalProperEdges = 0;
-		double angle;
-
-		orientationList = new ArrayList<Orientation>();
-		orientationList.add(Orientation.LEFT_TO_RIGHT);
-		orientationList.add(Orientation.RIGHT_TO_LEFT);
-		orientationList.add(Orientation.TOP_TO_BOTTOM);
-		orientationList.add(Orientation.BOTTOM_TO_TOP);
+		final int processCount = processNodeList.size();
+		final int[] counts = new int[4 * processCount];
 
-		for (SbgnProcessNode p : processNodeList)
+		// scores only depend on current positions, so that processes can be
+		// scored independently of each other
+		if (processCount >= SbgnPDConstants.PARALLEL_ENHANCEMENT_PROCESS_COUNT)
 		{
-			bestStepResult = p.properEdgeCount;
-			bestOrientation = null;
-			List<Boolean> rememberPropList;
-			List<Boolean> bestPropList = new ArrayList<Boolean>();
-
-			for (Orientation orient : orientationList)
-			{
-				stepAppropriateEdgeCnt = 0;
-
-				PointD inputPortTarget = p.findPortTargetPoint(true, orient);
-				PointD outputPortTarget = p.findPortTargetPoint(false, orient);
-
-				rememberPropList = new ArrayList<Boolean>();
-
-				for (SbgnPDEdge edge : p.consumptionEdges)
-				{
-					SbgnPDNode node = (SbgnPDNode) edge.getSource();
-					angle = IGeometry.calculateAngle(inputPortTarget,
-							p.inputPort.getCenter(), node.getCenter());
-					if (angle <= SbgnPDConstants.ANGLE_TOLERANCE)
-					{
-						stepAppropriateEdgeCnt++;
-						rememberPropList.add(true);
-					}
-					else
-						rememberPropList.add(false);
-				}
-
-				for (SbgnPDEdge edge : p.productEdges)
-				{
-					SbgnPDNode node = (SbgnPDNode) edge.getTarget();
-					angle = IGeometry.calculateAngle(outputPortTarget,
-							p.outputPort.getCenter(), node.getCenter());
-
-					if (angle <= SbgnPDConstants.ANGLE_TOLERANCE)
-					{
-						stepAppropriateEdgeCnt++;
-						rememberPropList.add(true);
-
-					}
-					else
-						rememberPropList.add(false);
-				}
+			IntStream.range(0, processCount).parallel().forEach(
+				i -> processNodeList.get(i).countProperlyOrientedEdges(counts,
+					4 * i));
+		}
+		else
+		{
+			for (int i = 0; i < processCount; i++)
+				processNodeList.get(i).countProperlyOrientedEdges(counts, 4 * i);
+		}
 
-				for (SbgnPDEdge edge : p.effectorEdges)
-				{
-					SbgnPDNode node = (SbgnPDNode) edge.getSource();
-					angle = calcEffectorAngle(orient, p.getCenter(), node);
+		double totalProperEdges = 0;
 
-					if (angle <= SbgnPDConstants.EFFECTOR_ANGLE_TOLERANCE)
-					{
-						stepAppropriateEdgeCnt++;
-						rememberPropList.add(true);
+		for (int i = 0; i < processCount; i++)
+		{
+			SbgnProcessNode p = processNodeList.get(i);
+			double bestStepResult = p.properEdgeCount;
+			Orientation bestOrientation = null;
 
-					}
-					else
-						rememberPropList.add(false);
-				}
+			for (Orientation orient : ENHANCEMENT_ORIENTATIONS)
+			{
+				int stepAppropriateEdgeCnt = counts[4 * i + orient.ordinal()];
 
 				if (stepAppropriateEdgeCnt > bestStepResult)
 				{
 					bestStepResult = stepAppropriateEdgeCnt;
 					bestOrientation = orient;
-					bestPropList = rememberPropList;
 				}
 			}
 			totalProperEdges += bestStepResult;
 
 			// it means a better position has been found
-			if (bestStepResult > p.properEdgeCount)
+			if (bestOrientation != null)
 			{
+				// mark edges with best known configuration values (before the
+				// ports are moved, as they were scored)
+				p.markProperlyOrientedEdges(bestOrientation);
 				p.setOrientation(bestOrientation);
 				p.properEdgeCount = bestStepResult;
-
-				// mark edges with best known configuration values
-				for (int i = 0; i < p.consumptionEdges.size(); i++)
-				{
-					p.consumptionEdges.get(i).isProperlyOriented = bestPropList
-							.get(i);
-				}
-				for (int i = 0; i < p.productEdges.size(); i++)
-				{
-					p.productEdges.get(i).isProperlyOriented = bestPropList
-							.get(i + p.consumptionEdges.size());
-				}
-				for (int i = 0; i < p.effectorEdges.size(); i++)
-				{
-					p.effectorEdges.get(i).isProperlyOriented = bestPropList
-							.get(i
-									+ (p.consumptionEdges.size() + p.productEdges
-											.size()));
-				}
 			}
 		}
 
@@ -437,97 +572,34 @@ public class SbgnPDLayout extends CoSELayout
 	}
 
 	/**
-	 * If a process node has higher netRotationalForce, it has more chance to be
-	 * rotated
+	 * Calculates the degree of the subtree rooted at each node of the given
+	 * graph in a single post-order pass and saves it to the node. The degree
+	 * of a leaf is its number of edges, whereas each member of a compound node
+	 * contributes its own degree plus the number of edges of the compound.
 	 */
-	private int rouletteWheelSelection(
-			ArrayList<SbgnProcessNode> processNodesToBeRotated)
+	private void calcSubtreeDegrees(LGraph graph)
 	{
-		double randomNumber = Math.random();
-		double[] fitnessValues = new double[processNodesToBeRotated.size()];
-		double totalSum = 0, sumOfProbabilities = 0;
-		int i = 0;
-
-		for (SbgnProcessNode p : processNodesToBeRotated)
-			totalSum += Math.abs(p.netRotationalForce);
-
-		// normalize all between 0..1
-		for (SbgnProcessNode p : processNodesToBeRotated)
+		for (Object o : graph.getNodes())
 		{
-			fitnessValues[i] = sumOfProbabilities
-					+ (Math.abs(p.netRotationalForce) / totalSum);
-			sumOfProbabilities = fitnessValues[i];
-			i++;
-		}
+			SbgnPDNode node = (SbgnPDNode) o;
+			LGraph childGraph = node.getChild();
 
-		if (randomNumber < fitnessValues[0])
-			return 0;
-		else
-		{
-			for (int j = 0; j < fitnessValues.length - 1; j++)
+			if (childGraph == null)
 			{
-				if (randomNumber >= fitnessValues[j]
-						&& randomNumber < fitnessValues[j + 1])
-					return j + 1;
+				node.subtreeDegree = node.getEdges().size();
+				continue;
 			}
-		}
-
-		return -1;
-	}
 
-	private double calcEffectorAngle(Orientation orient, PointD centerPt, CoSENode eff)
-	{
-		PointD targetPnt = new PointD();
-		PointD centerPnt = centerPt;
-
-		// find target point
-		if (orient.equals(Orientation.LEFT_TO_RIGHT)
-				|| orient.equals(Orientation.RIGHT_TO_LEFT))
-		{
-			targetPnt.x = centerPnt.x;
-
-			if (eff.getCenterY() > centerPnt.y)
-				targetPnt.y = centerPnt.y + idealEdgeLength;
-			else
-				targetPnt.y = centerPnt.y - idealEdgeLength;
-		}
-		else if (orient.equals(Orientation.BOTTOM_TO_TOP)
-				|| orient.equals(Orientation.TOP_TO_BOTTOM))
-		{
-			targetPnt.y = centerPnt.y;
+			calcSubtreeDegrees(childGraph);
 
-			if (eff.getCenterX() > centerPnt.x)
-				targetPnt.x = centerPnt.x + idealEdgeLength;
-			else
-				targetPnt.x = centerPnt.x - idealEdgeLength;
+			int degree = 0;
+			for (Object child : childGraph.getNodes())
+			{
+				degree = degree + node.getEdges().size()
+						+ ((SbgnPDNode) child).subtreeDegree;
+			}
+			node.subtreeDegree = degree;
 		}
-
-		double angle = IGeometry.calculateAngle(targetPnt, centerPnt,
-				eff.getCenter());
-
-		return angle;
-	}
-
-	/**
-	 * Recursively calculate if the node or its child nodes have any edges to
-	 * other nodes. Return the total number of edges.
-	 */
-	private int calcGraphDegree(SbgnPDNode parentNode)
-	{
-		int degree = 0;
-		if (parentNode.getChild() == null)
-		{
-			degree = parentNode.getEdges().size();
-			return degree;
-		}
-
-		for (Object o : parentNode.getChild().getNodes())
-		{
-			degree = degree + parentNode.getEdges().size()
-					+ calcGraphDegree((SbgnPDNode) o);
-		}
-
-		return degree;
 	}
 
 	private void recalcProperlyOrientedEdges(boolean isLastIteration)
@@ -554,6 +626,8 @@ public class SbgnPDLayout extends CoSELayout
 	 */
 	private void groupZeroDegreeMembers()
 	{
+		calcSubtreeDegrees(getGraphManager().getRoot());
+
 		Map<SbgnPDNode, LGraph> childComplexMap = new HashMap<SbgnPDNode, LGraph>();
 		for (Object graphObj : getGraphManager().getGraphs())
 		{
@@ -569,7 +643,7 @@ public class SbgnPDLayout extends CoSELayout
 			{
 				SbgnPDNode node = (SbgnPDNode) nodeObj;
 
-				if (calcGraphDegree(node) == 0)
+				if (node.subtreeDegree == 0)
 				{
 					zeroDegreeNodes.add(node);
 				}
@@ -604,79 +678,109 @@ public class SbgnPDLayout extends CoSELayout
 
 	/**
 	 * This method creates two port nodes and a compound for each process nodes
-	 * and adds them to graph.
+	 * and adds them to graph. Process nodes are collected first and converted
+	 * in a single pass; removed nodes and edges are filtered out of the
+	 * affected lists, and bounds and caches are updated, only once at the end.
 	 */
 	private void createPortNodes()
 	{
+		ArrayList<SbgnPDNode> originalProcessNodes = new ArrayList<SbgnPDNode>();
+
 		for (Object o : getAllNodes())
 		{
-			SbgnPDNode originalProcessNode = (SbgnPDNode) o;
-
-			if (originalProcessNode.type.equals(SbgnPDConstants.PROCESS))
-			{
-				LGraph ownerGraph = originalProcessNode.getOwner();
-
-				// create new nodes and graphs
-				SbgnProcessNode processNode = (SbgnProcessNode) newProcessNode(null);
-				SbgnPDNode inputPort = (SbgnPDNode) newPortNode(null,
-						SbgnPDConstants.INPUT_PORT);
-				SbgnPDNode outputPort = (SbgnPDNode) newPortNode(null,
-						SbgnPDConstants.OUTPUT_PORT);
-
-				// create a dummy compound
-				SbgnPDNode compoundNode = (SbgnPDNode) newNode(null);
-				compoundNode.type = SbgnPDConstants.DUMMY_COMPOUND;
-
-				// add labels
-				compoundNode.label = "DummyCompound_"
-						+ originalProcessNode.label;
-				inputPort.label = "InputPort_" + originalProcessNode.label;
-				outputPort.label = "OutputPort_" + originalProcessNode.label;
-
-				// create child graph (= 2port+process) to be set as child to
-				// dummy compound
-				LGraph childGraph = newGraph(null);
-				ownerGraph.add(processNode);
-
-				// convert the process node to SbgnProcessNode
-				processNode.copyFromSBGNPDNode(originalProcessNode,
-						getGraphManager());
+			SbgnPDNode node = (SbgnPDNode) o;
 
-				processNode.connectNodes(compoundNode, inputPort, outputPort);
-
-				// create rigid edges, change edge connections
-				processNode.reconnectEdges(idealEdgeLength);
-
-				SbgnPDEdge rigidToProduction = (SbgnPDEdge) newRigidEdge(null);
-				rigidToProduction.label = ""
-						+ (graphManager.getAllEdges().length + 1);
-
-				SbgnPDEdge rigidToConsumption = (SbgnPDEdge) newRigidEdge(null);
-				rigidToConsumption.label = ""
-						+ (graphManager.getAllEdges().length + 2);
-
-				ownerGraph.remove(processNode);
+			if (SbgnPDConstants.PROCESS.equals(node.type))
+				originalProcessNodes.add(node);
+		}
 
-				// organize child graph
-				childGraph.add(processNode);
-				childGraph.add(inputPort);
-				childGraph.add(outputPort);
-				childGraph.add(rigidToProduction, inputPort, processNode);
-				childGraph.add(rigidToConsumption, outputPort, processNode);
+		// nodes and edges removed from their owner graphs (or from the list of
+		// inter-graph edges) during the pass
+		Set<LGraphObject> removedObjects = new HashSet<LGraphObject>();
+		Set<LGraph> ownerGraphs = new LinkedHashSet<LGraph>();
 
-				// organize the compound node
-				compoundNode.setOwner(ownerGraph);
-				compoundNode.setCenter(processNode.getCenterX(),
-						processNode.getCenterY());
-				ownerGraph.add(compoundNode);
-				graphManager.add(childGraph, compoundNode);
+		int edgeCount = graphManager.getAllEdges().length;
 
-				// remove the original process node
-				ownerGraph.remove(originalProcessNode);
+		for (SbgnPDNode originalProcessNode : originalProcessNodes)
+		{
+			LGraph ownerGraph = originalProcessNode.getOwner();
+			ownerGraphs.add(ownerGraph);
+
+			// create new nodes and graphs
+			SbgnProcessNode processNode = (SbgnProcessNode) newProcessNode(null);
+			SbgnPDNode inputPort = (SbgnPDNode) newPortNode(null,
+					SbgnPDConstants.INPUT_PORT);
+			SbgnPDNode outputPort = (SbgnPDNode) newPortNode(null,
+					SbgnPDConstants.OUTPUT_PORT);
+
+			// create a dummy compound
+			SbgnPDNode compoundNode = (SbgnPDNode) newNode(null);
+			compoundNode.type = SbgnPDConstants.DUMMY_COMPOUND;
+
+			// add labels
+			compoundNode.label = "DummyCompound_" + originalProcessNode.label;
+			inputPort.label = "InputPort_" + originalProcessNode.label;
+			outputPort.label = "OutputPort_" + originalProcessNode.label;
+
+			// create child graph (= 2port+process) to be set as child to
+			// dummy compound
+			LGraph childGraph = newGraph(null);
+			ownerGraph.add(processNode);
+
+			// convert the process node to SbgnProcessNode
+			processNode.copyFromSBGNPDNode(originalProcessNode,
+					getGraphManager());
+
+			processNode.connectNodes(compoundNode, inputPort, outputPort);
+
+			// create rigid edges, change edge connections
+			processNode.reconnectEdges(idealEdgeLength);
+
+			SbgnPDEdge rigidToProduction = (SbgnPDEdge) newRigidEdge(null);
+			rigidToProduction.label = "" + (++edgeCount);
+
+			SbgnPDEdge rigidToConsumption = (SbgnPDEdge) newRigidEdge(null);
+			rigidToConsumption.label = "" + (++edgeCount);
+
+			// edges that are not reconnected are removed with the process
+			// node from the owner graph
+			detachEdges(processNode, removedObjects);
+			removedObjects.add(processNode);
+
+			// organize child graph
+			childGraph.add(processNode);
+			childGraph.add(inputPort);
+			childGraph.add(outputPort);
+			childGraph.add(rigidToProduction, inputPort, processNode);
+			childGraph.add(rigidToConsumption, outputPort, processNode);
+
+			// organize the compound node
+			compoundNode.setOwner(ownerGraph);
+			compoundNode.setCenter(processNode.getCenterX(),
+					processNode.getCenterY());
+			ownerGraph.add(compoundNode);
+			graphManager.add(childGraph, compoundNode);
+
+			// remove the original process node
+			detachEdges(originalProcessNode, removedObjects);
+			removedObjects.add(originalProcessNode);
+
+			processNodeList.add(processNode);
+		}
 
-				processNodeList.add(processNode);
-				graphManager.updateBounds();
+		if (!removedObjects.isEmpty())
+		{
+			for (LGraph ownerGraph : ownerGraphs)
+			{
+				List<?> nodes = ownerGraph.getNodes();
+				List<?> edges = ownerGraph.getEdges();
+				nodes.removeAll(removedObjects);
+				edges.removeAll(removedObjects);
 			}
+
+			List<?> interGraphEdges = graphManager.getInterGraphEdges();
+			interGraphEdges.removeAll(removedObjects);
+			graphManager.updateBounds();
 		}
 
 		// important to reset -
@@ -685,6 +789,27 @@ public class SbgnPDLayout extends CoSELayout
 		graphManager.resetAllNodesToApplyGravitation();
 	}
 
+	/**
+	 * This method removes the incident edges of the given node from the
+	 * incidency lists of both of their ends, and marks them (to be removed
+	 * from the edge lists of their graphs) by adding them into the given set.
+	 */
+	private void detachEdges(LNode node, Set<LGraphObject> removedObjects)
+	{
+		for (Object o : node.getEdges())
+		{
+			LEdge edge = (LEdge) o;
+			LNode otherEnd = edge.getOtherEnd(node);
+
+			if (otherEnd != node)
+				otherEnd.getEdges().remove(edge);
+
+			removedObjects.add(edge);
+		}
+
+		node.getEdges().clear();
+	}
+
 	/*
 	 * Checks whether there exist process nodes in the graph.
 	 * If there are, it is assumed that the given graph respects our structure.
@@ -1026,7 +1151,7 @@ public class SbgnPDLayout extends CoSELayout
 		}
 		if (graphManager.getGraphs().contains(comp.getChild()))
 		{
-			if (calcGraphDegree(comp) == 0)
+			if (comp.subtreeDegree == 0)
 			{
 				emptiedDummyComplexMap.put(comp, comp.getChild());
 
@@ -1234,8 +1359,12 @@ public class SbgnPDLayout extends CoSELayout
 			{
 				positionNodesRadially(forest);
 			}
-			else
+			else if (usePivotMdsPlacement)
 			// The graph associated with this layout is not flat or a forest
+			{
+				positionNodesByPivotMDS();
+			}
+			else
 			{
 				positionNodesRandomly();
 			}
@@ -1247,6 +1376,7 @@ public class SbgnPDLayout extends CoSELayout
 
 		calculateNodesToApplyGravitationTo();
 		calcNoOfChildrenForAllNodes();
+		resolveTypeFlagsOfAllNodes();
 
 		initSpringEmbedder();
 		runSpringEmbedder();
@@ -1263,178 +1393,42 @@ public class SbgnPDLayout extends CoSELayout
 
 	@Override
 	/**
-	 * This method calculates the spring forces for the ends of each node.
 	 * Modification: do not calculate spring force for rigid edges
 	 */
-	public void calcSpringForces()
+	public boolean appliesSpringForce(FDLayoutEdge edge)
 	{
-		Object[] lEdges = getAllEdges();
-		FDLayoutEdge edge;
-
-		for (int i = 0; i < lEdges.length; i++)
-		{
-			edge = (FDLayoutEdge) lEdges[i];
-
-			if (!SbgnPDConstants.RIGID_EDGE.equals(edge.type))
-				calcSpringForce(edge, edge.idealLength);
-		}
+		return super.appliesSpringForce(edge) &&
+			!SbgnPDConstants.RIGID_EDGE.equals(edge.type);
 	}
 
 	@Override
-	/**	 
-	 * This method calculates the repulsion forces for each pair of nodes.
-	 * Modification: Do not calculate repulsion for port & process nodes
+	/**
+	 * Modification: Do not calculate repulsion for port nodes (with nodes
+	 * having a type). Type flags of the nodes should have been resolved.
 	 */
-	public void calcRepulsionForces()
+	public boolean appliesRepulsionForce(FDLayoutNode nodeA, FDLayoutNode nodeB)
 	{
-		int i, j;
-		FDLayoutNode nodeA, nodeB;
-		Object[] lNodes = getAllNodes();
-		HashSet<FDLayoutNode> processedNodeSet;
+		int flagsA = ((SbgnPDNode) nodeA).typeFlags;
+		int flagsB = ((SbgnPDNode) nodeB).typeFlags;
 
-		if (useFRGridVariant)
+		if ((flagsA & flagsB & SbgnPDNode.TYPED) != 0 &&
+			((flagsA | flagsB) & SbgnPDNode.PORT) != 0)
 		{
-			// grid is a vector matrix that holds CoSENodes.
-			// be sure to convert the Object type to CoSENode.
-			if (totalIterations % FDLayoutConstants.GRID_CALCULATION_CHECK_PERIOD == 1)
-			{
-				grid = calcGrid(graphManager.getRoot());
-
-				// put all nodes to proper grid cells
-				for (i = 0; i < lNodes.length; i++)
-				{
-					nodeA = (FDLayoutNode) lNodes[i];
-					addNodeToGrid(nodeA, grid, graphManager.getRoot().getLeft(), graphManager.getRoot().getTop());
-				}
-			}
-
-			processedNodeSet = new HashSet<FDLayoutNode>();
-
-			// calculate repulsion forces between each nodes and its surrounding
-			for (i = 0; i < lNodes.length; i++)
-			{
-				nodeA = (FDLayoutNode) lNodes[i];
-				calculateRepulsionForceOfANode(grid, nodeA,
-						processedNodeSet);
-				processedNodeSet.add(nodeA);
-			}
+			return false;
 		}
-		else
-		{
-			for (i = 0; i < lNodes.length; i++)
-			{
-				nodeA = (FDLayoutNode) lNodes[i];
-
-				for (j = i + 1; j < lNodes.length; j++)
-				{
-					nodeB = (FDLayoutNode) lNodes[j];
-
-					// If both nodes are not members of the same graph, skip.
-					if (nodeA.getOwner() != nodeB.getOwner())
-					{
-						continue;
-					}
-
-					if (nodeA.type != null
-							&& nodeB.type != null
-							&& nodeA.getOwner().equals(nodeB.getOwner())
-							&& (nodeA.type.equals(SbgnPDConstants.INPUT_PORT)
-									|| nodeA.type
-											.equals(SbgnPDConstants.OUTPUT_PORT)
-									|| nodeB.type
-											.equals(SbgnPDConstants.INPUT_PORT) || nodeB.type
-										.equals(SbgnPDConstants.OUTPUT_PORT)))
-					{
-						continue;
-					}
 
-					calcRepulsionForce(nodeA, nodeB);
-				}
-			}
-		}
+		return super.appliesRepulsionForce(nodeA, nodeB);
 	}
 
-	@Override
 	/**
-	 * This method finds surrounding nodes of nodeA in repulsion range.
-	 * And calculates the repulsion forces between nodeA and its surrounding.
-	 * During the calculation, ignores the nodes that have already been processed.
-	 * Modification: Do not calculate repulsion for port & process nodes
+	 * This method resolves the type flags of all nodes, once their types are
+	 * final for the spring embedder.
 	 */
-	protected void calculateRepulsionForceOfANode(Vector[][] grid,
-			FDLayoutNode nodeA, HashSet<FDLayoutNode> processedNodeSet)
+	private void resolveTypeFlagsOfAllNodes()
 	{
-		int i, j;
-
-		if (totalIterations % FDLayoutConstants.GRID_CALCULATION_CHECK_PERIOD == 1)
+		for (Object obj : getAllNodes())
 		{
-			HashSet<Object> surrounding = new HashSet<Object>();
-			FDLayoutNode nodeB;
-
-			for (i = (nodeA.startX - 1); i < (nodeA.finishX + 2); i++)
-			{
-				for (j = (nodeA.startY - 1); j < (nodeA.finishY + 2); j++)
-				{
-					if (!((i < 0) || (j < 0) || (i >= grid.length) || (j >= grid[0].length)))
-					{
-						for (Object obj : grid[i][j])
-						{
-							nodeB = (FDLayoutNode) obj;
-
-							// If both nodes are not members of the same graph,
-							// or both nodes are the same, skip.
-							if ((nodeA.getOwner() != nodeB.getOwner())
-									|| (nodeA == nodeB))
-							{
-								continue;
-							}
-
-							if (nodeA.type != null
-									&& nodeB.type != null
-									&& nodeA.getOwner()
-											.equals(nodeB.getOwner())
-									&& (nodeA.type
-											.equals(SbgnPDConstants.INPUT_PORT)
-											|| nodeA.type
-													.equals(SbgnPDConstants.OUTPUT_PORT)
-											|| nodeB.type
-													.equals(SbgnPDConstants.INPUT_PORT) || nodeB.type
-												.equals(SbgnPDConstants.OUTPUT_PORT)))
-							{
-								continue;
-							}
-
-							// check if the repulsion force between
-							// nodeA and nodeB has already been calculated
-							if (!processedNodeSet.contains(nodeB)
-									&& !surrounding.contains(nodeB))
-							{
-								double distanceX = Math.abs(nodeA.getCenterX()
-										- nodeB.getCenterX())
-										- ((nodeA.getWidth() / 2) + (nodeB.getWidth() / 2));
-								double distanceY = Math.abs(nodeA.getCenterY()
-										- nodeB.getCenterY())
-										- ((nodeA.getHeight() / 2) + (nodeB.getHeight() / 2));
-
-								// if the distance between nodeA and nodeB
-								// is less then calculation range
-								if ((distanceX <= repulsionRange)
-										&& (distanceY <= repulsionRange))
-								{
-									// then add nodeB to surrounding of nodeA
-									surrounding.add(nodeB);
-								}
-							}
-
-						}
-					}
-				}
-			}
-			nodeA.surrounding = surrounding.toArray();
-		}
-
-		for (i = 0; i < nodeA.surrounding.length; i++) {
-			calcRepulsionForce(nodeA, (FDLayoutNode) nodeA.surrounding[i]);
+			((SbgnPDNode) obj).resolveTypeFlags();
 		}
 	}
 
@@ -17,6 +17,19 @@ import org.ivis.util.PointD;
  */
 public class SbgnPDNode extends CoSENode
 {
+	/**
+	 * Flags of typeFlags: whether this node has a type, and whether it is an
+	 * input or output port
+	 */
+	public static final int TYPED = 1;
+	public static final int PORT = 2;
+
+	/**
+	 * Flags resolved from the type of this node by resolveTypeFlags, so that
+	 * the type is not compared in each iteration of the layout
+	 */
+	public int typeFlags;
+
 	/**
 	 * This parameter is used in DFS to find ordering of the complex members.
 	 */
@@ -27,6 +40,12 @@ public class SbgnPDNode extends CoSENode
 	 */
 	public boolean isDummyCompound;
 
+	/**
+	 * Degree of the subtree rooted at this node, saved by the layout before
+	 * zero degree members are grouped.
+	 */
+	public int subtreeDegree;
+
 	/**
 	 * Constructor
 	 */
@@ -52,6 +71,7 @@ public class SbgnPDNode extends CoSENode
 
 	public void copyNode(SbgnPDNode s, LGraphManager graphManager)
 	{
+		this.vGraphObject = s.vGraphObject;
 		this.type = s.type;
 		this.label = s.label;
 		this.setCenter(s.getCenterX(), s.getCenterY());
@@ -84,6 +104,26 @@ public class SbgnPDNode extends CoSENode
 	{
 		return SbgnPDConstants.OUTPUT_PORT.equalsIgnoreCase(type);
 	}
+
+	/**
+	 * This method sets the type flags of this node from its type. It should
+	 * be called again whenever the type changes.
+	 */
+	public void resolveTypeFlags()
+	{
+		this.typeFlags = 0;
+
+		if (this.type != null)
+		{
+			this.typeFlags |= TYPED;
+
+			if (this.type.equals(SbgnPDConstants.INPUT_PORT) ||
+				this.type.equals(SbgnPDConstants.OUTPUT_PORT))
+			{
+				this.typeFlags |= PORT;
+			}
+		}
+	}
 	
 		
 
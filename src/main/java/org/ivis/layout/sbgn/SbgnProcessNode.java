@@ -46,6 +46,30 @@ public class SbgnProcessNode extends SbgnPDNode
 	 */
 	public double properEdgeCount;
 
+	/**
+	 * Unit vectors from the input port towards the ideal position of its
+	 * consumption nodes, indexed by orientation ordinal. Products are ideally
+	 * placed in the opposite direction from the output port.
+	 */
+	private static final double[] INPUT_DIRECTION_X = { 0, 0, -1, 1 };
+	private static final double[] INPUT_DIRECTION_Y = { 1, -1, 0, 0 };
+
+	/**
+	 * Sign of the rotational force of a consumption node making a left turn
+	 * (see isLeft), indexed by orientation ordinal. It is reversed for product
+	 * nodes.
+	 */
+	private static final int[] INPUT_LEFT_TURN_SIGN = { 1, -1, 1, -1 };
+
+	/**
+	 * Cosines of the angle tolerances, so that an edge can be checked for
+	 * proper orientation without calculating its angle
+	 */
+	private static final double COS_ANGLE_TOLERANCE = Math.cos(Math
+			.toRadians(SbgnPDConstants.ANGLE_TOLERANCE));
+	private static final double COS_EFFECTOR_ANGLE_TOLERANCE = Math.cos(Math
+			.toRadians(SbgnPDConstants.EFFECTOR_ANGLE_TOLERANCE));
+
 	public SbgnProcessNode(LGraphManager gm, Object vNode)
 	{
 		super(gm, vNode);
@@ -300,20 +324,18 @@ public class SbgnProcessNode extends SbgnPDNode
 		if (consumptionEdges.size() == 0 && productEdges.size() == 0)
 			initLists();
 
-		// find ideal positions
-		PointD inputPortTarget = findPortTargetPoint(true, this.orientation);
-		PointD outputPortTarget = findPortTargetPoint(false, this.orientation);
+		int orient = this.orientation.ordinal();
 
 		for (int nodeIndex = 0; nodeIndex < consumptionEdges.size(); nodeIndex++)
 		{
-			result = calcRotationalForce(true, nodeIndex, inputPortTarget);
+			result = calcRotationalForce(true, nodeIndex, orient);
 			if (Math.abs(result) <= SbgnPDConstants.ANGLE_TOLERANCE)
 				this.properEdgeCount++;
 			inputRotSum += result;
 		}
 		for (int nodeIndex = 0; nodeIndex < productEdges.size(); nodeIndex++)
 		{
-			result = calcRotationalForce(false, nodeIndex, outputPortTarget);
+			result = calcRotationalForce(false, nodeIndex, orient);
 			if (Math.abs(result) <= SbgnPDConstants.ANGLE_TOLERANCE)
 				this.properEdgeCount++;
 			outputRotSum += result;
@@ -343,31 +365,38 @@ public class SbgnProcessNode extends SbgnPDNode
 	 * port and the target point.
 	 */
 	private double calcRotationalForce(boolean isInputPort, int nodeIndex,
-			PointD targetPoint)
+			int orient)
 	{
-		SbgnPDNode node;
-		PointD centerPoint;
+		LNode node;
+		LNode port;
+		double dirX = INPUT_DIRECTION_X[orient];
+		double dirY = INPUT_DIRECTION_Y[orient];
+		int leftTurnSign = INPUT_LEFT_TURN_SIGN[orient];
 
 		if (isInputPort)
 		{
-			node = (SbgnPDNode) consumptionEdges.get(nodeIndex).getSource();
-			centerPoint = inputPort.getCenter();
+			node = consumptionEdges.get(nodeIndex).getSource();
+			port = inputPort;
 		}
 		else
 		{
-			node = (SbgnPDNode) productEdges.get(nodeIndex).getTarget();
-			centerPoint = outputPort.getCenter();
+			node = productEdges.get(nodeIndex).getTarget();
+			port = outputPort;
+			dirX = -dirX;
+			dirY = -dirY;
+			leftTurnSign = -leftTurnSign;
 		}
 
-		double angle = IGeometry.calculateAngle(targetPoint, centerPoint,
-				node.getCenter());
+		double vx = node.getCenterX() - port.getCenterX();
+		double vy = node.getCenterY() - port.getCenterY();
+		double angle = calcAngle(dirX, dirY, vx, vy);
 
-		if (isInputPort)
-			angle *= isLeft(targetPoint, centerPoint, node.getCenter(),
-					SbgnPDConstants.INPUT_PORT);
+		// the path from the target point through the port to the node makes a
+		// left turn iff the node is on the right of the ideal direction
+		if (dirX * vy - dirY * vx < 0)
+			angle *= leftTurnSign;
 		else
-			angle *= isLeft(targetPoint, centerPoint, node.getCenter(),
-					SbgnPDConstants.OUTPUT_PORT);
+			angle *= -leftTurnSign;
 
 		saveInformation(isInputPort, nodeIndex, angle);
 
@@ -381,41 +410,165 @@ public class SbgnProcessNode extends SbgnPDNode
 	 */
 	private double calcEffectorAngle(int nodeIndex)
 	{
-		SbgnPDNode eff = (SbgnPDNode) effectorEdges.get(nodeIndex).getSource();
-		PointD targetPnt = new PointD();
-		PointD centerPnt = this.getCenter();
+		LNode eff = effectorEdges.get(nodeIndex).getSource();
+		double vx = eff.getCenterX() - this.getCenterX();
+		double vy = eff.getCenterY() - this.getCenterY();
+		double angle;
 
-		// find target point
+		// ideal direction is perpendicular to the orientation of the process,
+		// towards the side of the effector
 		if (this.isHorizontal())
+			angle = calcAngle(0, vy > 0 ? 1 : -1, vx, vy);
+		else
+			angle = calcAngle(vx > 0 ? 1 : -1, 0, vx, vy);
+
+		effectorEdges.get(nodeIndex).correspondingAngle = (int) angle;
+
+		if (Math.abs(angle) <= SbgnPDConstants.EFFECTOR_ANGLE_TOLERANCE)
+			effectorEdges.get(nodeIndex).isProperlyOriented = true;
+		else
+			effectorEdges.get(nodeIndex).isProperlyOriented = false;
+
+		return angle;
+	}
+
+	/**
+	 * This method counts the properly oriented edges of this process for each
+	 * of the four orientations, with the ports kept at their current places,
+	 * in a single pass over the edges. The counts are written into the given
+	 * array starting from the given offset, in the order of orientation
+	 * ordinals. Only the cosines of the angles are compared, and nothing is
+	 * allocated or modified, so that processes may be scored in parallel.
+	 */
+	public void countProperlyOrientedEdges(int[] counts, int offset)
+	{
+		counts[offset] = 0;
+		counts[offset + 1] = 0;
+		counts[offset + 2] = 0;
+		counts[offset + 3] = 0;
+
+		countPortEdges(consumptionEdges, true, counts, offset);
+		countPortEdges(productEdges, false, counts, offset);
+
+		double centerX = this.getCenterX();
+		double centerY = this.getCenterY();
+
+		for (int i = 0; i < effectorEdges.size(); i++)
 		{
-			targetPnt.x = this.getCenterX();
+			LNode eff = effectorEdges.get(i).getSource();
+			double vx = eff.getCenterX() - centerX;
+			double vy = eff.getCenterY() - centerY;
+			double threshold = COS_EFFECTOR_ANGLE_TOLERANCE
+					* Math.sqrt(vx * vx + vy * vy);
 
-			if (eff.getCenterY() > this.getCenterY())
-				targetPnt.y = this.getCenterY() + this.idealEdgeLength;
-			else
-				targetPnt.y = this.getCenterY() - this.idealEdgeLength;
+			if (threshold == 0)
+				continue;
+
+			// horizontal orientations ask for an effector above or below
+			if (Math.abs(vy) >= threshold)
+			{
+				counts[offset + Orientation.LEFT_TO_RIGHT.ordinal()]++;
+				counts[offset + Orientation.RIGHT_TO_LEFT.ordinal()]++;
+			}
+
+			if (Math.abs(vx) >= threshold)
+			{
+				counts[offset + Orientation.TOP_TO_BOTTOM.ordinal()]++;
+				counts[offset + Orientation.BOTTOM_TO_TOP.ordinal()]++;
+			}
 		}
-		else if (this.isVertical())
+	}
+
+	/**
+	 * Adds the properly oriented consumption (or product) edges for each
+	 * orientation to the given counts.
+	 */
+	private void countPortEdges(ArrayList<SbgnPDEdge> edges,
+			boolean isInputPort, int[] counts, int offset)
+	{
+		LNode port = isInputPort ? inputPort : outputPort;
+		double portX = port.getCenterX();
+		double portY = port.getCenterY();
+		double sign = isInputPort ? 1 : -1;
+
+		for (int i = 0; i < edges.size(); i++)
 		{
-			targetPnt.y = this.getCenterY();
+			SbgnPDEdge edge = edges.get(i);
+			LNode node = isInputPort ? edge.getSource() : edge.getTarget();
+			double vx = sign * (node.getCenterX() - portX);
+			double vy = sign * (node.getCenterY() - portY);
 
-			if (eff.getCenterX() > this.getCenterX())
-				targetPnt.x = this.getCenterX() + this.idealEdgeLength;
-			else
-				targetPnt.x = this.getCenterX() - this.idealEdgeLength;
+			if (vx == 0 && vy == 0)
+				continue;
+
+			double threshold = COS_ANGLE_TOLERANCE
+					* Math.sqrt(vx * vx + vy * vy);
+
+			for (int orient = 0; orient < 4; orient++)
+			{
+				if (INPUT_DIRECTION_X[orient] * vx + INPUT_DIRECTION_Y[orient]
+						* vy >= threshold)
+					counts[offset + orient]++;
+			}
 		}
+	}
 
-		double angle = IGeometry.calculateAngle(targetPnt, centerPnt,
-				eff.getCenter());
+	/**
+	 * This method marks each edge of this process as properly oriented or not
+	 * with respect to the given orientation, with the ports kept at their
+	 * current places. It agrees with countProperlyOrientedEdges.
+	 */
+	public void markProperlyOrientedEdges(Orientation orient)
+	{
+		int o = orient.ordinal();
 
-		effectorEdges.get(nodeIndex).correspondingAngle = (int) angle;
+		markPortEdges(consumptionEdges, true, o);
+		markPortEdges(productEdges, false, o);
 
-		if (Math.abs(angle) <= SbgnPDConstants.EFFECTOR_ANGLE_TOLERANCE)
-			effectorEdges.get(nodeIndex).isProperlyOriented = true;
-		else
-			effectorEdges.get(nodeIndex).isProperlyOriented = false;
+		boolean isHorizontal = orient == Orientation.LEFT_TO_RIGHT
+				|| orient == Orientation.RIGHT_TO_LEFT;
 
-		return angle;
+		for (SbgnPDEdge edge : effectorEdges)
+		{
+			LNode eff = edge.getSource();
+			double vx = eff.getCenterX() - this.getCenterX();
+			double vy = eff.getCenterY() - this.getCenterY();
+			double threshold = COS_EFFECTOR_ANGLE_TOLERANCE
+					* Math.sqrt(vx * vx + vy * vy);
+
+			edge.isProperlyOriented = threshold != 0
+					&& Math.abs(isHorizontal ? vy : vx) >= threshold;
+		}
+	}
+
+	private void markPortEdges(ArrayList<SbgnPDEdge> edges,
+			boolean isInputPort, int orient)
+	{
+		LNode port = isInputPort ? inputPort : outputPort;
+		double sign = isInputPort ? 1 : -1;
+
+		for (SbgnPDEdge edge : edges)
+		{
+			LNode node = isInputPort ? edge.getSource() : edge.getTarget();
+			double vx = sign * (node.getCenterX() - port.getCenterX());
+			double vy = sign * (node.getCenterY() - port.getCenterY());
+
+			edge.isProperlyOriented = (vx != 0 || vy != 0)
+					&& INPUT_DIRECTION_X[orient] * vx
+							+ INPUT_DIRECTION_Y[orient] * vy >= COS_ANGLE_TOLERANCE
+							* Math.sqrt(vx * vx + vy * vy);
+		}
+	}
+
+	/**
+	 * Returns the angle (in degrees) between the given unit direction and the
+	 * vector (vx, vy), as IGeometry.calculateAngle does for points.
+	 */
+	private static double calcAngle(double dirX, double dirY, double vx,
+			double vy)
+	{
+		return Math.toDegrees(Math.acos((dirX * vx + dirY * vy)
+				/ Math.sqrt(vx * vx + vy * vy)));
 	}
 
 	public void applyApproximations()
@@ -799,6 +952,7 @@ public class SbgnProcessNode extends SbgnPDNode
 
 	public void copyNode(SbgnProcessNode s, LGraphManager graphManager)
 	{
+		this.vGraphObject = s.vGraphObject;
 		this.type = s.type;
 		this.label = s.label;
 		this.parentCompound = s.parentCompound;
@@ -817,6 +971,7 @@ public class SbgnProcessNode extends SbgnPDNode
 
 	public void copyFromSBGNPDNode(SbgnPDNode s, LGraphManager graphManager)
 	{
+		this.vGraphObject = s.vGraphObject;
 		this.type = s.type;
 		this.label = s.label;
 		this.setCenter(s.getCenterX(), s.getCenterY());
@@ -0,0 +1,357 @@
+package org.ivis.layout.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+
+/**
+ * GraphMLReader class is used for loading a graph saved by GraphMLWriter
+ * (or any GraphML file using the same conventions) into the graph manager
+ * of a layout. Compound nodes hold their child graphs as nested graph
+ * elements, and node locations are relative to the parent compound node.
+ * The file is streamed with StAX; only a map from node ids to nodes is kept.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class GraphMLReader
+{
+	// layout whose graph manager is populated
+	private Layout layout;
+
+	// mapping between node ids in the graphml file and the nodes created
+	private Map<String, LNode> map;
+
+	// mapping between data keys and the names of the attributes they hold
+	private Map<String, String> keyNames;
+
+	// edges read and the ids of their source and target nodes, consecutively
+	private List<LEdge> edges;
+	private List<String> endIds;
+
+	// nodes read into the root graph by the current load, which are offset
+	// along with their descendants once all locations are read
+	private List<LNode> rootNodes;
+
+	private XMLInputFactory inputFactory;
+
+	/**
+	 * initializes variables
+	 *
+	 * @param layout layout whose graph manager is to be populated
+	 */
+	public GraphMLReader (Layout layout)
+	{
+		this.layout = layout;
+		map = new HashMap<String, LNode>();
+		keyNames = new HashMap<String, String>();
+		edges = new ArrayList<LEdge>();
+		endIds = new ArrayList<String>();
+		rootNodes = new ArrayList<LNode>();
+
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(
+			XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Returns the mapping between node ids in the file read and the nodes
+	 */
+	public Map<String, LNode> getNodeMap ()
+	{
+		return map;
+	}
+
+	/**
+	 * Loads the graph in the specified .graphml file
+	 *
+	 * @param filePath path
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public LGraphManager loadGraph (String filePath) throws IOException
+	{
+		InputStream in = new FileInputStream(filePath);
+
+		try
+		{
+			return loadGraph(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the graph in the given stream, which is not closed
+	 *
+	 * @param in
+	 * @throws IOException if the stream cannot be read or is malformed
+	 */
+	public LGraphManager loadGraph (InputStream in) throws IOException
+	{
+		try
+		{
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+
+			try
+			{
+				readGraph(reader);
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			LGraphManager gm = layout.getGraphManager();
+
+			// make the locations, which are relative to parents, absolute;
+			// nodes that were in the graph before are left as they are
+			toAbsoluteLocations(rootNodes, 0, 0);
+
+			for (int i = 0; i < edges.size(); i++)
+			{
+				gm.add(edges.get(i), getNode(endIds.get(2 * i)),
+					getNode(endIds.get(2 * i + 1)));
+			}
+
+			return gm;
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			edges.clear();
+			endIds.clear();
+			rootNodes.clear();
+		}
+	}
+
+	/**
+	 * Processes the events of the given reader, creating graphs and nodes as
+	 * their elements start
+	 *
+	 * @param reader
+	 */
+	private void readGraph (XMLStreamReader reader)
+		throws XMLStreamException, IOException
+	{
+		LGraphManager gm = layout.getGraphManager();
+		LGraph graph = null;
+
+		// nodes whose elements are open, innermost first, with their depths
+		Deque<LNode> openNodes = new ArrayDeque<LNode>();
+		Deque<Integer> openNodeDepths = new ArrayDeque<Integer>();
+
+		int depth = 0;
+
+		while (reader.hasNext())
+		{
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+				String name = reader.getLocalName();
+
+				if (name.equals("node"))
+				{
+					openNodes.pop();
+					openNodeDepths.pop();
+				}
+				else if (name.equals("graph") && graph.getParent() != null)
+				{
+					graph = graph.getParent().getOwner();
+				}
+
+				continue;
+			}
+			else if (event != XMLStreamConstants.START_ELEMENT)
+			{
+				continue;
+			}
+
+			depth++;
+			String name = reader.getLocalName();
+
+			if (name.equals("key"))
+			{
+				String id = reader.getAttributeValue(null, "id");
+				String attrName = reader.getAttributeValue(null, "attr.name");
+
+				if (id != null && attrName != null)
+				{
+					keyNames.put(id, attrName);
+				}
+			}
+			else if (name.equals("graph"))
+			{
+				if (openNodes.isEmpty())
+				{
+					graph = gm.getRoot();
+
+					if (graph == null)
+					{
+						graph = gm.addRoot();
+					}
+				}
+				else
+				{
+					graph = gm.add(layout.newGraph(null), openNodes.peek());
+				}
+			}
+			else if (name.equals("node"))
+			{
+				if (graph == null)
+				{
+					throw new IOException("Node outside graph");
+				}
+
+				String id = getRequiredAttribute(reader, "id");
+				LNode node = graph.add(layout.newNode(id));
+
+				// locations are read relative to parents
+				node.setLocation(0, 0);
+
+				if (openNodes.isEmpty())
+				{
+					rootNodes.add(node);
+				}
+
+				if (map.put(id, node) != null)
+				{
+					throw new IOException("Duplicate node id: " + id);
+				}
+
+				openNodes.push(node);
+				openNodeDepths.push(depth);
+			}
+			else if (name.equals("edge"))
+			{
+				edges.add(layout.newEdge(reader.getAttributeValue(null, "id")));
+				endIds.add(getRequiredAttribute(reader, "source"));
+				endIds.add(getRequiredAttribute(reader, "target"));
+			}
+			else if (name.equals("data") && !openNodes.isEmpty() &&
+				openNodeDepths.peek() == depth - 1)
+			{
+				String key = reader.getAttributeValue(null, "key");
+				String attrName = keyNames.containsKey(key) ?
+					keyNames.get(key) : key;
+				String value = reader.getElementText().trim();
+				depth--;
+
+				readNodeData(openNodes.peek(), attrName, value);
+			}
+		}
+	}
+
+	/**
+	 * Sets the attribute of the given node with the given name, if it is one
+	 * of the attributes kept by nodes
+	 */
+	private void readNodeData (LNode node, String attrName, String value)
+		throws IOException
+	{
+		if (attrName == null)
+		{
+			return;
+		}
+
+		try
+		{
+			if (attrName.equals("x"))
+			{
+				node.setLocation(Double.parseDouble(value), node.getTop());
+			}
+			else if (attrName.equals("y"))
+			{
+				node.setLocation(node.getLeft(), Double.parseDouble(value));
+			}
+			else if (attrName.equals("width"))
+			{
+				node.setWidth(Double.parseDouble(value));
+			}
+			else if (attrName.equals("height"))
+			{
+				node.setHeight(Double.parseDouble(value));
+			}
+			else if (attrName.equals("text"))
+			{
+				node.label = value;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Invalid " + attrName + " of node: " + value);
+		}
+	}
+
+	/**
+	 * A recursive function that offsets the locations of the given nodes and
+	 * their descendants, read relative to their parent, by the given amounts
+	 *
+	 * @param nodes
+	 * @param dx
+	 * @param dy
+	 */
+	private void toAbsoluteLocations (List<?> nodes, double dx, double dy)
+	{
+		for (Object obj : nodes)
+		{
+			LNode node = (LNode) obj;
+			node.setLocation(node.getLeft() + dx, node.getTop() + dy);
+
+			if (node.getChild() != null)
+			{
+				toAbsoluteLocations(node.getChild().getNodes(),
+					node.getLeft(), node.getTop());
+			}
+		}
+	}
+
+	private LNode getNode (String id) throws IOException
+	{
+		LNode node = map.get(id);
+
+		if (node == null)
+		{
+			throw new IOException("Edge refers to unknown node: " + id);
+		}
+
+		return node;
+	}
+
+	private static String getRequiredAttribute (XMLStreamReader reader,
+		String name) throws IOException
+	{
+		String value = reader.getAttributeValue(null, name);
+
+		if (value == null)
+		{
+			throw new IOException("Missing attribute " + name + " of " +
+				reader.getLocalName());
+		}
+
+		return value;
+	}
+}
@@ -1,8 +1,16 @@
 package org.ivis.layout.util;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.ivis.layout.LEdge;
 import org.ivis.layout.LGraph;
@@ -10,24 +18,46 @@ import org.ivis.layout.LGraphManager;
 import org.ivis.layout.LNode;
 
 /**
- * GraphMLWriter class is used for saving the topology of 
- * the given graph manager on the hard-disk
- * 
+ * GraphMLWriter class is used for saving the topology of
+ * the given graph manager as GraphML. Output is accumulated in a reusable
+ * buffer and streamed to the underlying writer in large chunks, encoded in
+ * UTF-8 (unless a writer is supplied) and optionally GZIP compressed.
+ *
  * @author Alper Karacelik
  *
  * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
  */
 public class GraphMLWriter
 {
-	private BufferedWriter out;
-	
-	// mapping between nodes and their string equivalents in the graphml file.
-	private HashMap map;
-	
-	// nodes at the first level will be written 
+	// size of the buffers between this writer and the output
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// path of the file to write, if the output is not supplied
+	private String filePath;
+
+	// supplied output stream, if any
+	private OutputStream outStream;
+
+	// whether the output stream is to be GZIP compressed
+	private boolean compress;
+
+	private Writer out;
+
+	// buffer in which the output is accumulated before it is written
+	private StringBuilder buffer;
+
+	// chunk used to move buffer contents to the writer without copies
+	private char[] chunk;
+
+	// mapping between nodes and their indices in the graphml file
+	private Map<LNode, Integer> map;
+
+	// nodes at the first level will be written
 	// with a 6-length indentation
 	private final short INITIAL_INDENTATION = 4;
-	
+
+	private final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
 	private final String FILE_HEADER = "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n" +
 									   "  <key id=\"x\" for=\"node\" attr.name=\"x\" attr.type=\"int\"/>\n" +
 									   "  <key id=\"y\" for=\"node\" attr.name=\"y\" attr.type=\"int\"/>\n" +
@@ -45,14 +75,14 @@ public class GraphMLWriter
 									   "  <key id=\"textFont\" for=\"all\" attr.name=\"textFont\" attr.type=\"string\"/>\n" +
 									   "  <key id=\"textColor\" for=\"all\" attr.name=\"textColor\" attr.type=\"string\"/>\n" +
 									   "  <key id=\"highlightColor\" for=\"all\" attr.name=\"highlightColor\" attr.type=\"string\"/>\n";
-	
+
 	private final String[] NODE_DATA_1 = {"<data key=\"color\">14 112 130</data>\n",
       								      "<data key=\"borderColor\">14 112 130</data>\n"};
-	
+
 	private final String[] NODE_DATA_2 = {"<data key=\"textFont\">1|Arial|8.25|0|WINDOWS|1|-11|0|0|0|0|0|0|0|1|0|0|0|0|Arial</data>\n",
       								      "<data key=\"textColor\">0 0 0</data>\n",
       								      "<data key=\"clusterID\">0</data>\n"};
-	
+
 	private final String[] EDGE_DATA = {"<data key=\"color\">0 0 0</data>\n",
       								    "<data key=\"text\"/>\n",
       								    "<data key=\"textFont\">1|Arial|8|0|WINDOWS|1|-11|0|0|0|0|0|0|0|1|0|0|0|0|Arial</data>\n",
@@ -60,266 +90,406 @@ public class GraphMLWriter
       								    "<data key=\"style\">Solid</data>\n",
       								    "<data key=\"arrow\">None</data>\n",
       								    "<data key=\"width\">1</data>\n"};
-	
+
 	private final String FILE_FOOTER = "    <data key=\"margin\">-1</data>\n" +
 									  "  </graph>\n" +
 									  "</graphml>";
-	
+
 	/**
-	 * initializes variables 
-	 * 
+	 * initializes variables, the file is created when the graph is saved
+	 *
 	 * @param filePath path
 	 */
 	public GraphMLWriter (String filePath)
 	{
-		map = new HashMap();
-		try
-		{
-			out = new BufferedWriter(new FileWriter(filePath));
-		}
-		catch (Exception e)
-		{
-			e.printStackTrace(); //TODO: it's worth failing here instead of just printing error...
-		}
+		this(filePath, false);
+	}
+
+	/**
+	 * initializes variables, the file is created when the graph is saved
+	 *
+	 * @param filePath path
+	 * @param compress whether the file is to be GZIP compressed
+	 */
+	public GraphMLWriter (String filePath, boolean compress)
+	{
+		this.filePath = filePath;
+		this.compress = compress;
+		initBuffers();
 	}
 
 	/**
-	 * Saves given graph into specified .graphml file
-	 * 
+	 * initializes variables for writing to the given stream in UTF-8; the
+	 * stream is flushed but not closed when the graph is saved
+	 *
+	 * @param outStream output stream
+	 * @param compress whether the output is to be GZIP compressed
+	 */
+	public GraphMLWriter (OutputStream outStream, boolean compress)
+	{
+		this.outStream = outStream;
+		this.compress = compress;
+		initBuffers();
+	}
+
+	/**
+	 * initializes variables for writing to the given writer, whose encoding
+	 * is left to the caller; the writer is flushed but not closed when the
+	 * graph is saved
+	 *
+	 * @param out writer
+	 */
+	public GraphMLWriter (Writer out)
+	{
+		this.out = out;
+		initBuffers();
+	}
+
+	private void initBuffers ()
+	{
+		map = new IdentityHashMap<LNode, Integer>();
+		buffer = new StringBuilder(BUFFER_SIZE);
+		chunk = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * Saves given graph into specified output
+	 *
 	 * @param lgm
+	 * @throws IOException if the output cannot be written
 	 */
-	public void saveGraph ( LGraphManager lgm )
+	public void saveGraph ( LGraphManager lgm ) throws IOException
 	{
+		boolean ownsOutput = (filePath != null);
+		GZIPOutputStream zipStream = null;
+		boolean declare = (out == null);
+
+		if (out == null)
+		{
+			OutputStream stream = ownsOutput ?
+				new FileOutputStream(filePath) : outStream;
+
+			if (compress)
+			{
+				zipStream = new GZIPOutputStream(stream, BUFFER_SIZE);
+				stream = zipStream;
+			}
+			else
+			{
+				stream = new BufferedOutputStream(stream, BUFFER_SIZE);
+			}
+
+			out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+		}
+
 		try
 		{
 			// write the header
-			out.write(FILE_HEADER);
-			
-			// map the nodes with their string equivalents
-			mapNodes(lgm.getRoot(), (short) 0, "");
-			
-			// write the nodes 
-			writeNodes(lgm.getRoot(), (short) 0, "");
-			
+			if (declare)
+				buffer.append(XML_DECLARATION);
+
+			buffer.append(FILE_HEADER);
+
+			// map the nodes with their indices
+			mapNodes(lgm.getRoot());
+
+			// write the nodes
+			writeNodes(lgm.getRoot(), (short) 0);
+
 			// write the edges
 			writeEdges(lgm);
-			
-			// write the footer and close file
-			out.write(FILE_FOOTER);
-			out.close();
+
+			// write the footer
+			buffer.append(FILE_FOOTER);
+			flushBuffer();
+
+			out.flush();
+
+			if (zipStream != null)
+				zipStream.finish();
 		}
-		catch (Exception e)
+		finally
 		{
-			e.printStackTrace();
+			map.clear();
+			buffer.setLength(0);
+
+			if (ownsOutput)
+			{
+				out.close();
+				out = null;
+			}
+			else if (declare)
+			{
+				out = null;
+			}
 		}
 	}
 
 	/**
-	 * A recursive function for writing nodes of the specified LGraphManager 
-	 * into the specified file 
-	 * 
+	 * A recursive function that assigns the nodes of the given graph and
+	 * its descendants consecutive indices
+	 *
 	 * @param root
-	 * @param level
-	 * @param parentStr
 	 */
-	private void mapNodes (LGraph root, short level, String parentStr)
+	private void mapNodes (LGraph root)
 	{
-		String currNodeStr;
-		LNode node;
-		
+		List<?> nodes = root.getNodes();
+
 		// for each node of the root graph...
-		for (int i = 0; i < root.getNodes().size(); i++)
+		for (int i = 0; i < nodes.size(); i++)
 		{
-			node = (LNode) root.getNodes().get(i);
-			
-			// check if the current root graph is the root graph of the LGraphManager
-			if (level != 0)
-				currNodeStr = parentStr + ":n" + i;
-			else
-				currNodeStr = "n" + i;
-			
-			// add new node to the node-string map
-			map.put(node, currNodeStr);
-			
-			// if current node is a compound one, 
-			// then make a recursive call with current node's child graph 
+			LNode node = (LNode) nodes.get(i);
+
+			// add new node to the node-index map
+			map.put(node, map.size());
+
+			// if current node is a compound one,
+			// then make a recursive call with current node's child graph
 			if (node.getChild() != null)
 			{
-				mapNodes(node.getChild(), (short)(level+1), currNodeStr);
+				mapNodes(node.getChild());
 			}
 		}
 	}
-	
+
 	/**
-	 * A recursive function that writes the nodes of the specified LGraphManager
-	 * 
+	 * A recursive function that writes the nodes of the specified graph
+	 *
 	 * @param root
 	 * @param level
-	 * @param parentStr
 	 */
-	private void writeNodes (LGraph root, short level, String parentStr)
+	private void writeNodes (LGraph root, short level) throws IOException
 	{
 		short currIndentation = (short) (INITIAL_INDENTATION + (level * 2));
-		
+
+		List<?> nodes = root.getNodes();
 		LNode node;
 		LNode parent = root.getParent();
-		
+
 		int x, y;
-		
-		String currNodeStr;
-		try 
+		int index;
+
+		writeSpaces((short)(currIndentation - 2));
+
+		if (level == 0)
 		{
-			writeSpaces((short)(currIndentation - 2));
-			
-			if (level == 0)
-				out.write("<graph id=\"\" edgedefault=\"undirected\">\n");
+			buffer.append("<graph id=\"\" edgedefault=\"undirected\">\n");
+		}
+		else
+		{
+			buffer.append("  <graph id=\"n").append(map.get(parent));
+			buffer.append(":\" edgedefault=\"undirected\">\n");
+		}
+
+		for ( int i = 0; i < nodes.size(); i++ )
+		{
+			node = (LNode) nodes.get(i);
+			index = map.get(node);
+
+			// find the top left point of the current node
+			// if it is the root graph
+			if (parent == null)
+			{
+				x = (int) node.getRect().x;
+				y = (int) node.getRect().y;
+			}
 			else
-				out.write("  <graph id=\""+ parentStr + ":\" edgedefault=\"undirected\">\n");
-			
-			for ( int i = 0; i < root.getNodes().size(); i++ )
-			{	
-				node = (LNode) root.getNodes().get(i);
-				
-				// find the top left point of the current node
-				// if it is the root graph
-				if (parent == null)
-				{
-					x = (int) node.getRect().x;
-					y = (int) node.getRect().y;
-				}
-				else
-				{
-					x = (int) (node.getRect().x - parent.getRect().x);
-					y = (int) (node.getRect().y - parent.getRect().y);
-				}
-				
-				// write the node data
-				writeSpaces(currIndentation);
-				out.write("<node id=\"");
-				currNodeStr = (String)map.get(node);
-				out.write(currNodeStr + "\">\n");
-				
-				writeSpaces((short)(currIndentation + 2));
-				out.write("<data key=\"x\">" + x + "</data>\n");
+			{
+				x = (int) (node.getRect().x - parent.getRect().x);
+				y = (int) (node.getRect().y - parent.getRect().y);
+			}
 
-				writeSpaces((short)(currIndentation + 2));
-				out.write("<data key=\"y\">" + y + "</data>\n");
-				
-				writeSpaces((short)(currIndentation + 2));
-				out.write("<data key=\"height\">" + (int) node.getRect().height + "</data>\n");
-				
-				writeSpaces((short)(currIndentation + 2));
-				out.write("<data key=\"width\">" + (int) node.getRect().width + "</data>\n");
-				
-				writeToFile(NODE_DATA_1, (short)(currIndentation + 2));
-				
-				writeSpaces((short)(currIndentation + 2));
-				out.write("<data key=\"text\">" + currNodeStr + "</data>\n");
-				
-				writeToFile(NODE_DATA_2, (short)(currIndentation + 2));
-				
-				// if current node is a compound, then make a recursive call
-				if (node.getChild() != null)
-				{
-					writeNodes(node.getChild(), (short)(level+1), currNodeStr);
-				}
-				else
-				{
-					writeSpaces((short)(currIndentation + 2));
-					out.write("<data key=\"shape\">Rectangle</data>\n");
-				}
-				
-				writeSpaces(currIndentation);
-				out.write("</node>\n");
+			// write the node data
+			writeSpaces(currIndentation);
+			buffer.append("<node id=\"n").append(index).append("\">\n");
+
+			writeData("x", x, (short)(currIndentation + 2));
+			writeData("y", y, (short)(currIndentation + 2));
+			writeData("height", (int) node.getRect().height,
+				(short)(currIndentation + 2));
+			writeData("width", (int) node.getRect().width,
+				(short)(currIndentation + 2));
+
+			writeLines(NODE_DATA_1, (short)(currIndentation + 2));
+
+			writeSpaces((short)(currIndentation + 2));
+			buffer.append("<data key=\"text\">");
+
+			if (node.label != null)
+				appendEscaped(node.label);
+			else
+				buffer.append('n').append(index);
+
+			buffer.append("</data>\n");
+
+			writeLines(NODE_DATA_2, (short)(currIndentation + 2));
+
+			// if current node is a compound, then make a recursive call
+			if (node.getChild() != null)
+			{
+				writeNodes(node.getChild(), (short)(level+1));
 			}
-			
-			if ( level != 0 )
+			else
 			{
-				writeSpaces(currIndentation);
-				out.write("<data key=\"margin\">10</data>\n");
-				writeSpaces((short)(currIndentation - 2));
-				out.write("</graph>\n");
+				writeSpaces((short)(currIndentation + 2));
+				buffer.append("<data key=\"shape\">Rectangle</data>\n");
 			}
+
+			writeSpaces(currIndentation);
+			buffer.append("</node>\n");
+
+			flushBufferIfFull();
 		}
-		catch (Exception e)
+
+		if ( level != 0 )
 		{
-			e.printStackTrace();
+			writeSpaces(currIndentation);
+			buffer.append("<data key=\"margin\">10</data>\n");
+			writeSpaces((short)(currIndentation - 2));
+			buffer.append("</graph>\n");
 		}
 	}
-	
+
 	/**
 	 * This function writes the all edges of the specified LGraphManager
-	 * 
+	 *
 	 * @param lgm
 	 */
-	private void writeEdges (LGraphManager lgm)
+	private void writeEdges (LGraphManager lgm) throws IOException
 	{
-		String sourceStr, targetStr;
-		LEdge edge;
-		
-		try
+		int edgeCount = 0;
+
+		// for each graph in the graph manager...
+		for (Object obj : lgm.getGraphs())
 		{
-			// for each edge in the graph manager...
-			for ( int i = 0; i < lgm.getAllEdges().length; i++ )
-			{
-				edge = (LEdge) lgm.getAllEdges()[i];
-				
-				// get the string equivalents of the source and target nodes
-				sourceStr = (String)map.get(edge.getSource());
-				targetStr = (String)map.get(edge.getTarget());
-				
-				// write the edge data
-				out.write("    <edge id=\"e" + i + "\" source=\"" + sourceStr + 
-					"\" target=\"" + targetStr + "\">\n");
-				writeToFile(EDGE_DATA, (short)6);
-				out.write("    </edge>\n");
-			}
+			edgeCount = writeEdges(((LGraph) obj).getEdges(), edgeCount);
 		}
-		catch (Exception e)
+
+		writeEdges(lgm.getInterGraphEdges(), edgeCount);
+	}
+
+	/**
+	 * This function writes the given edges, numbering them starting from the
+	 * given count
+	 *
+	 * @return number of edges written so far
+	 */
+	private int writeEdges (List<?> edges, int edgeCount) throws IOException
+	{
+		for (int i = 0; i < edges.size(); i++)
 		{
-			e.printStackTrace();
+			LEdge edge = (LEdge) edges.get(i);
+
+			// write the edge data
+			buffer.append("    <edge id=\"e").append(edgeCount++);
+			buffer.append("\" source=\"n").append(map.get(edge.getSource()));
+			buffer.append("\" target=\"n").append(map.get(edge.getTarget()));
+			buffer.append("\">\n");
+			writeLines(EDGE_DATA, (short)6);
+			buffer.append("    </edge>\n");
+
+			flushBufferIfFull();
 		}
+
+		return edgeCount;
 	}
-	
+
 	/**
-	 * This function puts n spaces on the specified graphml file
-	 * 
+	 * This function appends a data element with the given key and value
+	 */
+	private void writeData (String key, int value, short n)
+	{
+		writeSpaces(n);
+		buffer.append("<data key=\"").append(key).append("\">");
+		buffer.append(value).append("</data>\n");
+	}
+
+	/**
+	 * This function appends n spaces to the buffer
+	 *
 	 * @param n
 	 */
 	private void writeSpaces (short n)
 	{
-		try
+		for (int i = 0; i < n; i++)
 		{
-			for (int i = 0; i < n; i++)
-			{
-				out.write(" ");
-			}
-		}
-		catch (Exception e)
-		{
-			e.printStackTrace();
+			buffer.append(' ');
 		}
 	}
-	
+
 	/**
-	 * This function writes given string array (inp) 
-	 * to the specified graphml file 
+	 * This function appends given string array (inp) to the buffer
 	 * Each element in the given array is written on a separate line
 	 * with n spaces
 	 */
-	private void writeToFile (String[] inp, short n)
+	private void writeLines (String[] inp, short n)
 	{
-		try
+		for (int i = 0; i < inp.length; i++)
+		{
+			writeSpaces(n);
+			buffer.append(inp[i]);
+		}
+	}
+
+	/**
+	 * This function appends the given text to the buffer, escaping the XML
+	 * markup characters and dropping characters not allowed in XML 1.0
+	 */
+	private void appendEscaped (String text)
+	{
+		for (int i = 0; i < text.length(); i++)
 		{
-			for (int i = 0; i < inp.length; i++)
+			char c = text.charAt(i);
+
+			switch (c)
 			{
-				writeSpaces(n);
-				out.write(inp[i]);
+				case '&':
+					buffer.append("&amp;");
+					break;
+				case '<':
+					buffer.append("&lt;");
+					break;
+				case '>':
+					buffer.append("&gt;");
+					break;
+				case '"':
+					buffer.append("&quot;");
+					break;
+				case '\'':
+					buffer.append("&apos;");
+					break;
+				default:
+					if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')
+					{
+						if (c != 0xFFFE && c != 0xFFFF)
+							buffer.append(c);
+					}
 			}
 		}
-		catch (Exception e)
+	}
+
+	private void flushBufferIfFull () throws IOException
+	{
+		if (buffer.length() >= BUFFER_SIZE)
 		{
-			e.printStackTrace();
+			flushBuffer();
 		}
 	}
+
+	/**
+	 * This function moves the buffer contents to the output
+	 */
+	private void flushBuffer () throws IOException
+	{
+		int length = buffer.length();
+
+		for (int start = 0; start < length; start += chunk.length)
+		{
+			int end = Math.min(length, start + chunk.length);
+			buffer.getChars(start, end, chunk, 0);
+			out.write(chunk, 0, end - start);
+		}
+
+		buffer.setLength(0);
+	}
 }
@@ -0,0 +1,143 @@
+package org.ivis.util;
+
+/**
+ * This class implements a Fenwick (binary indexed) tree of non-negative
+ * double weights. Weights can be updated and prefix sums queried in
+ * logarithmic time, so that an index can be sampled with probability
+ * proportional to its weight in logarithmic time as well.
+ *
+ * Copyright: i-Vis Research Group, Bilkent University, 2007 - present
+ */
+public class FenwickTree
+{
+// -----------------------------------------------------------------------------
+// Section: Instance variables
+// -----------------------------------------------------------------------------
+	/**
+	 * Partial sums; tree[i] holds the sum of the weights with (zero-based)
+	 * indices in [i - (i & -i), i - 1].
+	 */
+	private double[] tree;
+
+	/**
+	 * Number of weights in this tree
+	 */
+	private int size;
+
+// -----------------------------------------------------------------------------
+// Section: Constructors and Initialization
+// -----------------------------------------------------------------------------
+	/**
+	 * Constructor, all weights are initially zero.
+	 *
+	 * @param size number of weights
+	 */
+	public FenwickTree(int size)
+	{
+		this.tree = new double[size + 1];
+		this.size = size;
+	}
+
+	/**
+	 * This method replaces the weights in this tree with the first size
+	 * elements of the given array, in linear time.
+	 *
+	 * @param weights new weights
+	 * @param size number of weights
+	 */
+	public void build(double[] weights, int size)
+	{
+		if (this.tree.length < size + 1)
+		{
+			this.tree = new double[size + 1];
+		}
+
+		this.size = size;
+
+		System.arraycopy(weights, 0, this.tree, 1, size);
+		this.tree[0] = 0;
+
+		for (int i = 1; i <= size; i++)
+		{
+			int parent = i + (i & -i);
+
+			if (parent <= size)
+			{
+				this.tree[parent] += this.tree[i];
+			}
+		}
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Accessors
+// -----------------------------------------------------------------------------
+	public int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * This method returns the sum of all weights.
+	 */
+	public double getTotal()
+	{
+		return getPrefixSum(this.size);
+	}
+
+// -----------------------------------------------------------------------------
+// Section: Remaining methods
+// -----------------------------------------------------------------------------
+	/**
+	 * This method adds the given amount to the weight with the given index.
+	 */
+	public void add(int index, double delta)
+	{
+		for (int i = index + 1; i <= this.size; i += i & -i)
+		{
+			this.tree[i] += delta;
+		}
+	}
+
+	/**
+	 * This method returns the sum of the weights with indices smaller than
+	 * the given count.
+	 */
+	public double getPrefixSum(int count)
+	{
+		double sum = 0;
+
+		for (int i = count; i > 0; i -= i & -i)
+		{
+			sum += this.tree[i];
+		}
+
+		return sum;
+	}
+
+	/**
+	 * This method returns the smallest index whose prefix sum (including its
+	 * own weight) exceeds the given value. When the given value is uniformly
+	 * distributed in [0, getTotal()), each index is returned with probability
+	 * proportional to its weight.
+	 *
+	 * @return the index found, or -1 if the value is not smaller than the
+	 * total weight
+	 */
+	public int find(double value)
+	{
+		int position = 0;
+
+		for (int step = Integer.highestOneBit(this.size); step > 0; step >>= 1)
+		{
+			int next = position + step;
+
+			if (next <= this.size && this.tree[next] <= value)
+			{
+				position = next;
+				value -= this.tree[next];
+			}
+		}
+
+		return (position < this.size) ? position : -1;
+	}
+}
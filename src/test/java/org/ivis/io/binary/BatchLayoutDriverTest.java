@@ -0,0 +1,153 @@
+package org.ivis.io.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.cose.CoSELayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchLayoutDriverTest
+{
+	@Test
+	public void testRun() throws Exception
+	{
+		// graphs of 5, 2 and 4 nodes, the last one a compound graph
+		byte[][] snapshots = {createPath(5), createPath(2), createCompound()};
+		int[] nodeCounts = {5, 2, 4};
+		File input = writeRecords(snapshots, snapshots.length);
+
+		try
+		{
+			// a single worker reuses its layout for all graphs
+			for (int threadCount = 1; threadCount <= 2; threadCount++)
+			{
+				BatchLayoutDriver driver = new BatchLayoutDriver(threadCount);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+				assertEquals(3, driver.run(input, Channels.newChannel(out)));
+				assertEquals(0, driver.getFailedLayoutCount());
+
+				ByteBuffer results = ByteBuffer.wrap(out.toByteArray());
+				boolean[] found = new boolean[snapshots.length];
+
+				for (int i = 0; i < snapshots.length; i++)
+				{
+					int index = results.getInt();
+					byte[] snapshot = new byte[results.getInt()];
+					results.get(snapshot);
+
+					assertFalse(found[index]);
+					found[index] = true;
+
+					// the graph is laid out, so that its nodes are moved
+					LGraphManager gm = new GraphSnapshotReader(
+						new CoSELayout()).read(ByteBuffer.wrap(snapshot));
+					assertEquals(nodeCounts[index], gm.getAllNodes().length);
+					assertFalse(Arrays.equals(snapshots[index], snapshot));
+				}
+
+				assertFalse(results.hasRemaining());
+			}
+		}
+		finally
+		{
+			input.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedRecord() throws Exception
+	{
+		byte[][] snapshots = {createPath(3)};
+		File input = writeRecords(snapshots, 1);
+
+		try
+		{
+			// drop the last byte of the only record
+			FileOutputStream stream = new FileOutputStream(input, true);
+			stream.getChannel().truncate(input.length() - 1);
+			stream.close();
+
+			new BatchLayoutDriver(1).run(input,
+				Channels.newChannel(new ByteArrayOutputStream()));
+			fail("Truncated record was laid out");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		finally
+		{
+			input.delete();
+		}
+	}
+
+	/**
+	 * Writes the given number of the given snapshots as length-prefixed
+	 * records to a temporary file.
+	 */
+	private static File writeRecords(byte[][] snapshots, int count)
+		throws IOException
+	{
+		File file = File.createTempFile("batch", ".records");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+
+		try
+		{
+			for (int i = 0; i < count; i++)
+			{
+				out.writeInt(snapshots[i].length);
+				out.write(snapshots[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		return file;
+	}
+
+	private static byte[] createPath(int length) throws IOException
+	{
+		Layout layout = new CoSELayout();
+		TestUtils.createPath(layout, length);
+
+		return toSnapshot(layout.getGraphManager());
+	}
+
+	private static byte[] createCompound() throws IOException
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode n1 = root.add(layout.newNode(null));
+		LNode n2 = root.add(layout.newNode(null));
+		LGraph child = gm.add(layout.newGraph(null), n2);
+		LNode n3 = child.add(layout.newNode(null));
+		LNode n4 = child.add(layout.newNode(null));
+		gm.add(layout.newEdge(null), n1, n3);
+		child.add(layout.newEdge(null), n3, n4);
+
+		return toSnapshot(gm);
+	}
+
+	private static byte[] toSnapshot(LGraphManager gm) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new GraphSnapshotWriter().write(gm, Channels.newChannel(out));
+		return out.toByteArray();
+	}
+}
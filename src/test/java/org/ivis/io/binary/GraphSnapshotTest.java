@@ -0,0 +1,193 @@
+package org.ivis.io.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.cose.CoSELayout;
+import org.ivis.util.PointD;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GraphSnapshotTest
+{
+	/**
+	 * Creates a compound graph with labels, types, clusters and bend points
+	 * in the given layout.
+	 */
+	private static void createGraph(Layout layout)
+	{
+		LGraphManager gm = layout.getGraphManager();
+		LGraph g1 = gm.addRoot();
+		LNode n1 = g1.add(layout.newNode(null));
+		LNode n2 = g1.add(layout.newNode(null));
+		LGraph g2 = gm.add(layout.newGraph(null), n2);
+		LNode n3 = g2.add(layout.newNode(null));
+		LNode n4 = g2.add(layout.newNode(null));
+		n1.label = "n1";
+		n3.label = "n3";
+		n3.type = "macromolecule";
+		n4.type = "macromolecule";
+		n4.addCluster(2);
+		n4.addCluster(5);
+		n1.setLocation(-10.5, 3);
+		n3.setWidth(70.25);
+
+		LEdge e1 = gm.add(layout.newEdge(null), n1, n3);
+		e1.label = "e1-3";
+		e1.getBendpoints().add(new PointD(5.5, -3));
+		e1.getBendpoints().add(new PointD(7, 8));
+		g2.add(layout.newEdge(null), n3, n4).type = "production";
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		createGraph(layout);
+		LGraphManager gm = layout.getGraphManager();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new GraphSnapshotWriter().write(gm, Channels.newChannel(out));
+
+		Layout copy = new CoSELayout();
+		GraphSnapshotReader reader = new GraphSnapshotReader(copy);
+		LGraphManager copyGm = reader.read(ByteBuffer.wrap(out.toByteArray()));
+
+		assertSnapshotOf(gm, copyGm, reader.getNodes());
+	}
+
+	@Test
+	public void testFileRoundTrip() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		createGraph(layout);
+		LGraphManager gm = layout.getGraphManager();
+		File file = File.createTempFile("graph", ".snapshot");
+
+		try
+		{
+			new GraphSnapshotWriter().write(gm, file);
+
+			GraphSnapshotReader reader =
+				new GraphSnapshotReader(new CoSELayout());
+			LGraphManager copyGm = reader.read(file);
+
+			assertSnapshotOf(gm, copyGm, reader.getNodes());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testEdgeEndOutsideHierarchy() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode n1 = root.add(layout.newNode(null));
+		LNode n2 = root.add(layout.newNode(null));
+		root.add(layout.newEdge(null), n1, n2);
+
+		// detach the end node without removing its edge
+		root.getNodes().remove(n2);
+
+		try
+		{
+			new GraphSnapshotWriter().write(gm,
+				Channels.newChannel(new ByteArrayOutputStream()));
+			fail("Edge with a detached end was written");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testMalformedSnapshots() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		createGraph(layout);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new GraphSnapshotWriter().write(layout.getGraphManager(),
+			Channels.newChannel(out));
+		byte[] snapshot = out.toByteArray();
+
+		assertMalformed(Arrays.copyOf(snapshot, snapshot.length - 1));
+		assertMalformed(Arrays.copyOf(snapshot, 10));
+
+		byte[] badMagic = snapshot.clone();
+		badMagic[0]++;
+		assertMalformed(badMagic);
+
+		byte[] badVersion = snapshot.clone();
+		badVersion[7]++;
+		assertMalformed(badVersion);
+	}
+
+	private static void assertMalformed(final byte[] snapshot) throws Exception
+	{
+		TestUtils.assertMalformed(IOException.class, new Callable<Object>()
+		{
+			public Object call() throws Exception
+			{
+				return new GraphSnapshotReader(new CoSELayout()).read(
+					ByteBuffer.wrap(snapshot));
+			}
+		});
+	}
+
+	/**
+	 * Asserts that the given copy, whose nodes are given in preorder, has
+	 * the structure and geometry of the given graph manager.
+	 */
+	private static void assertSnapshotOf(LGraphManager gm,
+		LGraphManager copyGm, LNode[] copyNodes)
+	{
+		Object[] nodes = gm.getAllNodes();
+		Object[] edges = gm.getAllEdges();
+
+		assertEquals(nodes.length, copyNodes.length);
+		assertEquals(nodes.length, copyGm.getAllNodes().length);
+		assertEquals(edges.length, copyGm.getAllEdges().length);
+		assertEquals(gm.getInterGraphEdges().size(),
+			copyGm.getInterGraphEdges().size());
+
+		// n1, n2, n3 and n4 in preorder
+		LNode n3 = copyNodes[2];
+		assertEquals("n1", copyNodes[0].label);
+		assertEquals(-10.5, copyNodes[0].getLeft(), 0);
+		assertEquals(3, copyNodes[0].getTop(), 0);
+		assertSame(copyNodes[1], n3.getOwner().getParent());
+		assertEquals("n3", n3.label);
+		assertEquals("macromolecule", n3.type);
+		assertEquals(70.25, n3.getWidth(), 0);
+		assertNull(copyNodes[3].label);
+		assertEquals(2, copyNodes[3].getClusters().size());
+
+		LEdge e1 = (LEdge) copyGm.getInterGraphEdges().get(0);
+		assertEquals("e1-3", e1.label);
+		assertSame(copyNodes[0], e1.getSource());
+		assertSame(n3, e1.getTarget());
+		assertEquals(2, e1.getBendpoints().size());
+		assertEquals(7, e1.getBendpoints().get(1).x, 0);
+		assertEquals(8, e1.getBendpoints().get(1).y, 0);
+
+		LEdge e2 = (LEdge) n3.getOwner().getEdges().get(0);
+		assertEquals("production", e2.type);
+		assertSame(copyNodes[3], e2.getTarget());
+	}
+}
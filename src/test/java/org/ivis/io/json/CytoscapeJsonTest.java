@@ -0,0 +1,290 @@
+package org.ivis.io.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.cose.CoSELayout;
+import org.ivis.layout.sbgn.SbgnPDConstants;
+import org.ivis.layout.sbgn.SbgnPDLayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CytoscapeJsonTest
+{
+	@Test
+	public void testRead() throws Exception
+	{
+		// elements as in the output of cy.json(), with a parent read after
+		// its member and fields that are skipped
+		String json = "{\"elements\": {" +
+			"\"nodes\": [" +
+			"{\"data\": {\"id\": \"n1\", \"parent\": \"c\", " +
+			"\"class\": \"macromolecule\", \"width\": 40, \"height\": 20}, " +
+			"\"position\": {\"x\": 100, \"y\": 50}, \"selected\": false}," +
+			"{\"data\": {\"id\": \"c\", \"label\": [\"x\", {\"y\": 1}]}}," +
+			"{\"data\": {\"id\": 7, \"bbox\": {\"w\": 30, \"h\": 10}}}]," +
+			"\"edges\": [" +
+			"{\"data\": {\"id\": \"e1\", \"source\": \"n1\", \"target\": \"7\", " +
+			"\"type\": \"production\"}}]}," +
+			"\"zoom\": 1}";
+
+		Layout layout = new CoSELayout();
+		CytoscapeJsonReader reader = new CytoscapeJsonReader(layout);
+		LGraphManager gm = reader.read(new StringReader(json));
+		Map<String, LNode> nodeMap = reader.getNodeMap();
+
+		assertEquals(3, gm.getAllNodes().length);
+		assertEquals(1, gm.getAllEdges().length);
+
+		LNode n1 = nodeMap.get("n1");
+		assertSame(nodeMap.get("c"), n1.getOwner().getParent());
+		assertEquals("macromolecule", n1.type);
+		assertEquals(40, n1.getWidth(), 0);
+		assertEquals(20, n1.getHeight(), 0);
+		assertEquals(100, n1.getCenterX(), 0);
+		assertEquals(50, n1.getCenterY(), 0);
+		assertEquals(30, nodeMap.get("7").getWidth(), 0);
+
+		LEdge e1 = (LEdge) gm.getInterGraphEdges().get(0);
+		assertEquals("e1", e1.vGraphObject);
+		assertSame(n1, e1.getSource());
+		assertSame(nodeMap.get("7"), e1.getTarget());
+		assertEquals("production", e1.type);
+	}
+
+	@Test
+	public void testReadArray() throws Exception
+	{
+		String json = "[{\"data\": {\"id\": \"a\"}}, {\"data\": {\"id\": \"b\"}}," +
+			"{\"group\": \"edges\", \"data\": {\"source\": \"a\", " +
+			"\"target\": \"b\"}}]";
+
+		Layout layout = new CoSELayout();
+		LGraphManager gm =
+			new CytoscapeJsonReader(layout).read(new StringReader(json));
+
+		assertEquals(2, gm.getAllNodes().length);
+		assertEquals(1, gm.getAllEdges().length);
+	}
+
+	@Test
+	public void testReadPartialGeometry() throws Exception
+	{
+		// b is given only an x coordinate and a width, after a is given both
+		String json = "[{\"data\": {\"id\": \"a\", \"width\": 40, " +
+			"\"height\": 20}, \"position\": {\"x\": 100, \"y\": 50}}," +
+			"{\"data\": {\"id\": \"b\", \"bbox\": {\"w\": 30}}, " +
+			"\"position\": {\"x\": 7}}]";
+
+		CytoscapeJsonReader reader = new CytoscapeJsonReader(new CoSELayout());
+		reader.read(new StringReader(json));
+		LNode b = reader.getNodeMap().get("b");
+		LNode defaults = new CoSELayout().newNode(null);
+
+		assertEquals(30, b.getWidth(), 0);
+		assertEquals(defaults.getHeight(), b.getHeight(), 0);
+		assertEquals(7, b.getCenterX(), 0);
+		assertEquals(defaults.getTop() + defaults.getHeight() / 2,
+			b.getCenterY(), 0);
+	}
+
+	@Test
+	public void testReadMalformed() throws Exception
+	{
+		assertMalformed("{\"nodes\": [{\"data\": {\"id\": \"a\"}}], " +
+			"\"edges\": [{\"data\": {\"source\": \"a\", \"target\": \"b\"}}]}");
+		assertMalformed("[{\"data\": {\"id\": \"a\"}}, {\"data\": {\"id\": \"a\"}}]");
+		assertMalformed("[{\"data\": {\"parent\": \"a\"}}]");
+		assertMalformed("[{\"group\": \"edges\", \"data\": {\"source\": \"a\"}}]");
+		assertMalformed("[{\"data\": {\"id\": \"a\", \"width\": \"wide\"}}]");
+		assertMalformed("[{\"data\": {\"id\": \"a\", \"parent\": \"b\"}}]");
+		assertMalformed("[1]");
+		assertMalformed("\"elements\"");
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		Layout layout = new SbgnPDLayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode n1 = root.add(layout.newNode("n1"));
+		LNode n2 = root.add(layout.newNode("n\"2\\"));
+		LGraph g = gm.add(layout.newGraph(null), n2);
+		LNode n3 = g.add(layout.newNode("n3"));
+		LNode n4 = g.add(layout.newNode("n4"));
+		LNode p = root.add(layout.newNode("p"));
+		LNode n5 = root.add(layout.newNode("n5"));
+		n1.type = SbgnPDConstants.MACROMOLECULE;
+		n2.type = "compartment";
+		n3.type = SbgnPDConstants.SIMPLE_CHEMICAL;
+		n4.type = SbgnPDConstants.MACROMOLECULE;
+		n5.type = SbgnPDConstants.MACROMOLECULE;
+		p.type = SbgnPDConstants.PROCESS;
+		gm.add(layout.newEdge("e1-3"), n1, n3).type = "consumption";
+		g.add(layout.newEdge("e3-4"), n3, n4);
+		root.add(layout.newEdge("e1-p"), n1, p).type =
+			SbgnPDConstants.CONSUMPTION;
+		root.add(layout.newEdge("ep-5"), p, n5).type =
+			SbgnPDConstants.PRODUCTION;
+
+		layout.runLayout();
+
+		StringWriter out = new StringWriter();
+		new CytoscapeJsonWriter().write(gm, out);
+
+		Layout copy = new CoSELayout();
+		CytoscapeJsonReader reader = new CytoscapeJsonReader(copy);
+		LGraphManager copyGm = reader.read(new StringReader(out.toString()));
+
+		// the ports of the process and the rigid edges joining them to it are
+		// not written
+		assertEquals(6, copyGm.getAllNodes().length);
+		assertEquals(4, copyGm.getAllEdges().length);
+		assertEquals(1, copyGm.getInterGraphEdges().size());
+
+		LNode copyP = reader.getNodeMap().get("p");
+		assertEquals(2, copyP.getEdges().size());
+
+		for (Object obj : copyGm.getAllEdges())
+		{
+			LEdge edge = (LEdge) obj;
+			assertNotSame(edge.getSource(), edge.getTarget());
+		}
+
+
+		LNode copy3 = reader.getNodeMap().get("n3");
+		assertSame(reader.getNodeMap().get("n\"2\\"),
+			copy3.getOwner().getParent());
+		assertEquals("simple chemical", copy3.type);
+		assertEquals(n3.getCenterX(), copy3.getCenterX(), 0);
+		assertEquals(n3.getCenterY(), copy3.getCenterY(), 0);
+		assertEquals(n3.getWidth(), copy3.getWidth(), 0);
+		assertEquals(n3.getHeight(), copy3.getHeight(), 0);
+
+		LEdge copy1 = (LEdge) copyGm.getInterGraphEdges().get(0);
+		assertEquals("e1-3", copy1.vGraphObject);
+		assertEquals("consumption", copy1.type);
+		assertSame(copy3, copy1.getTarget());
+	}
+
+	@Test
+	public void testEdgesWithoutIds() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode a = root.add(layout.newNode("a"));
+		LNode b = root.add(layout.newNode("_e0"));
+		LNode c = root.add(layout.newNode("c"));
+		root.add(layout.newEdge(null), a, b);
+		root.add(layout.newEdge(new Object()), b, c);
+		root.add(layout.newEdge("_e1"), a, c);
+
+		StringWriter out = new StringWriter();
+		new CytoscapeJsonWriter().write(gm, out);
+
+		Layout copy = new CoSELayout();
+		LGraphManager copyGm =
+			new CytoscapeJsonReader(copy).read(new StringReader(out.toString()));
+		Object[] edges = copyGm.getAllEdges();
+
+		// generated ids differ from each other and from the ids in use
+		assertEquals(3, edges.length);
+		assertEquals("_e1", ((LEdge) edges[2]).vGraphObject);
+
+		for (int i = 0; i < 2; i++)
+		{
+			Object id = ((LEdge) edges[i]).vGraphObject;
+
+			assertNotNull(id);
+			assertNotEquals("_e0", id);
+			assertNotEquals("_e1", id);
+		}
+
+		assertNotEquals(((LEdge) edges[0]).vGraphObject,
+			((LEdge) edges[1]).vGraphObject);
+	}
+
+	@Test
+	public void testMembersOfNodeWithoutId() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode c = root.add(layout.newNode("c"));
+		LNode unnamed = gm.add(layout.newGraph(null), c).add(
+			layout.newNode(null));
+		LGraph g = gm.add(layout.newGraph(null), unnamed);
+		LNode m1 = g.add(layout.newNode("m1"));
+		LNode m2 = g.add(layout.newNode("m2"));
+		g.add(layout.newEdge("e"), m1, m2);
+
+		StringWriter out = new StringWriter();
+		new CytoscapeJsonWriter().write(gm, out);
+
+		CytoscapeJsonReader reader = new CytoscapeJsonReader(new CoSELayout());
+		LGraphManager copyGm = reader.read(new StringReader(out.toString()));
+
+		// members are written as members of the nearest written ancestor
+		assertEquals(3, copyGm.getAllNodes().length);
+		assertEquals(1, copyGm.getAllEdges().length);
+		assertSame(reader.getNodeMap().get("c"),
+			reader.getNodeMap().get("m1").getOwner().getParent());
+	}
+
+	@Test
+	public void testNonFiniteGeometryIsRejected() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LNode node = layout.getGraphManager().addRoot().add(
+			layout.newNode("n"));
+		node.setCenter(Double.NaN, 0);
+
+		try
+		{
+			new CytoscapeJsonWriter().write(layout.getGraphManager(),
+				new StringWriter());
+			fail("NaN was written");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+
+		node.setCenter(0, 0);
+		node.setWidth(Double.POSITIVE_INFINITY);
+
+		try
+		{
+			new CytoscapeJsonWriter().write(layout.getGraphManager(),
+				new StringWriter());
+			fail("Infinity was written");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	private static void assertMalformed(final String json) throws Exception
+	{
+		TestUtils.assertMalformed(IOException.class, new Callable<Object>()
+		{
+			public Object call() throws Exception
+			{
+				return new CytoscapeJsonReader(new CoSELayout()).read(
+					new StringReader(json));
+			}
+		});
+	}
+}
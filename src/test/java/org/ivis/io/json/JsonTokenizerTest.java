@@ -0,0 +1,139 @@
+package org.ivis.io.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JsonTokenizerTest
+{
+	@Test
+	public void testTokens() throws Exception
+	{
+		JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(
+			"{\"a\": [1, \"b\", true, false, null], \"c\": {}}"));
+
+		assertEquals(JsonTokenizer.BEGIN_OBJECT, tokenizer.next());
+		assertEquals(JsonTokenizer.NAME, tokenizer.next());
+		assertTrue(tokenizer.textEquals("a"));
+		assertFalse(tokenizer.textEquals("ab"));
+		assertEquals(JsonTokenizer.BEGIN_ARRAY, tokenizer.next());
+		assertEquals(JsonTokenizer.NUMBER, tokenizer.next());
+		assertEquals(1, tokenizer.getNumber(), 0);
+
+		// strings in arrays are values, not names
+		assertEquals(JsonTokenizer.STRING, tokenizer.next());
+		assertEquals("b", tokenizer.getString());
+		assertEquals(JsonTokenizer.TRUE, tokenizer.next());
+		assertEquals(JsonTokenizer.FALSE, tokenizer.next());
+		assertEquals(JsonTokenizer.NULL, tokenizer.next());
+		assertEquals(JsonTokenizer.END_ARRAY, tokenizer.next());
+		assertEquals(JsonTokenizer.NAME, tokenizer.next());
+		assertEquals("c", tokenizer.getString());
+		assertEquals(JsonTokenizer.BEGIN_OBJECT, tokenizer.next());
+		assertEquals(JsonTokenizer.END_OBJECT, tokenizer.next());
+		assertEquals(JsonTokenizer.END_OBJECT, tokenizer.next());
+		assertEquals(JsonTokenizer.END_DOCUMENT, tokenizer.next());
+	}
+
+	@Test
+	public void testNumbers() throws Exception
+	{
+		String[] numbers = {"0", "-12", "3.25", "-0.5", "1e3", "2.5E-2",
+			"123456789012345678", "0.1000000000000000055511151231257827"};
+
+		for (String number : numbers)
+		{
+			JsonTokenizer tokenizer = new JsonTokenizer(
+				new StringReader("[" + number + "]"));
+
+			assertEquals(JsonTokenizer.BEGIN_ARRAY, tokenizer.next());
+			assertEquals(JsonTokenizer.NUMBER, tokenizer.next());
+			assertEquals(number, Double.parseDouble(number),
+				tokenizer.getNumber(), 0);
+			assertEquals(number, tokenizer.getString());
+		}
+	}
+
+	@Test
+	public void testEscapes() throws Exception
+	{
+		JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(
+			"[\"q\\\"b\\\\s\\/n\\nt\\tu\\u00e9\"]"));
+
+		tokenizer.next();
+		assertEquals(JsonTokenizer.STRING, tokenizer.next());
+		assertEquals("q\"b\\s/n\nt\tu\u00e9", tokenizer.getString());
+	}
+
+	@Test
+	public void testStringsAcrossBuffers() throws Exception
+	{
+		char[] chars = new char[20000];
+		Arrays.fill(chars, 'x');
+		chars[10000] = '\\';
+		chars[10001] = 'n';
+		String string = new String(chars);
+
+		JsonTokenizer tokenizer = new JsonTokenizer(
+			new StringReader("[\"" + string + "\", 7]"));
+
+		tokenizer.next();
+		assertEquals(JsonTokenizer.STRING, tokenizer.next());
+		assertEquals(string.replace("\\n", "\n"), tokenizer.getString());
+		assertEquals(JsonTokenizer.NUMBER, tokenizer.next());
+		assertEquals(7, tokenizer.getNumber(), 0);
+	}
+
+	@Test
+	public void testSkipValue() throws Exception
+	{
+		JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(
+			"{\"skipped\": {\"a\": [1, {\"b\": []}]}, \"kept\": 2}"));
+
+		tokenizer.next();
+		assertEquals(JsonTokenizer.NAME, tokenizer.next());
+		tokenizer.skipValue();
+		assertEquals(JsonTokenizer.NAME, tokenizer.next());
+		assertEquals("kept", tokenizer.getString());
+		assertEquals(JsonTokenizer.NUMBER, tokenizer.next());
+	}
+
+	@Test
+	public void testErrors() throws Exception
+	{
+		assertError("[x]");
+		assertError("[\"unterminated");
+		assertError("[\"\\q\"]");
+		assertError("[\"\\u12g4\"]");
+		assertError("[tru]");
+		assertError("[-]");
+		assertError("]");
+		assertError("{\"a\": [1, 2");
+	}
+
+	/**
+	 * Asserts that tokenizing or skipping the given document fails.
+	 */
+	private static void assertError(String json) throws Exception
+	{
+		JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(json));
+
+		try
+		{
+			tokenizer.skipValue();
+
+			while (tokenizer.next() != JsonTokenizer.END_DOCUMENT)
+			{
+			}
+
+			fail("Malformed document was tokenized: " + json);
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+}
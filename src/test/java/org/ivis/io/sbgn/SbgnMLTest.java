@@ -0,0 +1,295 @@
+package org.ivis.io.sbgn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.sbgn.SbgnPDConstants;
+import org.ivis.layout.sbgn.SbgnPDLayout;
+import org.ivis.layout.sbgn.SbgnProcessNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SbgnMLTest
+{
+	/**
+	 * A map with a process with ports, a complex, two compartments (one
+	 * referred to before it is declared) and an auxiliary glyph
+	 */
+	private static final String MAP =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<sbgn xmlns=\"http://sbgn.org/libsbgn/0.2\">\n" +
+		"<map language=\"process description\">\n" +
+		"<glyph id=\"comp\" class=\"compartment\">" +
+		"<label text=\"cytosol\"/>" +
+		"<bbox x=\"0\" y=\"0\" w=\"400\" h=\"300\"/></glyph>\n" +
+		"<glyph id=\"a\" class=\"macromolecule\" compartmentRef=\"comp\">" +
+		"<label text=\"A\"/><bbox x=\"10\" y=\"10\" w=\"60\" h=\"30\"/>" +
+		"<glyph id=\"a_sv\" class=\"state variable\"><state value=\"P\"/>" +
+		"<bbox x=\"5\" y=\"5\" w=\"10\" h=\"10\"/></glyph></glyph>\n" +
+		"<glyph id=\"cx\" class=\"complex\" compartmentRef=\"comp\">" +
+		"<bbox x=\"100\" y=\"100\" w=\"100\" h=\"100\"/>" +
+		"<glyph id=\"c1\" class=\"macromolecule multimer\">" +
+		"<bbox x=\"110\" y=\"110\" w=\"40\" h=\"20\"/></glyph>" +
+		"<glyph id=\"c2\" class=\"simple chemical\">" +
+		"<bbox x=\"110\" y=\"150\" w=\"20\" h=\"20\"/></glyph></glyph>\n" +
+		"<glyph id=\"p\" class=\"process\">" +
+		"<bbox x=\"500\" y=\"50\" w=\"20\" h=\"20\"/>" +
+		"<port id=\"p.1\" x=\"495\" y=\"60\"/>" +
+		"<port id=\"p.2\" x=\"525\" y=\"60\"/></glyph>\n" +
+		"<glyph id=\"b\" class=\"simple chemical\" compartmentRef=\"comp2\">" +
+		"<bbox x=\"600\" y=\"50\" w=\"20\" h=\"20\"/></glyph>\n" +
+		"<glyph id=\"comp2\" class=\"compartment\">" +
+		"<bbox x=\"580\" y=\"0\" w=\"100\" h=\"100\"/></glyph>\n" +
+		"<arc id=\"e1\" class=\"consumption\" source=\"a\" target=\"p.1\">" +
+		"<start x=\"70\" y=\"25\"/><next x=\"100\" y=\"40\"/>" +
+		"<end x=\"495\" y=\"60\"/></arc>\n" +
+		"<arc id=\"e2\" class=\"production\" source=\"p.2\" target=\"b\">" +
+		"<start x=\"525\" y=\"60\"/><end x=\"600\" y=\"60\"/></arc>\n" +
+		"<arc id=\"e3\" class=\"catalysis\" source=\"cx\" target=\"p\">" +
+		"<start x=\"150\" y=\"100\"/><end x=\"510\" y=\"70\"/></arc>\n" +
+		"</map>\n" +
+		"</sbgn>\n";
+
+	@Test
+	public void testRead() throws Exception
+	{
+		SbgnPDLayout layout = new SbgnPDLayout();
+		SbgnMLReader reader = new SbgnMLReader(layout);
+		LGraphManager gm = reader.read(new ByteArrayInputStream(
+			MAP.getBytes("UTF-8")));
+		Map<String, LNode> nodeMap = reader.getNodeMap();
+
+		// the state variable is not laid out
+		assertEquals(8, nodeMap.size());
+		assertNull(nodeMap.get("a_sv"));
+		assertEquals(8, gm.getAllNodes().length);
+		assertEquals(3, gm.getAllEdges().length);
+
+		LNode comp = nodeMap.get("comp");
+		LNode a = nodeMap.get("a");
+		assertSame(comp, a.getOwner().getParent());
+		assertSame(comp, nodeMap.get("cx").getOwner().getParent());
+		assertSame(nodeMap.get("comp2"), nodeMap.get("b").getOwner().getParent());
+		assertSame(nodeMap.get("cx"), nodeMap.get("c1").getOwner().getParent());
+		assertSame(nodeMap.get("cx"), nodeMap.get("c2").getOwner().getParent());
+
+		assertEquals(SbgnPDConstants.MACROMOLECULE, nodeMap.get("c1").type);
+		assertEquals(SbgnPDConstants.PROCESS, nodeMap.get("p").type);
+		assertEquals(10, a.getLeft(), 0);
+		assertEquals(10, a.getTop(), 0);
+		assertEquals(60, a.getWidth(), 0);
+		assertEquals(30, a.getHeight(), 0);
+
+		// arcs to and from ports are connected to the process
+		LEdge e1 = null;
+
+		for (Object obj : gm.getAllEdges())
+		{
+			LEdge edge = (LEdge) obj;
+
+			if ("e1".equals(edge.vGraphObject))
+			{
+				e1 = edge;
+			}
+		}
+
+		assertNotNull(e1);
+		assertSame(a, e1.getSource());
+		assertSame(nodeMap.get("p"), e1.getTarget());
+		assertEquals(SbgnPDConstants.CONSUMPTION, e1.type);
+
+		assertEquals(SbgnPDConstants.INPUT_PORT,
+			reader.getPortRoles().get("p.1"));
+		assertEquals(SbgnPDConstants.OUTPUT_PORT,
+			reader.getPortRoles().get("p.2"));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		SbgnPDLayout layout = new SbgnPDLayout();
+		SbgnMLReader reader = new SbgnMLReader(layout);
+		LGraphManager gm = reader.read(new ByteArrayInputStream(
+			MAP.getBytes("UTF-8")));
+
+		assertTrue(layout.runLayout());
+
+		Map<String, LNode> laidOut = new HashMap<String, LNode>();
+
+		for (Object obj : gm.getAllNodes())
+		{
+			LNode node = (LNode) obj;
+
+			if (node.vGraphObject instanceof String)
+			{
+				laidOut.put((String) node.vGraphObject, node);
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new SbgnMLWriter(reader.getPortRoles()).write(gm,
+			new ByteArrayInputStream(MAP.getBytes("UTF-8")), out);
+		byte[] written = out.toByteArray();
+
+		SbgnMLReader copyReader = new SbgnMLReader(new SbgnPDLayout());
+		copyReader.read(new ByteArrayInputStream(written));
+		Map<String, LNode> copies = copyReader.getNodeMap();
+		assertEquals(8, copies.size());
+		assertEquals(reader.getPortRoles(), copyReader.getPortRoles());
+
+		for (String id : new String[] {"comp", "a", "cx", "c1", "c2", "b"})
+		{
+			LNode node = laidOut.get(id);
+			LNode copy = copies.get(id);
+
+			assertEquals(id, node.getLeft(), copy.getLeft(), 0);
+			assertEquals(id, node.getTop(), copy.getTop(), 0);
+			assertEquals(id, node.getWidth(), copy.getWidth(), 0);
+			assertEquals(id, node.getHeight(), copy.getHeight(), 0);
+		}
+
+		// the state variable is moved along with its glyph
+		LNode a = laidOut.get("a");
+		Map<String, String> box = getAttributes(written, "a_sv", "bbox");
+		assertEquals(5 + a.getLeft() - 10,
+			Double.parseDouble(box.get("x")), 1e-9);
+		assertEquals(5 + a.getTop() - 10,
+			Double.parseDouble(box.get("y")), 1e-9);
+
+		// ports are placed at the port nodes of the process
+		SbgnProcessNode p = (SbgnProcessNode) laidOut.get("p");
+		Map<String, String> port = getAttributes(written, "p.1", null);
+		assertEquals(p.getInputPort().getCenterX(),
+			Double.parseDouble(port.get("x")), 0);
+		assertEquals(p.getInputPort().getCenterY(),
+			Double.parseDouble(port.get("y")), 0);
+		port = getAttributes(written, "p.2", null);
+		assertEquals(p.getOutputPort().getCenterX(),
+			Double.parseDouble(port.get("x")), 0);
+
+		// arcs are drawn straight from their new ends
+		Map<String, String> start = getAttributes(written, "e1", "start");
+		assertEquals(a.getCenterX(), Double.parseDouble(start.get("x")), 0);
+		assertEquals(a.getCenterY(), Double.parseDouble(start.get("y")), 0);
+		assertNull(getAttributes(written, "e1", "next"));
+	}
+
+	@Test
+	public void testMalformedInput() throws Exception
+	{
+		assertMalformed(MAP.replace("target=\"p.1\"", "target=\"missing\""));
+		assertMalformed(MAP.replace("<glyph id=\"b\"", "<glyph id=\"a\""));
+		assertMalformed(MAP.replace("<glyph id=\"comp2\"",
+			"<glyph id=\"comp3\""));
+		assertMalformed(MAP.replace(" class=\"complex\"", ""));
+		assertMalformed(MAP.replace("<glyph id=\"comp\" class=\"compartment\"",
+			"<glyph id=\"comp\" class=\"compartment\" compartmentRef=\"comp\""));
+		assertMalformed(MAP
+			.replace("<glyph id=\"comp\" class=\"compartment\"",
+				"<glyph id=\"comp\" class=\"compartment\" " +
+				"compartmentRef=\"comp2\"")
+			.replace("<glyph id=\"comp2\" class=\"compartment\"",
+				"<glyph id=\"comp2\" class=\"compartment\" " +
+				"compartmentRef=\"comp\""));
+		assertMalformed(MAP.replace("class=\"complex\" compartmentRef=\"comp\"",
+			"class=\"complex\" compartmentRef=\"c1\""));
+		assertMalformed(MAP.replace("w=\"60\"", "w=\"wide\""));
+		assertMalformed(MAP.substring(0, MAP.indexOf("<arc")));
+		assertMalformed("not a map");
+	}
+
+	private static void assertMalformed(final String map) throws Exception
+	{
+		TestUtils.assertMalformed(XMLStreamException.class,
+			new Callable<Object>()
+		{
+			public Object call() throws Exception
+			{
+				return new SbgnMLReader(new SbgnPDLayout()).read(
+					new ByteArrayInputStream(map.getBytes("UTF-8")));
+			}
+		});
+	}
+
+	/**
+	 * Returns the attributes of the element with the given id, or of its
+	 * first child element with the given name if a name is given; null if
+	 * there is no such element.
+	 */
+	private static Map<String, String> getAttributes(byte[] map, String id,
+		String childName) throws XMLStreamException
+	{
+		XMLStreamReader reader = XMLInputFactory.newInstance()
+			.createXMLStreamReader(new ByteArrayInputStream(map));
+		int depth = 0;
+		int foundDepth = -1;
+
+		try
+		{
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (depth-- == foundDepth)
+					{
+						return null;
+					}
+
+					continue;
+				}
+				else if (event != XMLStreamConstants.START_ELEMENT)
+				{
+					continue;
+				}
+
+				depth++;
+
+				if (foundDepth == -1 &&
+					id.equals(reader.getAttributeValue(null, "id")))
+				{
+					foundDepth = depth;
+
+					if (childName != null)
+					{
+						continue;
+					}
+				}
+				else if (foundDepth == -1 || depth != foundDepth + 1 ||
+					!reader.getLocalName().equals(childName))
+				{
+					continue;
+				}
+
+				Map<String, String> attributes = new HashMap<String, String>();
+
+				for (int i = 0; i < reader.getAttributeCount(); i++)
+				{
+					attributes.put(reader.getAttributeLocalName(i),
+						reader.getAttributeValue(i));
+				}
+
+				return attributes;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,105 @@
+package org.ivis.io.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.cose.CoSELayout;
+import org.ivis.util.PointD;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ViewXmlTest
+{
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph g1 = gm.addRoot();
+		LNode n1 = g1.add(layout.newNode("n1"));
+		LNode n2 = g1.add(layout.newNode("n2"));
+		LGraph g2 = gm.add(layout.newGraph("G2"), n2);
+		LNode n3 = g2.add(layout.newNode("n3"));
+		LNode n4 = g2.add(layout.newNode("n4"));
+		n3.type = "macromolecule";
+		n4.addCluster(2);
+		LEdge e1 = gm.add(layout.newEdge("e1-3"), n1, n3);
+		e1.getBendpoints().add(new PointD(5.5, -3));
+		g2.add(layout.newEdge("e3-4"), n3, n4);
+
+		layout.runLayout();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ViewWriter().write(gm, out);
+
+		Layout copy = new CoSELayout();
+		ViewReader reader = new ViewReader(copy);
+		LGraphManager copyGm =
+			reader.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(4, copyGm.getAllNodes().length);
+		assertEquals(2, copyGm.getAllEdges().length);
+		assertEquals(1, copyGm.getInterGraphEdges().size());
+
+		LNode copy3 = reader.getNodeMap().get("n3");
+		assertSame(reader.getNodeMap().get("n2"), copy3.getOwner().getParent());
+		assertEquals("macromolecule", copy3.type);
+		assertEquals(1, reader.getNodeMap().get("n4").getClusters().size());
+		assertEquals(n3.getLeft(), copy3.getLeft(), 0);
+		assertEquals(n3.getTop(), copy3.getTop(), 0);
+		assertEquals(n3.getWidth(), copy3.getWidth(), 0);
+
+		LEdge copy1 = (LEdge) copyGm.getInterGraphEdges().get(0);
+		assertSame(copy3, copy1.getTarget());
+		assertEquals(e1.getBendpoints().size(), copy1.getBendpoints().size());
+	}
+
+	/**
+	 * Nodes without string ids are given ids of their own, rather than their
+	 * labels, which differ from the ids in use.
+	 */
+	@Test
+	public void testGeneratedIds() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph g1 = gm.addRoot();
+		LNode n1 = g1.add(layout.newNode(null));
+		LNode n2 = g1.add(layout.newNode(null));
+		LNode n3 = g1.add(layout.newNode("_n0"));
+		n1.label = "same";
+		n2.label = "same";
+		n1.setLocation(10, 20);
+		g1.add(layout.newEdge(null), n1, n2);
+		g1.add(layout.newEdge("_e1"), n2, n3);
+		g1.add(layout.newEdge(null), n3, n1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ViewWriter().write(gm, out);
+
+		Layout copy = new CoSELayout();
+		ViewReader reader = new ViewReader(copy);
+		LGraphManager copyGm =
+			reader.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(3, reader.getNodeMap().size());
+		assertNull(reader.getNodeMap().get("same"));
+		assertEquals(3, copyGm.getAllEdges().length);
+
+		LNode copy3 = reader.getNodeMap().get("_n0");
+		LEdge copy1 = (LEdge) copyGm.getRoot().getEdges().get(0);
+		LEdge copy2 = (LEdge) copyGm.getRoot().getEdges().get(1);
+		LEdge copy3To1 = (LEdge) copyGm.getRoot().getEdges().get(2);
+		assertSame(copy1.getSource(), copy3To1.getTarget());
+		assertSame(copy3, copy2.getTarget());
+		assertEquals(10, copy1.getSource().getLeft(), 0);
+		assertEquals("_e1", copy2.vGraphObject);
+		assertNotEquals("_e1", copy1.vGraphObject);
+		assertNotEquals(copy1.vGraphObject, copy3To1.vGraphObject);
+	}
+}
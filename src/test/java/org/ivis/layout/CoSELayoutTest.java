@@ -1,9 +1,20 @@
 package org.ivis.layout;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.ivis.layout.cose.CoSEEdge;
+import org.ivis.layout.cose.CoSEGraphManager;
 import org.ivis.layout.cose.CoSELayout;
 import org.ivis.layout.cose.CoSENode;
+import org.ivis.layout.fd.FDLayout;
+import org.ivis.layout.fd.FDLayoutEdge;
+import org.ivis.layout.fd.FDLayoutNode;
+import org.ivis.layout.fd.ForceModel;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  * CoSELayout tester
@@ -36,4 +47,568 @@ public class CoSELayoutTest
 
 		layout.runLayout();
 	}
+
+	/**
+	 * A compound with a leaf whose neighbors are matched before it, along
+	 * with an isolated member, is coarsened without failing.
+	 */
+	@Test
+	public void testMultiLevelCompoundWithIsolatedMember() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode c = root.add(layout.newNode("c"));
+		LGraph g = gm.add(layout.newGraph("G"), c);
+		LNode x = g.add(layout.newNode("x"));
+		LNode y = g.add(layout.newNode("y"));
+		LNode z = g.add(layout.newNode("z"));
+		LNode iso = g.add(layout.newNode("iso"));
+		g.add(layout.newEdge("x-y"), x, y);
+		g.add(layout.newEdge("x-z"), x, z);
+
+		LayoutOptionsPack.CoSE options = LayoutOptionsPack.getInstance().getCoSE();
+		boolean multiLevelScaling = options.multiLevelScaling;
+		options.multiLevelScaling = true;
+
+		try
+		{
+			assertTrue(layout.runLayout());
+		}
+		finally
+		{
+			options.multiLevelScaling = multiLevelScaling;
+		}
+
+		assertEquals(4, g.getNodes().size());
+	}
+
+	/**
+	 * Multi-level scaling refines each level finer than the coarsest with a
+	 * smaller iteration budget, so that it takes fewer iterations in total
+	 * than with the full budget at every level.
+	 */
+	@Test
+	public void testMultiLevelIterationBudget() throws Exception
+	{
+		IterationCountingLayout budgeted = new IterationCountingLayout(true);
+		createRandomGraph(budgeted, 300, 60);
+		IterationCountingLayout unbudgeted = new IterationCountingLayout(false);
+		createRandomGraph(unbudgeted, 300, 60);
+
+		LayoutOptionsPack.CoSE options = LayoutOptionsPack.getInstance().getCoSE();
+		boolean multiLevelScaling = options.multiLevelScaling;
+		options.multiLevelScaling = true;
+
+		try
+		{
+			assertTrue(budgeted.runLayout());
+			assertTrue(unbudgeted.runLayout());
+		}
+		finally
+		{
+			options.multiLevelScaling = multiLevelScaling;
+		}
+
+		int levelCount = budgeted.levelIterations.size();
+		int fullBudget = budgeted.levelBudgets.get(0);
+		assertTrue(levelCount > 2);
+
+		// levels are laid out from the coarsest to the finest
+		for (int i = 0; i < levelCount; i++)
+		{
+			assertTrue(budgeted.levelIterations.get(i) <=
+				budgeted.levelBudgets.get(i));
+
+			if (i > 0)
+			{
+				assertTrue(budgeted.levelBudgets.get(i) < fullBudget);
+			}
+		}
+
+		assertTrue(budgeted.getIterationCount() <
+			unbudgeted.getIterationCount() * 3 / 4);
+	}
+
+	/**
+	 * A layout reset after laying out a large graph lays out a small one with
+	 * the iteration budget of a new layout.
+	 */
+	@Test
+	public void testReset() throws Exception
+	{
+		IterationCountingLayout layout = new IterationCountingLayout(true);
+		createRandomGraph(layout, 600, 0);
+		LGraphManager first = layout.getGraphManager();
+		assertTrue(layout.runLayout());
+
+		layout.reset();
+		assertNotSame(first, layout.getGraphManager());
+		assertNull(layout.getGraphManager().getRoot());
+
+		LNode[] nodes = createCoarsenableGraph(layout);
+		assertTrue(layout.runLayout());
+
+		IterationCountingLayout fresh = new IterationCountingLayout(true);
+		createCoarsenableGraph(fresh);
+		assertTrue(fresh.runLayout());
+
+		assertTrue(layout.levelBudgets.get(0) > fresh.levelBudgets.get(0));
+		assertEquals(fresh.levelBudgets.get(0), layout.levelBudgets.get(1));
+		assertEquals(nodes.length, layout.getGraphManager().getAllNodes().length);
+
+		for (LNode node : nodes)
+		{
+			assertSame(layout.getGraphManager(),
+				node.getOwner().getGraphManager());
+		}
+	}
+
+	/**
+	 * Creates a connected flat graph with the given number of nodes: a random
+	 * spanning tree and the given number of additional random edges.
+	 */
+	private static void createRandomGraph(CoSELayout layout, int nodeCount,
+		int extraEdgeCount)
+	{
+		LGraph root = layout.getGraphManager().addRoot();
+		Random random = new Random(7);
+		LNode[] nodes = new LNode[nodeCount];
+
+		for (int i = 0; i < nodeCount; i++)
+		{
+			nodes[i] = root.add(layout.newNode("n" + i));
+
+			if (i > 0)
+			{
+				root.add(layout.newEdge(null), nodes[random.nextInt(i)],
+					nodes[i]);
+			}
+		}
+
+		for (int i = 0; i < extraEdgeCount; i++)
+		{
+			LNode source = nodes[random.nextInt(nodeCount)];
+			LNode target = nodes[random.nextInt(nodeCount)];
+
+			if (source != target && source.getEdgeListToNode(target).isEmpty())
+			{
+				root.add(layout.newEdge(null), source, target);
+			}
+		}
+	}
+
+	/**
+	 * Records the iterations and the iteration budget of each spring embedder
+	 * run, one per level during multi-level scaling.
+	 */
+	private static class IterationCountingLayout extends CoSELayout
+	{
+		/**
+		 * Whether levels finer than the coarsest get a smaller budget; if
+		 * not, each level gets the budget of a single-level layout
+		 */
+		boolean budgeted;
+
+		List<Integer> levelIterations = new ArrayList<Integer>();
+		List<Integer> levelBudgets = new ArrayList<Integer>();
+
+		IterationCountingLayout(boolean budgeted)
+		{
+			this.budgeted = budgeted;
+		}
+
+		public void initSpringEmbedder()
+		{
+			int budget = this.maxIterations;
+			super.initSpringEmbedder();
+
+			if (!this.budgeted)
+			{
+				this.maxIterations =
+					Math.max(getAllNodes().length * 5, budget);
+			}
+		}
+
+		int getIterationCount()
+		{
+			int count = 0;
+
+			for (int iterations : this.levelIterations)
+			{
+				count += iterations;
+			}
+
+			return count;
+		}
+
+		public void runSpringEmbedder()
+		{
+			super.runSpringEmbedder();
+			this.levelIterations.add(getTotalIterations());
+			this.levelBudgets.add(this.maxIterations);
+		}
+	}
+
+	/**
+	 * Creates a graph whose coarsening does not depend on the iteration
+	 * order of neighbor sets: leaves have at most one neighbor in their own
+	 * graph. It has isolated compound members and a collapsible compound.
+	 */
+	private static LNode[] createCoarsenableGraph(CoSELayout layout)
+	{
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode a1 = root.add(layout.newNode("a1"));
+		LNode a2 = root.add(layout.newNode("a2"));
+		LNode b1 = root.add(layout.newNode("b1"));
+		LNode b2 = root.add(layout.newNode("b2"));
+		LNode c = root.add(layout.newNode("c"));
+		LGraph cGraph = gm.add(layout.newGraph("C"), c);
+		LNode c1 = cGraph.add(layout.newNode("c1"));
+		LNode c2 = cGraph.add(layout.newNode("c2"));
+		LNode c3 = cGraph.add(layout.newNode("c3"));
+		LNode c4 = cGraph.add(layout.newNode("c4"));
+		LNode d = root.add(layout.newNode("d"));
+		LGraph dGraph = gm.add(layout.newGraph("D"), d);
+		LNode d1 = dGraph.add(layout.newNode("d1"));
+		root.add(layout.newEdge(null), a1, a2);
+		root.add(layout.newEdge(null), b1, b2);
+		root.add(layout.newEdge(null), b2, d);
+		cGraph.add(layout.newEdge(null), c1, c2);
+		gm.add(layout.newEdge(null), a1, c1);
+		gm.add(layout.newEdge(null), d1, c3);
+
+		LNode[] nodes = {a1, a2, b1, b2, c, c1, c2, c3, c4, d, d1};
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i].setLocation(10 * i, 100 - 5 * i);
+		}
+
+		return nodes;
+	}
+
+	/**
+	 * A coarsening hierarchy reused after node sizes and locations change
+	 * has the geometry of one built from scratch.
+	 */
+	@Test
+	public void testCoarseningHierarchyReuse() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LNode[] nodes = createCoarsenableGraph(layout);
+		CoSEGraphManager gm = (CoSEGraphManager) layout.getGraphManager();
+		List<CoSEGraphManager> first = gm.coarsenGraph();
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i].setWidth(20 + 3 * i);
+			nodes[i].setHeight(50 - 2 * i);
+			nodes[i].setLocation(7 * i, 3 * i * i);
+		}
+
+		List<CoSEGraphManager> reused = gm.coarsenGraph();
+		assertEquals(first.size(), reused.size());
+		assertTrue(reused.size() > 1);
+
+		for (int i = 0; i < first.size(); i++)
+		{
+			assertSame(first.get(i), reused.get(i));
+		}
+
+		CoSELayout freshLayout = new CoSELayout();
+		LNode[] freshNodes = createCoarsenableGraph(freshLayout);
+
+		for (int i = 0; i < freshNodes.length; i++)
+		{
+			freshNodes[i].setWidth(nodes[i].getWidth());
+			freshNodes[i].setHeight(nodes[i].getHeight());
+			freshNodes[i].setLocation(nodes[i].getLeft(), nodes[i].getTop());
+		}
+
+		List<CoSEGraphManager> fresh =
+			((CoSEGraphManager) freshLayout.getGraphManager()).coarsenGraph();
+		assertEquals(fresh.size(), reused.size());
+
+		for (int level = 1; level < fresh.size(); level++)
+		{
+			Object[] freshLevel = fresh.get(level).getAllNodes();
+			Object[] reusedLevel = reused.get(level).getAllNodes();
+			assertEquals(freshLevel.length, reusedLevel.length);
+
+			for (int i = 0; i < freshLevel.length; i++)
+			{
+				LNode freshNode = (LNode) freshLevel[i];
+				LNode reusedNode = (LNode) reusedLevel[i];
+
+				assertEquals(freshNode.getLeft(), reusedNode.getLeft(), 0);
+				assertEquals(freshNode.getTop(), reusedNode.getTop(), 0);
+				assertEquals(freshNode.getWidth(), reusedNode.getWidth(), 0);
+				assertEquals(freshNode.getHeight(), reusedNode.getHeight(), 0);
+			}
+		}
+
+		// a topology change rebuilds the hierarchy
+		gm.getRoot().add(layout.newNode("e"));
+		assertNotSame(first.get(1), gm.coarsenGraph().get(1));
+	}
+
+	/**
+	 * The flat forest check agrees with the forest found, and fails once a
+	 * cycle is closed.
+	 */
+	@Test
+	public void testFlatForest() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LNode[] path = TestUtils.createPath(layout, 5);
+		layout.getGraphManager().getRoot().add(layout.newNode("single"));
+
+		assertTrue(layout.isFlatForest());
+		List<List<LNode>> forest = layout.getFlatForest();
+		assertEquals(2, forest.size());
+		assertEquals(5, forest.get(0).size());
+
+		layout.getGraphManager().getRoot().add(layout.newEdge(null),
+			path[4], path[0]);
+		assertFalse(layout.isFlatForest());
+		assertEquals(0, layout.getFlatForest().size());
+	}
+
+	/**
+	 * The center of a tree is the middle of its longest path, which is not
+	 * necessarily the node of the highest degree.
+	 */
+	@Test
+	public void testCenterOfSmallTrees() throws Exception
+	{
+		assertNull(Layout.findCenterOfTree(new ArrayList<LNode>()));
+
+		LNode[] pair = TestUtils.createPath(new CoSELayout(), 2);
+		assertSame(pair[0], Layout.findCenterOfTree(Arrays.asList(pair)));
+
+		LNode[] path = TestUtils.createPath(new CoSELayout(), 5);
+		assertSame(path[2], Layout.findCenterOfTree(Arrays.asList(path)));
+
+		// a hub with two leaves and a leg of three nodes
+		CoSELayout layout = new CoSELayout();
+		LNode[] leg = TestUtils.createPath(layout, 4);
+		LGraph root = layout.getGraphManager().getRoot();
+		LNode leaf1 = root.add(layout.newNode("leaf1"));
+		LNode leaf2 = root.add(layout.newNode("leaf2"));
+		root.add(layout.newEdge(null), leg[0], leaf1);
+		root.add(layout.newEdge(null), leg[0], leaf2);
+
+		List<LNode> nodes = new ArrayList<LNode>(Arrays.asList(leg));
+		nodes.add(leaf1);
+		nodes.add(leaf2);
+		assertSame(leg[1], Layout.findCenterOfTree(nodes));
+	}
+
+	/**
+	 * A long path is placed radially without overflowing the call stack,
+	 * each node farther from the center than the previous one.
+	 */
+	@Test
+	public void testRadialPlacementOfLongPath() throws Exception
+	{
+		RadialLayout layout = new RadialLayout();
+		LNode[] path = TestUtils.createPath(layout, 100000);
+		layout.positionRadially();
+
+		LNode center = path[path.length / 2];
+		double previous = 0;
+
+		for (int i = path.length / 2 + 1; i < path.length; i++)
+		{
+			double dx = path[i].getCenterX() - center.getCenterX();
+			double dy = path[i].getCenterY() - center.getCenterY();
+			double distance = Math.sqrt(dx * dx + dy * dy);
+			assertTrue(distance > previous);
+			previous = distance;
+		}
+	}
+
+	/**
+	 * A layout that only places the nodes of its flat forest radially
+	 */
+	private static class RadialLayout extends CoSELayout
+	{
+		void positionRadially()
+		{
+			positionNodesRadially(getFlatForest());
+		}
+	}
+
+	/**
+	 * An empty diff keeps the previous drawing rather than pinning every
+	 * node.
+	 */
+	@Test
+	public void testWarmStartWithEmptyDiff() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LNode[] path = TestUtils.createPath(layout, 6);
+		assertTrue(layout.runLayout());
+
+		double x = path[3].getCenterX();
+		double y = path[3].getCenterY();
+
+		layout.setGraphDiff(new GraphDiff());
+		assertTrue(layout.runLayout());
+		assertNull(layout.getGraphDiff());
+		assertEquals(x, path[3].getCenterX(), 0);
+		assertEquals(y, path[3].getCenterY(), 0);
+	}
+
+	/**
+	 * Nodes beyond the incremental radius of the changes stay where they
+	 * were, and added nodes are placed near their neighbors.
+	 */
+	@Test
+	public void testWarmStartAfterAddingNode() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LNode[] path = TestUtils.createPath(layout, 10);
+		assertTrue(layout.runLayout());
+
+		double[] xs = new double[path.length];
+		double[] ys = new double[path.length];
+
+		for (int i = 0; i < path.length; i++)
+		{
+			xs[i] = path[i].getCenterX();
+			ys[i] = path[i].getCenterY();
+		}
+
+		LGraph root = layout.getGraphManager().getRoot();
+		LNode added = root.add(layout.newNode("added"));
+		LEdge edge = root.add(layout.newEdge(null), path[0], added);
+		GraphDiff diff = new GraphDiff();
+		diff.addNode(added);
+		diff.addEdge(edge);
+
+		layout.incrementalRadius = 2;
+		layout.setGraphDiff(diff);
+		assertTrue(layout.runLayout());
+
+		// path[0] and the added node are changed, path[3] is 3 edges away;
+		// the drawing as a whole is moved to the origin after layout, so
+		// positions are compared relative to the last node
+		LNode last = path[path.length - 1];
+		double dx = last.getCenterX() - xs[path.length - 1];
+		double dy = last.getCenterY() - ys[path.length - 1];
+
+		for (int i = 3; i < path.length; i++)
+		{
+			assertEquals(xs[i] + dx, path[i].getCenterX(), 1e-9);
+			assertEquals(ys[i] + dy, path[i].getCenterY(), 1e-9);
+		}
+
+		double distance = Math.hypot(
+			added.getCenterX() - path[0].getCenterX(),
+			added.getCenterY() - path[0].getCenterY());
+		assertTrue("added node is " + distance + " away from its neighbor",
+			distance < 3 * layout.idealEdgeLength);
+	}
+
+	/**
+	 * A force model outside the layout package, repelling only the nodes
+	 * within the repulsion range of each other, is used by the layout.
+	 */
+	@Test
+	public void testCustomForceModel() throws Exception
+	{
+		CoSELayout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode[] nodes = new LNode[10];
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i] = root.add(layout.newNode("n" + i));
+			nodes[i].setWidth(30);
+			nodes[i].setHeight(30);
+
+			if (i > 0)
+			{
+				gm.add(layout.newEdge(null), nodes[i - 1], nodes[i]);
+			}
+		}
+
+		CutoffForceModel model = new CutoffForceModel();
+		layout.forceModel = model;
+		assertTrue(layout.runLayout());
+
+		assertTrue(model.springCount > 0);
+		assertTrue(model.repulsionCount > 0);
+
+		// repulsion kept the nodes from overlapping
+		for (int i = 0; i < nodes.length; i++)
+		{
+			for (int j = i + 1; j < nodes.length; j++)
+			{
+				assertFalse(nodes[i].getRect().intersects(nodes[j].getRect()));
+			}
+		}
+	}
+
+	private static class CutoffForceModel implements ForceModel
+	{
+		int springCount;
+		int repulsionCount;
+
+		public void calcSpringForces(FDLayout layout)
+		{
+			for (Object o : layout.getAllEdges())
+			{
+				FDLayoutEdge edge = (FDLayoutEdge) o;
+
+				if (layout.appliesSpringForce(edge))
+				{
+					layout.calcSpringForce(edge, edge.idealLength);
+					springCount++;
+				}
+			}
+		}
+
+		public void calcRepulsionForces(FDLayout layout)
+		{
+			Object[] nodes = layout.getAllNodes();
+			double range = layout.getRepulsionRange();
+
+			for (int i = 0; i < nodes.length; i++)
+			{
+				FDLayoutNode nodeA = (FDLayoutNode) nodes[i];
+
+				for (int j = i + 1; j < nodes.length; j++)
+				{
+					FDLayoutNode nodeB = (FDLayoutNode) nodes[j];
+
+					if (nodeA.getOwner() == nodeB.getOwner() &&
+						Math.abs(nodeA.getCenterX() - nodeB.getCenterX()) < range &&
+						Math.abs(nodeA.getCenterY() - nodeB.getCenterY()) < range &&
+						layout.appliesRepulsionForce(nodeA, nodeB))
+					{
+						layout.calcRepulsionForce(nodeA, nodeB);
+						repulsionCount++;
+					}
+				}
+			}
+		}
+
+		public void calcGravitationalForces(FDLayout layout)
+		{
+			for (Object o : layout.getAllNodesToApplyGravitation())
+			{
+				FDLayoutNode node = (FDLayoutNode) o;
+
+				if (layout.appliesGravitationForce(node))
+				{
+					layout.calcGravitationalForce(node);
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -1,6 +1,15 @@
 package org.ivis.layout;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ivis.layout.sbgn.SbgnPDConstants;
+import org.ivis.layout.fd.FDLayoutConstants;
+import org.ivis.layout.fd.FDLayoutEdge;
 import org.ivis.layout.sbgn.SbgnPDLayout;
+import org.ivis.layout.sbgn.SbgnPDNode;
+import org.ivis.layout.sbgn.SbgnProcessNode;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -40,4 +49,186 @@ public class SbgnPDLayoutTest
 		//TODO: write a real test and assertions
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testLayoutWithProcesses() throws Exception
+	{
+		SbgnPDLayout layout = new SbgnPDLayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode m1 = addNode(layout, root, "m1", SbgnPDConstants.MACROMOLECULE);
+		LNode m2 = addNode(layout, root, "m2", SbgnPDConstants.MACROMOLECULE);
+		LNode m3 = addNode(layout, root, "m3", SbgnPDConstants.SIMPLE_CHEMICAL);
+		LNode m4 = addNode(layout, root, "m4", SbgnPDConstants.MACROMOLECULE);
+		LNode p1 = addNode(layout, root, "p1", SbgnPDConstants.PROCESS);
+		LNode p2 = addNode(layout, root, "p2", SbgnPDConstants.PROCESS);
+		addEdge(layout, m1, p1, SbgnPDConstants.CONSUMPTION);
+		addEdge(layout, p1, m2, SbgnPDConstants.PRODUCTION);
+		addEdge(layout, m3, p1, SbgnPDConstants.CATALYSIS);
+		addEdge(layout, m2, p2, SbgnPDConstants.CONSUMPTION);
+		addEdge(layout, p2, m4, SbgnPDConstants.PRODUCTION);
+
+		layout.runLayout();
+
+		assertEquals(2, layout.processNodeList.size());
+
+		// process nodes are replaced, their ports are kept in the same graph
+		gm.resetAllNodes();
+		gm.resetAllEdges();
+		assertEquals(10, gm.getAllNodes().length);
+		assertFalse(root.getNodes().contains(p1));
+		assertFalse(root.getNodes().contains(p2));
+
+		for (SbgnProcessNode process : layout.processNodeList)
+		{
+			assertSame(root, process.getOwner());
+			assertSame(root, process.getInputPort().getOwner());
+			assertSame(root, process.getOutputPort().getOwner());
+			assertTrue(process.getInputPort().getEdges().size() > 1);
+			assertTrue(process.getOutputPort().getEdges().size() > 1);
+		}
+
+		// each edge is known by its end nodes, which are in their graphs
+		assertEquals(9, gm.getAllEdges().length);
+		for (Object o : gm.getAllEdges())
+		{
+			LEdge edge = (LEdge) o;
+			assertTrue(edge.getSource().getOwner().getNodes()
+				.contains(edge.getSource()));
+			assertTrue(edge.getTarget().getOwner().getNodes()
+				.contains(edge.getTarget()));
+			assertTrue(edge.getSource().getEdges().contains(edge));
+			assertTrue(edge.getTarget().getEdges().contains(edge));
+		}
+
+		assertTrue(m1.getEdges().size() == 1 && m4.getEdges().size() == 1);
+		assertTrue(m2.getEdges().size() == 2 && m3.getEdges().size() == 1);
+	}
+
+	@Test
+	public void testForcePredicates()
+	{
+		SbgnPDLayout layout = new SbgnPDLayout();
+		LGraph root = layout.getGraphManager().addRoot();
+		SbgnPDNode m1 = (SbgnPDNode) addNode(layout, root, "m1",
+			SbgnPDConstants.MACROMOLECULE);
+		SbgnPDNode m2 = (SbgnPDNode) addNode(layout, root, "m2",
+			SbgnPDConstants.MACROMOLECULE);
+		SbgnPDNode port = (SbgnPDNode) addNode(layout, root, "port",
+			SbgnPDConstants.OUTPUT_PORT);
+		SbgnPDNode untyped = (SbgnPDNode) addNode(layout, root, "u", null);
+
+		for (Object o : root.getNodes())
+		{
+			((SbgnPDNode) o).resolveTypeFlags();
+		}
+
+		// ports are not repelled by nodes having a type
+		assertTrue(layout.appliesRepulsionForce(m1, m2));
+		assertFalse(layout.appliesRepulsionForce(m1, port));
+		assertFalse(layout.appliesRepulsionForce(port, m2));
+		assertTrue(layout.appliesRepulsionForce(untyped, port));
+
+		FDLayoutEdge consumption = (FDLayoutEdge) addEdge(layout, m1, port,
+			SbgnPDConstants.CONSUMPTION);
+		FDLayoutEdge rigid = (FDLayoutEdge) addEdge(layout, port, m2,
+			SbgnPDConstants.RIGID_EDGE);
+		assertTrue(layout.appliesSpringForce(consumption));
+		assertFalse(layout.appliesSpringForce(rigid));
+
+		// nor are pinned nodes by each other
+		m1.mobility = 0.0;
+		assertTrue(layout.appliesRepulsionForce(m1, m2));
+		m2.mobility = 0.0;
+		assertFalse(layout.appliesRepulsionForce(m1, m2));
+		assertFalse(layout.appliesGravitationForce(m1));
+		assertTrue(layout.appliesGravitationForce(untyped));
+	}
+
+	/**
+	 * Phase 2 runs until all edges of processes are properly oriented or its
+	 * budget is used up, unless it is set to stop once neither the
+	 * orientation nor the forces improve.
+	 */
+	@Test
+	public void testPhase2PlateauStop() throws Exception
+	{
+		SbgnPDLayout full = new SbgnPDLayout();
+		createPathway(full, 25);
+		assertEquals(0, full.phase2PlateauCheckCount);
+		assertTrue(full.runLayout());
+
+		// no gain is large enough, so that phase 2 stops after the first
+		// check and the given number of checks without progress
+		SbgnPDLayout plateau = new SbgnPDLayout();
+		createPathway(plateau, 25);
+		plateau.phase2PlateauCheckCount = 3;
+		plateau.phase2MinGain = 1;
+		assertTrue(plateau.runLayout());
+
+		assertTrue(plateau.phase2IterationCount <=
+			4 * FDLayoutConstants.CONVERGENCE_CHECK_PERIOD);
+		assertTrue(full.phase2IterationCount >
+			4 * FDLayoutConstants.CONVERGENCE_CHECK_PERIOD);
+	}
+
+	/**
+	 * Creates a network of the given number of processes, each consuming two
+	 * random species of the network, producing a new one and catalyzed by a
+	 * random macromolecule.
+	 */
+	private static void createPathway(SbgnPDLayout layout, int processCount)
+	{
+		LGraph root = layout.getGraphManager().addRoot();
+		Random random = new Random(11);
+		List<LNode> species = new ArrayList<LNode>();
+		List<LNode> enzymes = new ArrayList<LNode>();
+
+		for (int i = 0; i < 3; i++)
+		{
+			species.add(addNode(layout, root, "s" + i,
+				SbgnPDConstants.SIMPLE_CHEMICAL));
+			enzymes.add(addNode(layout, root, "e" + i,
+				SbgnPDConstants.MACROMOLECULE));
+		}
+
+		for (int i = 0; i < processCount; i++)
+		{
+			LNode process = addNode(layout, root, "p" + i,
+				SbgnPDConstants.PROCESS);
+			LNode input1 = species.get(random.nextInt(species.size()));
+			LNode input2 = species.get(random.nextInt(species.size()));
+			addEdge(layout, input1, process, SbgnPDConstants.CONSUMPTION);
+
+			if (input2 != input1)
+			{
+				addEdge(layout, input2, process, SbgnPDConstants.CONSUMPTION);
+			}
+
+			LNode output = addNode(layout, root, "s" + (i + 3),
+				SbgnPDConstants.SIMPLE_CHEMICAL);
+			addEdge(layout, process, output, SbgnPDConstants.PRODUCTION);
+			species.add(output);
+			addEdge(layout, enzymes.get(random.nextInt(enzymes.size())),
+				process, SbgnPDConstants.CATALYSIS);
+		}
+	}
+
+	private static LNode addNode(Layout layout, LGraph graph, String label,
+		String type)
+	{
+		LNode node = graph.add(layout.newNode(label));
+		node.type = type;
+		node.setWidth(40);
+		node.setHeight(40);
+		return node;
+	}
+
+	private static LEdge addEdge(Layout layout, LNode source, LNode target,
+		String type)
+	{
+		LEdge edge = source.getOwner().getGraphManager().add(
+			layout.newEdge(null), source, target);
+		edge.type = type;
+		return edge;
+	}
+}
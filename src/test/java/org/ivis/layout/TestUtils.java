@@ -1,8 +1,12 @@
 package org.ivis.layout;
 
+import java.util.concurrent.Callable;
+
 import org.ivis.layout.cose.CoSEEdge;
 import org.ivis.layout.cose.CoSENode;
 
+import static org.junit.Assert.fail;
+
 /**
  * Created by igor on 10/05/17.
  */
@@ -60,4 +64,54 @@ public final class TestUtils {
         }
         return true;
     }
+
+    /**
+     * Creates a path of the given number of nodes in a new root graph of the
+     * given layout.
+     */
+    public static LNode[] createPath(Layout layout, int length)
+    {
+        return createPath(layout, layout.getGraphManager().addRoot(), length);
+    }
+
+    /**
+     * Creates a path of the given number of nodes in the given graph.
+     */
+    public static LNode[] createPath(Layout layout, LGraph graph, int length)
+    {
+        LNode[] path = new LNode[length];
+
+        for (int i = 0; i < length; i++)
+        {
+            path[i] = graph.add(layout.newNode(null));
+
+            if (i > 0)
+            {
+                graph.add(layout.newEdge(null), path[i - 1], path[i]);
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * Asserts that reading malformed input fails with an exception of the
+     * given type.
+     */
+    public static void assertMalformed(Class<? extends Exception> type,
+        Callable<?> read) throws Exception
+    {
+        try
+        {
+            read.call();
+            fail("Malformed input was read");
+        }
+        catch (Exception e)
+        {
+            if (!type.isInstance(e))
+            {
+                throw e;
+            }
+        }
+    }
 }
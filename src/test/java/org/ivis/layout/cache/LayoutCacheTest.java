@@ -0,0 +1,250 @@
+package org.ivis.layout.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.ivis.layout.GraphDiff;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.cose.CoSELayout;
+import org.ivis.layout.fd.DefaultForceModel;
+import org.ivis.layout.sbgn.SbgnPDLayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * LayoutCache, MemoryLayoutStore and DiskLayoutStore tester
+ */
+public class LayoutCacheTest
+{
+	/**
+	 * Creates a small compound graph, the same for each call, in the given
+	 * layout and returns its nodes in the order they are created.
+	 */
+	private static LNode[] createGraph(CoSELayout layout)
+	{
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode n1 = root.add(layout.newNode("n1"));
+		LNode n2 = root.add(layout.newNode("n2"));
+		LNode c = root.add(layout.newNode("c"));
+		LGraph g = gm.add(layout.newGraph("G"), c);
+		LNode n3 = g.add(layout.newNode("n3"));
+		LNode n4 = g.add(layout.newNode("n4"));
+		root.add(layout.newEdge("e1-2"), n1, n2);
+		g.add(layout.newEdge("e3-4"), n3, n4);
+		gm.add(layout.newEdge("e1-3"), n1, n3);
+
+		return new LNode[] { n1, n2, c, n3, n4 };
+	}
+
+	@Test
+	public void testHitRestoresLayout() throws Exception
+	{
+		LayoutCache cache = new LayoutCache(new MemoryLayoutStore(1 << 20));
+
+		CoSELayout first = new CoSELayout();
+		LNode[] firstNodes = createGraph(first);
+		String key = cache.computeKey(first);
+		assertTrue(cache.runLayout(first));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		CoSELayout second = new CoSELayout();
+		LNode[] secondNodes = createGraph(second);
+		assertEquals(key, cache.computeKey(second));
+		assertTrue(cache.runLayout(second));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		for (int i = 0; i < firstNodes.length; i++)
+		{
+			assertEquals(firstNodes[i].getLeft(), secondNodes[i].getLeft(), 0);
+			assertEquals(firstNodes[i].getTop(), secondNodes[i].getTop(), 0);
+			assertEquals(firstNodes[i].getWidth(), secondNodes[i].getWidth(), 0);
+			assertEquals(firstNodes[i].getHeight(),
+				secondNodes[i].getHeight(), 0);
+		}
+	}
+
+	@Test
+	public void testStructureAndSettingsChangeKey() throws Exception
+	{
+		LayoutCache cache = new LayoutCache(new MemoryLayoutStore(1 << 20));
+
+		CoSELayout layout = new CoSELayout();
+		LNode[] nodes = createGraph(layout);
+		String key = cache.computeKey(layout);
+
+		nodes[1].setWidth(nodes[1].getWidth() + 1);
+		String resizedKey = cache.computeKey(layout);
+		assertNotEquals(key, resizedKey);
+
+		layout.incrementalRadius++;
+		assertNotEquals(resizedKey, cache.computeKey(layout));
+
+		SbgnPDLayout sbgnLayout = new SbgnPDLayout();
+		sbgnLayout.getGraphManager().addRoot().add(sbgnLayout.newNode("n"));
+		String sbgnKey = cache.computeKey(sbgnLayout);
+
+		sbgnLayout.phase2MinGain /= 2;
+		String gainKey = cache.computeKey(sbgnLayout);
+		assertNotEquals(sbgnKey, gainKey);
+
+		sbgnLayout.phase2PlateauCheckCount++;
+		String plateauKey = cache.computeKey(sbgnLayout);
+		assertNotEquals(gainKey, plateauKey);
+
+		sbgnLayout.maxRotationsPerStep++;
+		assertNotEquals(plateauKey, cache.computeKey(sbgnLayout));
+	}
+
+	@Test
+	public void testSubLayoutForceSettingsChangeKey() throws Exception
+	{
+		LayoutCache cache = new LayoutCache(new MemoryLayoutStore(1 << 20));
+
+		CoSELayout layout = new CoSELayout();
+		createGraph(layout);
+		layout.isSubLayout = true;
+		String key = cache.computeKey(layout);
+
+		layout.idealEdgeLength *= 2;
+		String lengthKey = cache.computeKey(layout);
+		assertNotEquals(key, lengthKey);
+
+		layout.repulsionConstant *= 2;
+		String repulsionKey = cache.computeKey(layout);
+		assertNotEquals(lengthKey, repulsionKey);
+
+		layout.useMultiLevelScaling = !layout.useMultiLevelScaling;
+		assertNotEquals(repulsionKey, cache.computeKey(layout));
+	}
+
+	@Test
+	public void testLongTypesAreHashed() throws Exception
+	{
+		LayoutCache cache = new LayoutCache(new MemoryLayoutStore(1 << 20));
+
+		CoSELayout layout = new CoSELayout();
+		LNode[] nodes = createGraph(layout);
+
+		char[] type = new char[70000];
+		Arrays.fill(type, '\u00e9');
+		nodes[0].type = new String(type);
+		String key = cache.computeKey(layout);
+
+		type[type.length - 1] = 'e';
+		nodes[0].type = new String(type);
+		assertNotEquals(key, cache.computeKey(layout));
+	}
+
+	@Test
+	public void testPendingDiffAndCustomModelBypassCache() throws Exception
+	{
+		LayoutCache cache = new LayoutCache(new MemoryLayoutStore(1 << 20));
+
+		CoSELayout first = new CoSELayout();
+		createGraph(first);
+		assertTrue(cache.runLayout(first));
+
+		// same graph, but starting from the previous drawing
+		CoSELayout second = new CoSELayout();
+		LNode[] nodes = createGraph(second);
+		GraphDiff diff = new GraphDiff();
+		diff.addNode(nodes[1]);
+		second.setGraphDiff(diff);
+		assertTrue(cache.runLayout(second));
+		assertNull(second.getGraphDiff());
+
+		CoSELayout third = new CoSELayout();
+		createGraph(third);
+		third.forceModel = new DefaultForceModel()
+		{
+		};
+		assertTrue(cache.runLayout(third));
+
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getBypassCount());
+	}
+
+	@Test
+	public void testMemoryStoreEvictsLeastRecentlyUsed() throws Exception
+	{
+		MemoryLayoutStore store = new MemoryLayoutStore(25);
+		byte[] a = new byte[10];
+		byte[] b = new byte[10];
+		byte[] c = new byte[10];
+
+		assertNull(store.get("a"));
+		store.put("a", a);
+		store.put("b", b);
+		assertSame(a, store.get("a"));
+
+		store.put("c", c);
+		assertEquals(2, store.size());
+		assertEquals(20, store.getTotalBytes());
+		assertSame(a, store.get("a"));
+		assertNull(store.get("b"));
+		assertSame(c, store.get("c"));
+
+		// replacing a result does not count it twice
+		store.put("c", new byte[5]);
+		assertEquals(15, store.getTotalBytes());
+
+		// results larger than the limit are not kept
+		store.put("d", new byte[30]);
+		assertNull(store.get("d"));
+		assertEquals(2, store.size());
+	}
+
+	@Test
+	public void testDiskStoreEvictsLeastRecentlyUsed() throws Exception
+	{
+		File directory = Files.createTempDirectory("layouts").toFile();
+
+		try
+		{
+			DiskLayoutStore store = new DiskLayoutStore(directory, 25);
+			byte[] a = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+
+			assertNull(store.get("a"));
+			store.put("a", a);
+			store.put("b", new byte[10]);
+			assertEquals(20, store.getTotalBytes());
+
+			// make both results old, then use a
+			long now = System.currentTimeMillis();
+			new File(directory, "a.layout").setLastModified(now - 20000);
+			new File(directory, "b.layout").setLastModified(now - 10000);
+			assertArrayEquals(a, store.get("a"));
+
+			store.put("c", new byte[10]);
+			assertEquals(20, store.getTotalBytes());
+			assertArrayEquals(a, store.get("a"));
+			assertNull(store.get("b"));
+			assertNotNull(store.get("c"));
+
+			// results larger than the limit are not kept
+			store.put("d", new byte[30]);
+			assertNull(store.get("d"));
+
+			// results are found by a new store on the same directory
+			DiskLayoutStore reopened = new DiskLayoutStore(directory, 25);
+			assertEquals(20, reopened.getTotalBytes());
+			assertArrayEquals(a, reopened.get("a"));
+		}
+		finally
+		{
+			for (File file : directory.listFiles())
+			{
+				file.delete();
+			}
+
+			directory.delete();
+		}
+	}
+}
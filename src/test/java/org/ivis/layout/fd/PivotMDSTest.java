@@ -0,0 +1,149 @@
+package org.ivis.layout.fd;
+
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.LayoutConstants;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.cose.CoSELayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PivotMDSTest
+{
+	private static final double EDGE_LENGTH = 50;
+
+	@Test
+	public void testDisconnectedGraph() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraph root = layout.getGraphManager().addRoot();
+		LNode[] path1 = TestUtils.createPath(layout, root, 4);
+		LNode[] path2 = TestUtils.createPath(layout, root, 4);
+		root.add(layout.newNode("isolated"));
+
+		position(layout.getGraphManager());
+
+		Object[] nodes = layout.getGraphManager().getAllNodes();
+		double meanX = 0;
+		double meanY = 0;
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			LNode node = (LNode) nodes[i];
+			assertFinite(node);
+			meanX += node.getCenterX() / nodes.length;
+			meanY += node.getCenterY() / nodes.length;
+
+			// nodes of different components do not coincide either
+			for (int j = 0; j < i; j++)
+			{
+				assertTrue(distance(node, (LNode) nodes[j]) > 0);
+			}
+		}
+
+		assertEquals(LayoutConstants.WORLD_CENTER_X, meanX, 1e-6);
+		assertEquals(LayoutConstants.WORLD_CENTER_Y, meanY, 1e-6);
+
+		// the ends of a path are farther apart than its adjacent nodes
+		for (LNode[] path : new LNode[][] {path1, path2})
+		{
+			assertTrue(distance(path[0], path[3]) > distance(path[0], path[1]));
+			assertTrue(distance(path[0], path[3]) > distance(path[2], path[3]));
+		}
+	}
+
+	@Test
+	public void testFewerThanTwoNodes() throws Exception
+	{
+		// an empty graph is left as it is
+		Layout layout = new CoSELayout();
+		layout.getGraphManager().addRoot();
+		position(layout.getGraphManager());
+
+		// a single node is placed at the center, and a single member at the
+		// center of its compound node, which is then fit around it
+		layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LNode c = gm.addRoot().add(layout.newNode("c"));
+		LNode member = gm.add(layout.newGraph("C"), c).add(
+			layout.newNode("member"));
+		member.setCenter(-300, 700);
+
+		position(gm);
+
+		assertEquals(LayoutConstants.WORLD_CENTER_X, member.getCenterX(), 0);
+		assertEquals(LayoutConstants.WORLD_CENTER_Y, member.getCenterY(), 0);
+		assertTrue(c.getLeft() <= member.getLeft());
+		assertTrue(c.getTop() <= member.getTop());
+		assertTrue(c.getRight() >= member.getRight());
+		assertTrue(c.getBottom() >= member.getBottom());
+	}
+
+	@Test
+	public void testCompoundGraph() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode a = root.add(layout.newNode("a"));
+		LNode b = root.add(layout.newNode("b"));
+		LNode c = root.add(layout.newNode("c"));
+		LGraph child = gm.add(layout.newGraph("C"), c);
+		LNode[] path = TestUtils.createPath(layout, child, 3);
+		root.add(layout.newEdge(null), a, b);
+
+		// an inter-graph edge joins a and c in the root graph, and one
+		// between a compound node and its member is skipped
+		gm.add(layout.newEdge(null), a, path[0]);
+		gm.add(layout.newEdge(null), c, path[2]);
+
+		position(gm);
+
+		for (Object obj : gm.getAllNodes())
+		{
+			assertFinite((LNode) obj);
+		}
+
+		// the members are placed around their compound node, which encloses
+		// them
+		for (LNode member : path)
+		{
+			assertTrue(c.getLeft() <= member.getLeft());
+			assertTrue(c.getTop() <= member.getTop());
+			assertTrue(c.getRight() >= member.getRight());
+			assertTrue(c.getBottom() >= member.getBottom());
+		}
+
+		assertTrue(distance(path[0], path[2]) > distance(path[0], path[1]));
+
+		// b is a hop farther from c than a is
+		assertTrue(distance(b, c) > distance(a, c));
+	}
+
+	/**
+	 * Positions the nodes of the given graph manager by pivot MDS, after
+	 * calculating what it needs.
+	 */
+	private static void position(LGraphManager gm)
+	{
+		gm.calcLowestCommonAncestors();
+		gm.getRoot().calcEstimatedSize();
+		new PivotMDS(EDGE_LENGTH).position(gm);
+	}
+
+	private static double distance(LNode node, LNode other)
+	{
+		return Math.hypot(node.getCenterX() - other.getCenterX(),
+			node.getCenterY() - other.getCenterY());
+	}
+
+	private static void assertFinite(LNode node)
+	{
+		assertFalse(Double.isNaN(node.getCenterX()));
+		assertFalse(Double.isNaN(node.getCenterY()));
+		assertFalse(Double.isInfinite(node.getCenterX()));
+		assertFalse(Double.isInfinite(node.getCenterY()));
+	}
+}
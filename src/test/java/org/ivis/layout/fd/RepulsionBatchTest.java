@@ -0,0 +1,111 @@
+package org.ivis.layout.fd;
+
+import java.util.Random;
+
+import org.ivis.layout.LGraph;
+import org.ivis.layout.cose.CoSELayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RepulsionBatchTest
+{
+	private static final int BATCH_SIZE = 150;
+
+	/**
+	 * Batched repulsion forces are those of calcRepulsionForce for each pair,
+	 * including pairs whose distance along an axis is clamped, in a batch
+	 * larger than its initial capacity.
+	 */
+	@Test
+	public void testBatchMatchesPairwiseForces() throws Exception
+	{
+		CoSELayout pairwiseLayout = new CoSELayout();
+		FDLayoutNode[] pairwise = createNodes(pairwiseLayout, 7);
+		CoSELayout batchLayout = new CoSELayout();
+		FDLayoutNode[] batched = createNodes(batchLayout, 7);
+
+		for (int i = 1; i < pairwise.length; i++)
+		{
+			assertFalse(pairwise[0].getRect().intersects(
+				pairwise[i].getRect()));
+			pairwiseLayout.calcRepulsionForce(pairwise[0], pairwise[i]);
+		}
+
+		RepulsionBatch batch = new RepulsionBatch();
+		batch.clear(batched[0]);
+
+		for (int i = 1; i < batched.length; i++)
+		{
+			batch.add(batched[i]);
+		}
+
+		assertEquals(BATCH_SIZE, batch.size());
+		batch.calcForces(batchLayout.repulsionConstant);
+
+		for (int i = 0; i < pairwise.length; i++)
+		{
+			assertForce(pairwise[i].repulsionForceX,
+				batched[i].repulsionForceX);
+			assertForce(pairwise[i].repulsionForceY,
+				batched[i].repulsionForceY);
+		}
+	}
+
+	/**
+	 * Creates a node at the origin followed by nodes of uniform size around
+	 * it, some of which are nearly aligned with it along an axis, so that
+	 * their distance along the other axis is clamped.
+	 */
+	private static FDLayoutNode[] createNodes(CoSELayout layout, long seed)
+	{
+		layout.uniformLeafNodeSizes = true;
+		LGraph root = layout.getGraphManager().addRoot();
+		Random random = new Random(seed);
+		FDLayoutNode[] nodes = new FDLayoutNode[BATCH_SIZE + 1];
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i] = (FDLayoutNode) root.add(layout.newNode(null));
+			nodes[i].noOfChildren = 1 + random.nextInt(3);
+
+			if (i == 0)
+			{
+				nodes[i].setWidth(20);
+				nodes[i].setHeight(20);
+				nodes[i].setCenter(0, 0);
+				continue;
+			}
+
+			nodes[i].setWidth(10);
+			nodes[i].setHeight(10);
+
+			double near = (random.nextDouble() - 0.5) *
+				FDLayoutConstants.MIN_REPULSION_DIST;
+			double far = (random.nextBoolean() ? 1 : -1) *
+				(40 + 200 * random.nextDouble());
+
+			if (i % 5 == 0)
+			{
+				nodes[i].setCenter(near, far);
+			}
+			else if (i % 7 == 0)
+			{
+				nodes[i].setCenter(far, near);
+			}
+			else
+			{
+				double angle = 2 * Math.PI * random.nextDouble();
+				nodes[i].setCenter(Math.abs(far) * Math.cos(angle),
+					Math.abs(far) * Math.sin(angle));
+			}
+		}
+
+		return nodes;
+	}
+
+	private static void assertForce(double expected, double actual)
+	{
+		assertEquals(expected, actual,
+			1e-14 * Math.max(1.0, Math.abs(expected)));
+	}
+}
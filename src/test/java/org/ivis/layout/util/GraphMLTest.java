@@ -0,0 +1,162 @@
+package org.ivis.layout.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+
+import org.ivis.layout.LEdge;
+import org.ivis.layout.LGraph;
+import org.ivis.layout.LGraphManager;
+import org.ivis.layout.LNode;
+import org.ivis.layout.Layout;
+import org.ivis.layout.TestUtils;
+import org.ivis.layout.cose.CoSELayout;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GraphMLTest
+{
+	/**
+	 * A compound node at (100, 50) with a member at (10, 20) relative to it,
+	 * and a simple node at (5, 6)
+	 */
+	private static final String GRAPH =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n" +
+		"<key id=\"x\" for=\"node\" attr.name=\"x\" attr.type=\"int\"/>\n" +
+		"<key id=\"y\" for=\"node\" attr.name=\"y\" attr.type=\"int\"/>\n" +
+		"<graph id=\"\" edgedefault=\"undirected\">\n" +
+		"<node id=\"c\"><data key=\"x\">100</data><data key=\"y\">50</data>" +
+		"<data key=\"width\">80</data><data key=\"height\">60</data>" +
+		"<graph id=\"c:\" edgedefault=\"undirected\">" +
+		"<node id=\"m\"><data key=\"x\">10</data><data key=\"y\">20</data>" +
+		"<data key=\"text\">member</data></node>" +
+		"</graph></node>\n" +
+		"<node id=\"s\"><data key=\"x\">5</data><data key=\"y\">6</data></node>\n" +
+		"<edge id=\"e\" source=\"s\" target=\"m\"/>\n" +
+		"</graph>\n" +
+		"</graphml>\n";
+
+	@Test
+	public void testLoadGraph() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		GraphMLReader reader = new GraphMLReader(layout);
+		LGraphManager gm = reader.loadGraph(
+			new ByteArrayInputStream(GRAPH.getBytes("UTF-8")));
+
+		LNode c = reader.getNodeMap().get("c");
+		LNode m = reader.getNodeMap().get("m");
+		LNode s = reader.getNodeMap().get("s");
+
+		assertEquals(3, gm.getAllNodes().length);
+		assertEquals(1, gm.getInterGraphEdges().size());
+		assertSame(c, m.getOwner().getParent());
+		assertEquals("member", m.label);
+		assertEquals(100, c.getLeft(), 0);
+		assertEquals(50, c.getTop(), 0);
+		assertEquals(80, c.getWidth(), 0);
+		assertEquals(110, m.getLeft(), 0);
+		assertEquals(70, m.getTop(), 0);
+		assertEquals(5, s.getLeft(), 0);
+		assertEquals(6, s.getTop(), 0);
+	}
+
+	@Test
+	public void testLoadIntoExistingGraph() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph root = gm.addRoot();
+		LNode existing = root.add(layout.newNode(null));
+		LGraph child = gm.add(layout.newGraph(null), existing);
+		LNode member = child.add(layout.newNode(null));
+		existing.setLocation(300, 400);
+		member.setLocation(310, 420);
+
+		GraphMLReader reader = new GraphMLReader(layout);
+		reader.loadGraph(new ByteArrayInputStream(GRAPH.getBytes("UTF-8")));
+
+		// nodes that were in the graph are not moved
+		assertEquals(300, existing.getLeft(), 0);
+		assertEquals(400, existing.getTop(), 0);
+		assertEquals(310, member.getLeft(), 0);
+		assertEquals(420, member.getTop(), 0);
+
+		assertEquals(5, gm.getAllNodes().length);
+		assertEquals(110, reader.getNodeMap().get("m").getLeft(), 0);
+		assertEquals(70, reader.getNodeMap().get("m").getTop(), 0);
+		assertEquals(5, reader.getNodeMap().get("s").getLeft(), 0);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		Layout layout = new CoSELayout();
+		LGraphManager gm = layout.getGraphManager();
+		LGraph g1 = gm.addRoot();
+		LNode n1 = g1.add(layout.newNode(null));
+		LNode n2 = g1.add(layout.newNode(null));
+		LGraph g2 = gm.add(layout.newGraph(null), n2);
+		LNode n3 = g2.add(layout.newNode(null));
+		LNode n4 = g2.add(layout.newNode(null));
+		n3.label = "<n3 & co>";
+		n1.setLocation(-20, 15);
+		n2.setLocation(100, 200);
+		n3.setLocation(130, 240);
+		n4.setLocation(180, 250);
+		n2.setWidth(150);
+		n2.setHeight(90);
+		gm.add(layout.newEdge(null), n1, n3);
+		g2.add(layout.newEdge(null), n3, n4);
+
+		StringWriter out = new StringWriter();
+		new GraphMLWriter(out).saveGraph(gm);
+
+		Layout copy = new CoSELayout();
+		LGraphManager copyGm = new GraphMLReader(copy).loadGraph(
+			new ByteArrayInputStream(out.toString().getBytes("UTF-8")));
+
+		assertEquals(4, copyGm.getAllNodes().length);
+		assertEquals(2, copyGm.getAllEdges().length);
+		assertEquals(1, copyGm.getInterGraphEdges().size());
+
+		LEdge e1 = (LEdge) copyGm.getInterGraphEdges().get(0);
+		LNode copy1 = e1.getSource();
+		LNode copy3 = e1.getTarget();
+		LNode copy2 = copy3.getOwner().getParent();
+
+		assertEquals("<n3 & co>", copy3.label);
+		assertEquals(-20, copy1.getLeft(), 0);
+		assertEquals(15, copy1.getTop(), 0);
+		assertEquals(100, copy2.getLeft(), 0);
+		assertEquals(200, copy2.getTop(), 0);
+		assertEquals(150, copy2.getWidth(), 0);
+		assertEquals(90, copy2.getHeight(), 0);
+		assertEquals(130, copy3.getLeft(), 0);
+		assertEquals(240, copy3.getTop(), 0);
+	}
+
+	@Test
+	public void testMalformedGraph() throws Exception
+	{
+		assertMalformed(GRAPH.replace("target=\"m\"", "target=\"x\""));
+		assertMalformed(GRAPH.replace("<node id=\"s\">", "<node id=\"c\">"));
+		assertMalformed(GRAPH.replace(">100<", ">wide<"));
+		assertMalformed(GRAPH.replace(" source=\"s\"", ""));
+		assertMalformed(GRAPH.substring(0, GRAPH.indexOf("<edge")));
+	}
+
+	private static void assertMalformed(final String graph) throws Exception
+	{
+		TestUtils.assertMalformed(IOException.class, new Callable<Object>()
+		{
+			public Object call() throws Exception
+			{
+				return new GraphMLReader(new CoSELayout()).loadGraph(
+					new ByteArrayInputStream(graph.getBytes("UTF-8")));
+			}
+		});
+	}
+}